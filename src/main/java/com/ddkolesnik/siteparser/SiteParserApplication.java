@@ -1,15 +1,35 @@
 package com.ddkolesnik.siteparser;
 
+import com.ddkolesnik.siteparser.service.BatchRunner;
+import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.context.ConfigurableApplicationContext;
 
-@EnableScheduling
 @SpringBootApplication
 public class SiteParserApplication {
 
     public static void main(String[] args) {
+        if (args.length > 0 && BatchRunner.COMMAND.equals(args[0])) {
+            System.exit(runBatch(args));
+        }
         SpringApplication.run(SiteParserApplication.class, args);
     }
 
+    /*
+    Однократный запуск: без веб-сервера, devtools и задач по расписанию, бины создаются по первому обращению.
+    Сбор начинается после ApplicationReadyEvent, когда счётчики, секции и корзины дублей уже загружены
+     */
+    private static int runBatch(String[] args) {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        SpringApplication application = new SpringApplication(SiteParserApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setLazyInitialization(true);
+        application.setAdditionalProfiles(BatchRunner.PROFILE);
+        ConfigurableApplicationContext context = application.run(args);
+        int exitCode = context.getBean(BatchRunner.class).run(context.getBean(ApplicationArguments.class));
+        return SpringApplication.exit(context, () -> exitCode);
+    }
+
 }
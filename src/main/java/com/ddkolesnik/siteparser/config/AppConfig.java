@@ -4,11 +4,13 @@ import com.gargoylesoftware.htmlunit.BrowserVersion;
 import com.gargoylesoftware.htmlunit.SilentCssErrorHandler;
 import com.gargoylesoftware.htmlunit.WebClient;
 import com.gargoylesoftware.htmlunit.WebClientOptions;
-import com.scraperapi.ScraperApiClient;
 import kong.unirest.Unirest;
-import org.springframework.beans.factory.annotation.Value;
+import kong.unirest.UnirestInstance;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Scope;
 
 /**
  * @author Alexandr Stegnin
@@ -17,10 +19,13 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class AppConfig {
 
-    @Value("${scraper.api.key}")
-    String scraperApiKey;
-
+    /**
+     * Клиент для прямой загрузки страниц. Клиент не потокобезопасен, поэтому каждый запрос бина даёт новый клиент,
+     * клиенты переиспользуются через пул прямой загрузки
+     */
+    @Lazy
     @Bean
+    @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public WebClient webClient() {
         WebClient webClient = new WebClient(BrowserVersion.INTERNET_EXPLORER);
         webClient.setCssErrorHandler(new SilentCssErrorHandler());
@@ -38,10 +43,14 @@ public class AppConfig {
         options.setThrowExceptionOnFailingStatusCode(false);
     }
 
-    @Bean
-    public ScraperApiClient scraperApiClient() {
-        Unirest.config().socketTimeout(0).connectTimeout(0);
-        return new ScraperApiClient(scraperApiKey);
+    @Bean(destroyMethod = "shutDown")
+    public UnirestInstance scraperApiUnirest() {
+        UnirestInstance unirest = Unirest.spawnInstance();
+        unirest.config()
+                .socketTimeout(0)
+                .connectTimeout(0)
+                .requestCompression(true);
+        return unirest;
     }
 
 }
@@ -0,0 +1,18 @@
+package com.ddkolesnik.siteparser.config;
+
+import com.ddkolesnik.siteparser.service.BatchRunner;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Задачи по расписанию запускаются только в постоянно работающем приложении, при однократном запуске их нет
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Configuration
+@EnableScheduling
+@Profile("!" + BatchRunner.PROFILE)
+public class SchedulingConfig {
+}
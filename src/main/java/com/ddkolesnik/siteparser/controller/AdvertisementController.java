@@ -0,0 +1,124 @@
+package com.ddkolesnik.siteparser.controller;
+
+import com.ddkolesnik.siteparser.dto.AdvertisementFilter;
+import com.ddkolesnik.siteparser.dto.AdvertisementPage;
+import com.ddkolesnik.siteparser.dto.AdvertisementView;
+import com.ddkolesnik.siteparser.dto.PricePoint;
+import com.ddkolesnik.siteparser.service.AdvertisementExportService;
+import com.ddkolesnik.siteparser.service.AdvertisementService;
+import com.ddkolesnik.siteparser.service.DuplicateDetectionService;
+import com.ddkolesnik.siteparser.service.ReparseService;
+import com.ddkolesnik.siteparser.utils.ExportFormat;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@RestController
+@RequestMapping(path = "/advertisements")
+public class AdvertisementController {
+
+    private static final int MAX_LIMIT = 500;
+
+    private final AdvertisementService advertisementService;
+
+    private final AdvertisementExportService advertisementExportService;
+
+    private final DuplicateDetectionService duplicateDetectionService;
+
+    private final ReparseService reparseService;
+
+    public AdvertisementController(AdvertisementService advertisementService,
+                                   AdvertisementExportService advertisementExportService,
+                                   DuplicateDetectionService duplicateDetectionService,
+                                   ReparseService reparseService) {
+        this.advertisementService = advertisementService;
+        this.advertisementExportService = advertisementExportService;
+        this.duplicateDetectionService = duplicateDetectionService;
+        this.reparseService = reparseService;
+    }
+
+    @GetMapping
+    public AdvertisementPage find(@ModelAttribute AdvertisementFilter filter,
+                                  @RequestParam(required = false) String cursor,
+                                  @RequestParam(defaultValue = "50") int limit,
+                                  @RequestParam(defaultValue = "false") boolean withDescription) {
+        return advertisementService.findPage(filter, cursor, Math.max(1, Math.min(limit, MAX_LIMIT)), withDescription);
+    }
+
+    @GetMapping(path = "/search")
+    public AdvertisementPage search(@RequestParam String q,
+                                    @ModelAttribute AdvertisementFilter filter,
+                                    @RequestParam(required = false) String cursor,
+                                    @RequestParam(defaultValue = "20") int limit) {
+        return advertisementService.search(q, filter, cursor, Math.max(1, Math.min(limit, MAX_LIMIT)));
+    }
+
+    @GetMapping(path = "/{id}/duplicates")
+    public List<AdvertisementView> duplicates(@PathVariable long id) {
+        return advertisementService.getDuplicates(id);
+    }
+
+    @PostMapping(path = "/duplicates/rebuild")
+    public String rebuildDuplicates() {
+        duplicateDetectionService.rebuild();
+        return "Кластеры дублей пересчитаны";
+    }
+
+    @PostMapping(path = "/reparse")
+    public String reparse() {
+        if (reparseService.isRunning()) {
+            return "Повторный разбор архива страниц уже выполняется";
+        }
+        int updated = reparseService.reparse();
+        return String.format("Повторный разбор архива страниц завершён, обновлено объявлений [%d шт]", updated);
+    }
+
+    @GetMapping(path = "/{id}/prices")
+    public List<PricePoint> prices(@PathVariable long id) {
+        return advertisementService.getPriceHistory(id);
+    }
+
+    @GetMapping(path = "/price-drops")
+    public List<PricePoint> priceDrops(@RequestParam(required = false)
+                                       @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime since,
+                                       @RequestParam(defaultValue = "50") int limit) {
+        LocalDateTime from = since == null ? LocalDateTime.now().minusWeeks(1) : since;
+        return advertisementService.getPriceDrops(from, Math.max(1, Math.min(limit, MAX_LIMIT)));
+    }
+
+    @GetMapping(path = "/export")
+    public ResponseEntity<StreamingResponseBody> export(@ModelAttribute AdvertisementFilter filter,
+                                                        @RequestParam(required = false)
+                                                        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                LocalDateTime modifiedSince,
+                                                        @RequestParam(defaultValue = "NDJSON") ExportFormat format,
+                                                        @RequestParam(defaultValue = "false") boolean gzip) {
+        String fileName = "advertisements." + format.getExtension() + (gzip ? ".gz" : "");
+        MediaType contentType = gzip ? MediaType.parseMediaType("application/gzip")
+                : MediaType.parseMediaType(format.getContentType() + ";charset=UTF-8");
+        StreamingResponseBody body = out -> advertisementExportService.export(filter, modifiedSince, format, gzip, out);
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + fileName)
+                .body(body);
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.ddkolesnik.siteparser.controller;
+
+import com.ddkolesnik.siteparser.service.FetchRouter;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Показатели способов загрузки страниц
+ *
+ * @author Alexandr Stegnin
+ */
+
+@RestController
+@RequestMapping(path = "/fetch")
+public class FetchController {
+
+    private final FetchRouter fetchRouter;
+
+    public FetchController(FetchRouter fetchRouter) {
+        this.fetchRouter = fetchRouter;
+    }
+
+    /**
+     * Получить цену, долю успешных ответов и время ответа каждого способа загрузки в порядке применения
+     */
+    @GetMapping(path = "/backends")
+    public List<Map<String, Object>> backends() {
+        return fetchRouter.getStatus();
+    }
+
+}
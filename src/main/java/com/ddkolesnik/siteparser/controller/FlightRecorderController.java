@@ -0,0 +1,55 @@
+package com.ddkolesnik.siteparser.controller;
+
+import com.ddkolesnik.siteparser.service.FlightRecorderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+
+/**
+ * Управление записью Java Flight Recorder
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@RestController
+@RequestMapping(path = "/jfr")
+public class FlightRecorderController {
+
+    private final FlightRecorderService flightRecorderService;
+
+    public FlightRecorderController(FlightRecorderService flightRecorderService) {
+        this.flightRecorderService = flightRecorderService;
+    }
+
+    @GetMapping
+    public Map<String, Object> status() {
+        return flightRecorderService.getStatus();
+    }
+
+    @PostMapping(path = "/start")
+    public Map<String, Object> start() {
+        return flightRecorderService.start();
+    }
+
+    @PostMapping(path = "/dump")
+    public String dump() {
+        try {
+            return flightRecorderService.dump();
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
+    @PostMapping(path = "/stop")
+    public Map<String, Object> stop() {
+        return flightRecorderService.stop();
+    }
+
+}
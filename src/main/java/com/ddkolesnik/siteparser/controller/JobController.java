@@ -0,0 +1,75 @@
+package com.ddkolesnik.siteparser.controller;
+
+import com.ddkolesnik.siteparser.service.CrawlJob;
+import com.ddkolesnik.siteparser.service.CrawlJobService;
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import com.ddkolesnik.siteparser.utils.SubCategory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Управление заданиями на сбор объявлений
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@RestController
+@RequestMapping(path = "/jobs")
+public class JobController {
+
+    private final CrawlJobService crawlJobService;
+
+    public JobController(CrawlJobService crawlJobService) {
+        this.crawlJobService = crawlJobService;
+    }
+
+    /**
+     * Запустить задание. Без категории, подкатегории или вида собираются все подходящие сочетания фильтров города.
+     * Если такое же задание уже идёт, возвращается оно, пересекающееся задание отклоняется с кодом 409
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> start(@RequestParam(defaultValue = "TYUMEN") City city,
+                                                     @RequestParam(required = false) AdvCategory category,
+                                                     @RequestParam(required = false) SubCategory subCategory,
+                                                     @RequestParam(required = false) AdvertisementType type,
+                                                     @RequestParam(defaultValue = "false") boolean full) {
+        List<Pipeline> pipelines = Pipeline.select(city, category, subCategory, type);
+        if (pipelines.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Нет сочетаний фильтров для выбранных значений");
+        }
+        CrawlJob job = crawlJobService.start(pipelines, full, CrawlJob.Trigger.MANUAL);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.getStatus());
+    }
+
+    @GetMapping
+    public List<Map<String, Object>> jobs() {
+        return crawlJobService.getJobs().stream().map(CrawlJob::getStatus).collect(Collectors.toList());
+    }
+
+    @GetMapping(path = "/{id}")
+    public Map<String, Object> job(@PathVariable long id) {
+        return crawlJobService.get(id).getStatus();
+    }
+
+    @PostMapping(path = "/{id}/cancel")
+    public Map<String, Object> cancel(@PathVariable long id) {
+        return crawlJobService.cancel(id).getStatus();
+    }
+
+}
@@ -1,10 +1,20 @@
 package com.ddkolesnik.siteparser.controller;
 
+import com.ddkolesnik.siteparser.dto.AdvertisementFilter;
+import com.ddkolesnik.siteparser.dto.AdvertisementStats;
 import com.ddkolesnik.siteparser.service.AdvertisementService;
+import com.ddkolesnik.siteparser.service.AdvertisementStatsService;
+import com.ddkolesnik.siteparser.service.MemoryBudget;
+import com.ddkolesnik.siteparser.service.RetentionService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * @author Alexandr Stegnin
  */
@@ -15,8 +25,19 @@ public class MainController {
 
     private final AdvertisementService advertisementService;
 
-    public MainController(AdvertisementService advertisementService) {
+    private final AdvertisementStatsService advertisementStatsService;
+
+    private final MemoryBudget memoryBudget;
+
+    private final RetentionService retentionService;
+
+    public MainController(AdvertisementService advertisementService,
+                          AdvertisementStatsService advertisementStatsService, MemoryBudget memoryBudget,
+                          RetentionService retentionService) {
         this.advertisementService = advertisementService;
+        this.advertisementStatsService = advertisementStatsService;
+        this.memoryBudget = memoryBudget;
+        this.retentionService = retentionService;
     }
 
     @GetMapping(path = "/count")
@@ -24,4 +45,32 @@ public class MainController {
         return String.format("Всего объявлений в базе данных [%d шт]", advertisementService.count());
     }
 
+    /**
+     * Статистика по группам (город, категория, вид, актуальность).
+     * Из фильтра учитываются только эти поля, остальные игнорируются
+     */
+    @GetMapping(path = "/stats")
+    public List<AdvertisementStats> stats(@ModelAttribute AdvertisementFilter filter) {
+        return advertisementStatsService.getStats(filter);
+    }
+
+    @PostMapping(path = "/stats/reconcile")
+    public List<AdvertisementStats> reconcile() {
+        advertisementStatsService.reconcile();
+        return advertisementStatsService.getStats(new AdvertisementFilter());
+    }
+
+    @GetMapping(path = "/memory")
+    public List<Map<String, Object>> memory() {
+        return memoryBudget.getSnapshot();
+    }
+
+    /**
+     * Ход последнего удаления неактуальных объявлений
+     */
+    @GetMapping(path = "/retention")
+    public Map<String, Object> retention() {
+        return retentionService.getStatus();
+    }
+
 }
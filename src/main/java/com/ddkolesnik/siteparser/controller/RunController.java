@@ -0,0 +1,42 @@
+package com.ddkolesnik.siteparser.controller;
+
+import com.ddkolesnik.siteparser.service.CrawlRunService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * История запусков сбора объявлений
+ *
+ * @author Alexandr Stegnin
+ */
+
+@RestController
+@RequestMapping(path = "/runs")
+public class RunController {
+
+    private final CrawlRunService crawlRunService;
+
+    public RunController(CrawlRunService crawlRunService) {
+        this.crawlRunService = crawlRunService;
+    }
+
+    @GetMapping
+    public List<Map<String, Object>> runs(@RequestParam(defaultValue = "20") int limit) {
+        return crawlRunService.getRuns(limit);
+    }
+
+    /**
+     * Сравнить запуск со средним по предыдущим завершённым запускам того же режима
+     */
+    @GetMapping(path = "/{id}")
+    public Map<String, Object> report(@PathVariable long id, @RequestParam(defaultValue = "5") int trailing) {
+        return crawlRunService.getReport(id, trailing);
+    }
+
+}
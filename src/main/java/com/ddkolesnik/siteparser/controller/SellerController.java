@@ -0,0 +1,42 @@
+package com.ddkolesnik.siteparser.controller;
+
+import com.ddkolesnik.siteparser.model.Seller;
+import com.ddkolesnik.siteparser.service.SellerService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Продавцы. Объявления продавца выбираются через /advertisements?sellerId=
+ *
+ * @author Alexandr Stegnin
+ */
+
+@RestController
+@RequestMapping(path = "/sellers")
+public class SellerController {
+
+    private static final int MAX_LIMIT = 500;
+
+    private final SellerService sellerService;
+
+    public SellerController(SellerService sellerService) {
+        this.sellerService = sellerService;
+    }
+
+    @GetMapping
+    public List<Seller> find(@RequestParam(required = false) String name,
+                             @RequestParam(defaultValue = "50") int limit) {
+        return sellerService.find(name, Math.max(1, Math.min(limit, MAX_LIMIT)));
+    }
+
+    @GetMapping(path = "/{id}")
+    public Seller get(@PathVariable long id) {
+        return sellerService.get(id);
+    }
+
+}
@@ -1,13 +1,19 @@
 package com.ddkolesnik.siteparser.controller;
 
+import com.ddkolesnik.siteparser.service.CrawlJobService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.ConfigurableApplicationContext;
-import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author Alexandr Stegnin
  */
@@ -16,12 +22,26 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class ShutdownController implements ApplicationContextAware {
 
+    private final CrawlJobService crawlJobService;
+
     private ApplicationContext context;
 
-    @GetMapping("/shutdown")
-    public void shutdownContext() {
+    public ShutdownController(CrawlJobService crawlJobService) {
+        this.crawlJobService = crawlJobService;
+    }
+
+    /**
+     * Остановить приложение. Сначала задания сбора дорабатывают начатые загрузки не дольше timeout секунд,
+     * накопленные объявления записываются, невыполненные задачи сохраняются, затем закрывается контекст.
+     * Контекст закрывается в отдельном потоке, чтобы ответ с отчётом успел уйти
+     */
+    @RequestMapping(path = "/shutdown", method = {RequestMethod.GET, RequestMethod.POST})
+    public Map<String, Object> shutdownContext(@RequestParam(defaultValue = "60") long timeout) {
         log.info("Останавливаем приложение...");
-        ((ConfigurableApplicationContext) context).close();
+        Map<String, Object> report = crawlJobService.drain(TimeUnit.SECONDS.toMillis(timeout));
+        Thread closer = new Thread(((ConfigurableApplicationContext) context)::close, "shutdown");
+        closer.start();
+        return report;
     }
 
     @Override
@@ -0,0 +1,43 @@
+package com.ddkolesnik.siteparser.dto;
+
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import lombok.Data;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Фильтр выборки объявлений, все поля необязательные
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Data
+public class AdvertisementFilter {
+
+    private City city;
+
+    private AdvCategory category;
+
+    private AdvertisementType advType;
+
+    private Boolean actual;
+
+    private Boolean enriched;
+
+    private Long sellerId;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate publishedFrom;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate publishedTo;
+
+    private BigDecimal priceFrom;
+
+    private BigDecimal priceTo;
+
+}
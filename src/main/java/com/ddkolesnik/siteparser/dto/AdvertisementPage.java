@@ -0,0 +1,23 @@
+package com.ddkolesnik.siteparser.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Страница объявлений. Для получения следующей страницы курсор передаётся в запрос как есть,
+ * при отсутствии курсора страниц больше нет
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Data
+@AllArgsConstructor
+public class AdvertisementPage {
+
+    private List<AdvertisementView> items;
+
+    private String nextCursor;
+
+}
@@ -0,0 +1,58 @@
+package com.ddkolesnik.siteparser.dto;
+
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Количество объявлений и агрегаты по цене и площади в разрезе (город, категория, вид, актуальность)
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AdvertisementStats {
+
+    private City city;
+
+    private AdvCategory category;
+
+    private AdvertisementType advType;
+
+    private boolean actual;
+
+    private long count;
+
+    private long priceCount;
+
+    private BigDecimal priceSum;
+
+    private long areaCount;
+
+    private BigDecimal areaSum;
+
+    public BigDecimal getAvgPrice() {
+        return average(priceSum, priceCount);
+    }
+
+    public BigDecimal getAvgArea() {
+        return average(areaSum, areaCount);
+    }
+
+    private static BigDecimal average(BigDecimal sum, long count) {
+        return count == 0 || sum == null ? null : sum.divide(BigDecimal.valueOf(count), 2, RoundingMode.HALF_UP);
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.ddkolesnik.siteparser.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Объявление в ответе API, описание заполняется только по запросу, релевантность и фрагмент - только при поиске
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Data
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AdvertisementView {
+
+    private Long id;
+
+    private String title;
+
+    private BigDecimal areaM2;
+
+    private BigDecimal price;
+
+    private String address;
+
+    private String stations;
+
+    private String description;
+
+    private String link;
+
+    private String advType;
+
+    private String city;
+
+    private String category;
+
+    private LocalDate publishDate;
+
+    private boolean actual;
+
+    private boolean enriched;
+
+    private Long clusterId;
+
+    private Long sellerId;
+
+    private Float rank;
+
+    private String snippet;
+
+}
@@ -0,0 +1,36 @@
+package com.ddkolesnik.siteparser.dto;
+
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Загруженная страница объявления в архиве страниц вместе со сведениями, которых на самой странице нет
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Value
+@Builder
+public class PageRecord {
+
+    String url;
+
+    LocalDateTime fetchedAt;
+
+    AdvertisementType advType;
+
+    City city;
+
+    AdvCategory category;
+
+    LocalDate publishDate;
+
+    String html;
+
+}
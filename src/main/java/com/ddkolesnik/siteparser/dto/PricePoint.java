@@ -0,0 +1,37 @@
+package com.ddkolesnik.siteparser.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Наблюдение цены объявления. Для выборки снижений цены заполняются также предыдущая цена и данные объявления
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class PricePoint {
+
+    private Long advertisementId;
+
+    private LocalDateTime observedAt;
+
+    private BigDecimal price;
+
+    private BigDecimal previousPrice;
+
+    private String title;
+
+    private String link;
+
+}
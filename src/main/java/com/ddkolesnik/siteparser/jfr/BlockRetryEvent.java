@@ -0,0 +1,32 @@
+package com.ddkolesnik.siteparser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Повторная загрузка страницы, вернувшейся с блокировкой
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Name("com.ddkolesnik.siteparser.BlockRetry")
+@Label("Block Page Retry")
+@Category({"Site Parser", "Fetch"})
+@StackTrace(false)
+public class BlockRetryEvent extends Event {
+
+    @Label("URL")
+    public String url;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Attempts Left")
+    public int attemptsLeft;
+
+}
@@ -0,0 +1,24 @@
+package com.ddkolesnik.siteparser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Запись пачки объявлений в базу данных
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Name("com.ddkolesnik.siteparser.DbFlush")
+@Label("DB Flush")
+@Category({"Site Parser", "Database"})
+@StackTrace(false)
+public class DbFlushEvent extends Event {
+
+    @Label("Advertisements")
+    public int count;
+
+}
@@ -0,0 +1,40 @@
+package com.ddkolesnik.siteparser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Загрузка страницы объявления
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Name("com.ddkolesnik.siteparser.DetailFetch")
+@Label("Detail Fetch")
+@Category({"Site Parser", "Fetch"})
+@StackTrace(false)
+public class DetailFetchEvent extends Event {
+
+    @Label("URL")
+    public String url;
+
+    @Label("Category")
+    public String category;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Conditional")
+    @Description("Условный запрос по ETag/Last-Modified")
+    public boolean conditional;
+
+    @Label("Not Modified")
+    public boolean notModified;
+
+}
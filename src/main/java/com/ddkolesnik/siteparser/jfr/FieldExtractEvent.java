@@ -0,0 +1,27 @@
+package com.ddkolesnik.siteparser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Извлечение одного поля объявления из разобранной страницы
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Name("com.ddkolesnik.siteparser.FieldExtract")
+@Label("Field Extract")
+@Category({"Site Parser", "Parse"})
+@StackTrace(false)
+public class FieldExtractEvent extends Event {
+
+    @Label("URL")
+    public String url;
+
+    @Label("Field")
+    public String field;
+
+}
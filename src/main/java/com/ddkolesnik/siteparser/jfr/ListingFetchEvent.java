@@ -0,0 +1,35 @@
+package com.ddkolesnik.siteparser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Загрузка страницы списка объявлений
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Name("com.ddkolesnik.siteparser.ListingFetch")
+@Label("Listing Fetch")
+@Category({"Site Parser", "Fetch"})
+@StackTrace(false)
+public class ListingFetchEvent extends Event {
+
+    @Label("URL")
+    public String url;
+
+    @Label("Category")
+    public String category;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Links")
+    public int links;
+
+}
@@ -0,0 +1,29 @@
+package com.ddkolesnik.siteparser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Разбор тела ответа Jsoup, при загрузке включает чтение тела из сети
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Name("com.ddkolesnik.siteparser.Parse")
+@Label("Jsoup Parse")
+@Category({"Site Parser", "Parse"})
+@StackTrace(false)
+public class ParseEvent extends Event {
+
+    @Label("URL")
+    public String url;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+}
@@ -1,5 +1,11 @@
 package com.ddkolesnik.siteparser.model;
 
+import com.ddkolesnik.siteparser.model.converter.AdvCategoryConverter;
+import com.ddkolesnik.siteparser.model.converter.AdvertisementTypeConverter;
+import com.ddkolesnik.siteparser.model.converter.CityConverter;
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -29,6 +35,9 @@ public class Advertisement extends AbstractEntity {
     @Column
     private String area;
 
+    @Column(name = "area_m2")
+    private BigDecimal areaM2;
+
     @Column
     private BigDecimal price;
 
@@ -47,35 +56,50 @@ public class Advertisement extends AbstractEntity {
     @Column(name = "date_create")
     private String dateCreate;
 
-    @Column(name = "seller_name")
+    @Column(name = "seller_id")
+    private Long sellerId;
+
+    // сведения о продавце со страницы объявления, хранятся в таблице seller
+    @Transient
     private String sellerName;
 
-    @Column(name = "seller_type")
+    @Transient
     private String sellerType;
 
-    @Column(name = "seller_on_avito")
+    @Transient
     private String sellerOnAvito;
 
-    @Column(name = "seller_adv_complete")
+    @Transient
     private String sellerAdvComplete;
 
-    @Column(name = "seller_adv_actual")
+    @Transient
     private String sellerAdvActual;
 
     @Column(name = "adv_type")
-    private String advType;
+    @Convert(converter = AdvertisementTypeConverter.class)
+    private AdvertisementType advType;
 
     @Column(name = "city")
-    private String city;
+    @Convert(converter = CityConverter.class)
+    private City city;
 
     @Column(name = "publish_date")
     private LocalDate publishDate;
 
     @Column(name = "category")
-    private String category;
+    @Convert(converter = AdvCategoryConverter.class)
+    private AdvCategory category;
+
+    @Column(name = "cluster_id")
+    private Long clusterId;
 
     @Column(name = "actual")
     @Builder.Default
     private boolean actual = true;
 
+    // false - записано по карточке из выдачи, описание, продавец и станции появятся после загрузки страницы
+    @Column(name = "enriched")
+    @Builder.Default
+    private boolean enriched = true;
+
 }
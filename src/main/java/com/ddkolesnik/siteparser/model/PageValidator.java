@@ -0,0 +1,40 @@
+package com.ddkolesnik.siteparser.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+/**
+ * Валидаторы последней загрузки страницы для условных запросов
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "page_validator")
+@EqualsAndHashCode(callSuper = true)
+public class PageValidator extends AbstractEntity {
+
+    @Column
+    private String url;
+
+    @Column
+    private String etag;
+
+    @Column(name = "last_modified")
+    private String lastModified;
+
+    @Column(name = "body_hash")
+    private String bodyHash;
+
+}
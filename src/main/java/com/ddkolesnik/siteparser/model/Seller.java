@@ -0,0 +1,50 @@
+package com.ddkolesnik.siteparser.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+/**
+ * Продавец. Сведения профиля берутся из последнего записанного объявления продавца,
+ * кол-во объявлений поддерживается при записи объявлений
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "seller")
+@EqualsAndHashCode(callSuper = true)
+public class Seller extends AbstractEntity {
+
+    @Column(name = "seller_key")
+    private String sellerKey;
+
+    @Column
+    private String name;
+
+    @Column
+    private String type;
+
+    @Column(name = "on_avito")
+    private String onAvito;
+
+    @Column(name = "adv_complete")
+    private String advComplete;
+
+    @Column(name = "adv_actual")
+    private String advActual;
+
+    @Column(name = "adv_count")
+    private long advCount;
+
+}
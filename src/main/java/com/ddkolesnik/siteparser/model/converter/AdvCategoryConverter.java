@@ -0,0 +1,27 @@
+package com.ddkolesnik.siteparser.model.converter;
+
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Категория хранится в базе данных кодом SMALLINT
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Converter
+public class AdvCategoryConverter implements AttributeConverter<AdvCategory, Short> {
+
+    @Override
+    public Short convertToDatabaseColumn(AdvCategory attribute) {
+        return attribute == null ? null : (short) attribute.getId();
+    }
+
+    @Override
+    public AdvCategory convertToEntityAttribute(Short dbData) {
+        return dbData == null ? null : AdvCategory.fromId((int) dbData);
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.ddkolesnik.siteparser.model.converter;
+
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Вид объявления хранится в базе данных кодом SMALLINT
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Converter
+public class AdvertisementTypeConverter implements AttributeConverter<AdvertisementType, Short> {
+
+    @Override
+    public Short convertToDatabaseColumn(AdvertisementType attribute) {
+        return attribute == null ? null : (short) attribute.getId();
+    }
+
+    @Override
+    public AdvertisementType convertToEntityAttribute(Short dbData) {
+        return dbData == null ? null : AdvertisementType.fromId((int) dbData);
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.ddkolesnik.siteparser.model.converter;
+
+import com.ddkolesnik.siteparser.utils.City;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Город хранится в базе данных кодом SMALLINT
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Converter
+public class CityConverter implements AttributeConverter<City, Short> {
+
+    @Override
+    public Short convertToDatabaseColumn(City attribute) {
+        return attribute == null ? null : (short) attribute.getId();
+    }
+
+    @Override
+    public City convertToEntityAttribute(Short dbData) {
+        return dbData == null ? null : City.fromId((int) dbData);
+    }
+
+}
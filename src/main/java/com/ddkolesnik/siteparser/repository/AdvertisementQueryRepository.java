@@ -0,0 +1,301 @@
+package com.ddkolesnik.siteparser.repository;
+
+import com.ddkolesnik.siteparser.dto.AdvertisementFilter;
+import com.ddkolesnik.siteparser.dto.AdvertisementView;
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.jdbc.DatabaseDriver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Выборки объявлений с произвольным набором фильтров.
+ * Условия добавляются в запрос только для заданных фильтров, чтобы планировщик мог использовать индексы
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Repository
+public class AdvertisementQueryRepository {
+
+    private static final String COLUMNS = "id, title, area_m2, price, address, stations, link, adv_type, city, " +
+            "category, publish_date, actual, enriched, cluster_id, seller_id";
+
+    // в выгрузке коды заменяются названиями, как они хранились до перехода на коды
+    private static final String EXPORT_CITY = decode("adv.city", "city",
+            Arrays.stream(City.values()).collect(Collectors.toMap(City::getId, City::getDescription)));
+
+    private static final String EXPORT_CATEGORY = decode("adv.category", "category",
+            Arrays.stream(AdvCategory.values()).collect(Collectors.toMap(AdvCategory::getId, AdvCategory::getTitle)));
+
+    private static final String EXPORT_ADV_TYPE = decode("adv.adv_type", "adv_type",
+            Arrays.stream(AdvertisementType.values())
+                    .collect(Collectors.toMap(AdvertisementType::getId, AdvertisementType::getTitle)));
+
+    private static final String EXPORT_COLUMNS = "adv.id, adv.title, adv.area, adv.area_m2, adv.price, adv.address, " +
+            "adv.stations, adv.description, adv.link, adv.date_create, adv.seller_id, s.name AS seller_name, " +
+            "s.type AS seller_type, s.on_avito AS seller_on_avito, s.adv_complete AS seller_adv_complete, " +
+            "s.adv_actual AS seller_adv_actual, " + EXPORT_ADV_TYPE + ", " + EXPORT_CITY + ", " + EXPORT_CATEGORY +
+            ", adv.publish_date, adv.actual, " +
+            "adv.cluster_id, adv.creation_time, adv.modified_time";
+
+    private static final String HEADLINE_OPTIONS = "StartSel=<b>, StopSel=</b>, MaxFragments=2, MaxWords=25, MinWords=10";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate exportJdbcTemplate;
+
+    private final boolean fullTextSearch;
+
+    public AdvertisementQueryRepository(NamedParameterJdbcTemplate jdbcTemplate, DataSource dataSource,
+                                        @Value("${export.fetch-size:500}") int exportFetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        JdbcTemplate exportTemplate = new JdbcTemplate(dataSource);
+        exportTemplate.setFetchSize(exportFetchSize);
+        this.exportJdbcTemplate = new NamedParameterJdbcTemplate(exportTemplate);
+        this.fullTextSearch = DatabaseDriver.fromJdbcUrl(getUrl(dataSource)) == DatabaseDriver.POSTGRESQL;
+    }
+
+    /**
+     * Получить страницу объявлений по убыванию (дата публикации, id), начиная после курсора.
+     * Объявления без даты публикации в выборку не попадают
+     *
+     * @param filter          фильтр
+     * @param afterDate       дата публикации последнего объявления предыдущей страницы
+     * @param afterId         id последнего объявления предыдущей страницы
+     * @param limit           размер страницы
+     * @param withDescription включать описание
+     * @return объявления
+     */
+    public List<AdvertisementView> findPage(AdvertisementFilter filter, LocalDate afterDate, Long afterId, int limit,
+                                            boolean withDescription) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = new StringBuilder("SELECT ").append(COLUMNS);
+        if (withDescription) {
+            sql.append(", description");
+        }
+        sql.append(" FROM advertisement WHERE publish_date IS NOT NULL");
+        appendFilter(filter, sql, params);
+        if (Objects.nonNull(afterDate) && Objects.nonNull(afterId)) {
+            // сравнение строк целиком - поиск по диапазону индекса (publish_date, id), а не перебор
+            sql.append(" AND (publish_date, id) < (:afterDate, :afterId)");
+            params.addValue("afterDate", Date.valueOf(afterDate));
+            params.addValue("afterId", afterId);
+        }
+        sql.append(" ORDER BY publish_date DESC, id DESC LIMIT :limit");
+        params.addValue("limit", limit);
+        return jdbcTemplate.query(sql.toString(), params, (rs, rowNum) -> toView(rs, withDescription).build());
+    }
+
+    /**
+     * Найти объявления по словам в заголовке и описании.
+     * На PostgreSQL поиск идёт по полю search_vector с русской морфологией, результаты упорядочены
+     * по релевантности и содержат фрагмент описания с подсвеченными совпадениями.
+     * На остальных базах данных (H2 в профиле dev) - поиск подстроки без учёта регистра
+     *
+     * @param query  поисковый запрос
+     * @param filter фильтр
+     * @param offset кол-во пропускаемых результатов
+     * @param limit  размер страницы
+     * @return объявления
+     */
+    public List<AdvertisementView> search(String query, AdvertisementFilter filter, int offset, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("query", query)
+                .addValue("offset", offset)
+                .addValue("limit", limit);
+        StringBuilder sql = new StringBuilder();
+        if (fullTextSearch) {
+            sql.append("SELECT ").append(COLUMNS).append(", rank, ts_headline('russian', COALESCE(description, title), ")
+                    .append("plainto_tsquery('russian', :query), '").append(HEADLINE_OPTIONS).append("') AS snippet")
+                    .append(" FROM (SELECT ").append(COLUMNS).append(", description, ")
+                    .append("ts_rank(search_vector, plainto_tsquery('russian', :query)) AS rank FROM advertisement")
+                    .append(" WHERE search_vector @@ plainto_tsquery('russian', :query)");
+            appendFilter(filter, sql, params);
+            sql.append(" ORDER BY rank DESC, id DESC LIMIT :limit OFFSET :offset) found ORDER BY rank DESC, id DESC");
+        } else {
+            sql.append("SELECT ").append(COLUMNS).append(" FROM advertisement")
+                    .append(" WHERE (LOWER(title) LIKE :pattern OR LOWER(description) LIKE :pattern)");
+            params.addValue("pattern", "%" + query.toLowerCase() + "%");
+            appendFilter(filter, sql, params);
+            sql.append(" ORDER BY publish_date DESC, id DESC LIMIT :limit OFFSET :offset");
+        }
+        return jdbcTemplate.query(sql.toString(), params, (rs, rowNum) -> {
+            AdvertisementView.AdvertisementViewBuilder view = toView(rs, false);
+            if (fullTextSearch) {
+                view.rank(rs.getFloat("rank")).snippet(rs.getString("snippet"));
+            }
+            return view.build();
+        });
+    }
+
+    /**
+     * Прочитать объявления по фильтру однонаправленным курсором, не загружая выборку в память целиком.
+     * Курсор на стороне сервера работает только внутри транзакции
+     *
+     * @param filter        фильтр
+     * @param modifiedSince выбирать только созданные или изменённые начиная с этого момента
+     * @param handler       обработчик строк
+     */
+    public void export(AdvertisementFilter filter, LocalDateTime modifiedSince, RowCallbackHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = new StringBuilder("SELECT ").append(EXPORT_COLUMNS)
+                .append(" FROM advertisement adv LEFT JOIN seller s ON s.id = adv.seller_id WHERE 1 = 1");
+        appendFilter(filter, sql, params);
+        if (Objects.nonNull(modifiedSince)) {
+            sql.append(" AND (adv.modified_time >= :modifiedSince OR (adv.modified_time IS NULL AND adv.creation_time >= :modifiedSince))");
+            params.addValue("modifiedSince", Timestamp.valueOf(modifiedSince));
+        }
+        sql.append(" ORDER BY adv.id");
+        exportJdbcTemplate.query(sql.toString(), params, handler);
+    }
+
+    /**
+     * Прочитать объявления с заданными id однонаправленным курсором, в том же наборе столбцов, что и выгрузка
+     *
+     * @param ids     id объявлений
+     * @param handler обработчик строк
+     */
+    public void export(Collection<Long> ids, RowCallbackHandler handler) {
+        exportJdbcTemplate.query("SELECT " + EXPORT_COLUMNS + " FROM advertisement adv " +
+                        "LEFT JOIN seller s ON s.id = adv.seller_id WHERE adv.id IN (:ids) ORDER BY adv.id",
+                new MapSqlParameterSource("ids", ids), handler);
+    }
+
+    /**
+     * Получить объявления из одного кластера дублей с заданным
+     *
+     * @param id id объявления
+     * @return объявления кластера, включая заданное
+     */
+    public List<AdvertisementView> findDuplicates(long id) {
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM advertisement WHERE cluster_id = " +
+                        "(SELECT cluster_id FROM advertisement WHERE id = :id) ORDER BY id",
+                new MapSqlParameterSource("id", id), (rs, rowNum) -> toView(rs, false).build());
+    }
+
+    private AdvertisementView.AdvertisementViewBuilder toView(ResultSet rs, boolean withDescription)
+            throws SQLException {
+        Date publishDate = rs.getDate("publish_date");
+        return AdvertisementView.builder()
+                .id(rs.getLong("id"))
+                .title(rs.getString("title"))
+                .areaM2(rs.getBigDecimal("area_m2"))
+                .price(rs.getBigDecimal("price"))
+                .address(rs.getString("address"))
+                .stations(rs.getString("stations"))
+                .description(withDescription ? rs.getString("description") : null)
+                .link(rs.getString("link"))
+                .advType(title(AdvertisementType.fromId(getCode(rs, "adv_type"))))
+                .city(title(City.fromId(getCode(rs, "city"))))
+                .category(title(AdvCategory.fromId(getCode(rs, "category"))))
+                .publishDate(publishDate == null ? null : publishDate.toLocalDate())
+                .actual(rs.getBoolean("actual"))
+                .enriched(rs.getBoolean("enriched"))
+                .clusterId((Long) rs.getObject("cluster_id"))
+                .sellerId((Long) rs.getObject("seller_id"));
+    }
+
+    private static String decode(String column, String alias, Map<Integer, String> titles) {
+        StringBuilder sql = new StringBuilder("CASE ").append(column);
+        titles.forEach((id, title) -> sql.append(" WHEN ").append(id).append(" THEN '").append(title).append("'"));
+        return sql.append(" END AS ").append(alias).toString();
+    }
+
+    private static Integer getCode(ResultSet rs, String column) throws SQLException {
+        int code = rs.getInt(column);
+        return rs.wasNull() ? null : code;
+    }
+
+    private static String title(City city) {
+        return Objects.isNull(city) ? null : city.getDescription();
+    }
+
+    private static String title(AdvCategory category) {
+        return Objects.isNull(category) ? null : category.getTitle();
+    }
+
+    private static String title(AdvertisementType type) {
+        return Objects.isNull(type) ? null : type.getTitle();
+    }
+
+    private static String getUrl(DataSource dataSource) {
+        try {
+            return JdbcUtils.extractDatabaseMetaData(dataSource, "getURL");
+        } catch (MetaDataAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Добавить в запрос условия по заданным полям фильтра
+     *
+     * @param filter фильтр
+     * @param sql    запрос
+     * @param params параметры запроса
+     */
+    void appendFilter(AdvertisementFilter filter, StringBuilder sql, MapSqlParameterSource params) {
+        if (Objects.nonNull(filter.getCity())) {
+            sql.append(" AND city = :city");
+            params.addValue("city", filter.getCity().getId());
+        }
+        if (Objects.nonNull(filter.getCategory())) {
+            sql.append(" AND category = :category");
+            params.addValue("category", filter.getCategory().getId());
+        }
+        if (Objects.nonNull(filter.getAdvType())) {
+            sql.append(" AND adv_type = :advType");
+            params.addValue("advType", filter.getAdvType().getId());
+        }
+        if (Objects.nonNull(filter.getActual())) {
+            sql.append(" AND actual = :actual");
+            params.addValue("actual", filter.getActual());
+        }
+        if (Objects.nonNull(filter.getEnriched())) {
+            sql.append(" AND enriched = :enriched");
+            params.addValue("enriched", filter.getEnriched());
+        }
+        if (Objects.nonNull(filter.getSellerId())) {
+            sql.append(" AND seller_id = :sellerId");
+            params.addValue("sellerId", filter.getSellerId());
+        }
+        if (Objects.nonNull(filter.getPublishedFrom())) {
+            sql.append(" AND publish_date >= :publishedFrom");
+            params.addValue("publishedFrom", Date.valueOf(filter.getPublishedFrom()));
+        }
+        if (Objects.nonNull(filter.getPublishedTo())) {
+            sql.append(" AND publish_date <= :publishedTo");
+            params.addValue("publishedTo", Date.valueOf(filter.getPublishedTo()));
+        }
+        if (Objects.nonNull(filter.getPriceFrom())) {
+            sql.append(" AND price >= :priceFrom");
+            params.addValue("priceFrom", filter.getPriceFrom());
+        }
+        if (Objects.nonNull(filter.getPriceTo())) {
+            sql.append(" AND price <= :priceTo");
+            params.addValue("priceTo", filter.getPriceTo());
+        }
+    }
+
+}
@@ -1,6 +1,10 @@
 package com.ddkolesnik.siteparser.repository;
 
 import com.ddkolesnik.siteparser.model.Advertisement;
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -9,6 +13,8 @@ import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * @author Alexandr Stegnin
@@ -20,10 +26,61 @@ public interface AdvertisementRepository extends JpaRepository<Advertisement, Lo
     @Query("SELECT MAX(adv.publishDate) FROM Advertisement adv")
     LocalDate getMaxPublishDate();
 
+    @Query("SELECT MAX(adv.publishDate) FROM Advertisement adv WHERE adv.publishDate >= :since")
+    LocalDate getMaxPublishDate(@Param("since") LocalDate since);
+
+    List<Advertisement> findByLinkIn(Collection<String> links);
+
+    List<Advertisement> findTop500ByIdGreaterThanOrderById(Long id);
+
+    @Query("SELECT adv.link, MAX(adv.publishDate) FROM Advertisement adv WHERE adv.link IN :links GROUP BY adv.link")
+    List<Object[]> getPublishDates(@Param("links") Collection<String> links);
+
     @Modifying
-    @Query("UPDATE Advertisement adv SET adv.actual = FALSE WHERE adv.creationTime < :currentDate")
+    @Query("UPDATE Advertisement adv SET adv.actual = FALSE, adv.modifiedTime = CURRENT_TIMESTAMP " +
+            "WHERE adv.creationTime < :currentDate AND adv.actual = TRUE")
     void setNotActual(@Param("currentDate") LocalDateTime currentDate);
 
-    void deleteByCreationTimeBefore(LocalDateTime currentDate);
+    @Query("SELECT adv.link FROM Advertisement adv WHERE adv.city = :city AND adv.category = :category " +
+            "AND adv.advType = :advType AND adv.actual = TRUE AND adv.creationTime < :before")
+    List<String> getActualLinks(@Param("city") City city, @Param("category") AdvCategory category,
+                                @Param("advType") AdvertisementType advType, @Param("before") LocalDateTime before);
+
+    @Query("SELECT adv.link FROM Advertisement adv WHERE adv.city = :city AND adv.category = :category " +
+            "AND adv.advType = :advType AND adv.actual = FALSE AND adv.link IN :links")
+    List<String> getNotActualLinks(@Param("city") City city, @Param("category") AdvCategory category,
+                                   @Param("advType") AdvertisementType advType, @Param("links") Collection<String> links);
+
+    @Modifying
+    @Query("UPDATE Advertisement adv SET adv.actual = :actual, adv.modifiedTime = CURRENT_TIMESTAMP " +
+            "WHERE adv.link IN :links")
+    int setActual(@Param("links") Collection<String> links, @Param("actual") boolean actual);
+
+    @Query("SELECT adv.link, adv.publishDate FROM Advertisement adv WHERE adv.city = :city " +
+            "AND adv.category = :category AND adv.advType = :advType AND adv.enriched = FALSE ORDER BY adv.id")
+    List<Object[]> getNotEnriched(@Param("city") City city, @Param("category") AdvCategory category,
+                                     @Param("advType") AdvertisementType advType, Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE Advertisement adv SET adv.enriched = TRUE, adv.modifiedTime = CURRENT_TIMESTAMP " +
+            "WHERE adv.link = :link AND adv.enriched = FALSE")
+    int setEnriched(@Param("link") String link);
+
+    @Query("SELECT adv.id FROM Advertisement adv WHERE adv.actual = FALSE AND adv.id > :afterId " +
+            "AND COALESCE(adv.modifiedTime, adv.creationTime) < :before ORDER BY adv.id")
+    List<Long> findNotActualIds(@Param("afterId") long afterId, @Param("before") LocalDateTime before,
+                                Pageable pageable);
+
+    @Query("SELECT COUNT(adv) FROM Advertisement adv WHERE adv.actual = FALSE " +
+            "AND COALESCE(adv.modifiedTime, adv.creationTime) < :before")
+    long countNotActual(@Param("before") LocalDateTime before);
+
+    @Query("SELECT adv.sellerId, COUNT(adv) FROM Advertisement adv WHERE adv.id IN :ids AND adv.actual = FALSE " +
+            "AND adv.sellerId IS NOT NULL GROUP BY adv.sellerId")
+    List<Object[]> countNotActualBySeller(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("DELETE FROM Advertisement adv WHERE adv.id IN :ids AND adv.actual = FALSE")
+    int deleteNotActual(@Param("ids") Collection<Long> ids);
 
 }
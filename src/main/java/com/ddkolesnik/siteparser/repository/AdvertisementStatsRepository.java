@@ -0,0 +1,129 @@
+package com.ddkolesnik.siteparser.repository;
+
+import com.ddkolesnik.siteparser.dto.AdvertisementStats;
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Агрегаты объявлений: расчёт по основной таблице и хранение в сводной таблице advertisement_stats
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Repository
+public class AdvertisementStatsRepository {
+
+    private static final String AGGREGATE = "SELECT city, category, adv_type, actual, COUNT(*) AS adv_count, " +
+            "COUNT(price) AS price_count, COALESCE(SUM(price), 0) AS price_sum, COUNT(area_m2) AS area_count, " +
+            "COALESCE(SUM(area_m2), 0) AS area_sum FROM advertisement";
+
+    private static final String GROUP_BY = " GROUP BY city, category, adv_type, actual";
+
+    private static final RowMapper<AdvertisementStats> ROW_MAPPER = (rs, rowNum) -> AdvertisementStats.builder()
+            .city(City.fromId(getCode(rs, "city")))
+            .category(AdvCategory.fromId(getCode(rs, "category")))
+            .advType(AdvertisementType.fromId(getCode(rs, "adv_type")))
+            .actual(rs.getBoolean("actual"))
+            .count(rs.getLong("adv_count"))
+            .priceCount(rs.getLong("price_count"))
+            .priceSum(rs.getBigDecimal("price_sum"))
+            .areaCount(rs.getLong("area_count"))
+            .areaSum(rs.getBigDecimal("area_sum"))
+            .build();
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public AdvertisementStatsRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Посчитать агрегаты по всей таблице объявлений
+     *
+     * @return агрегаты по группам
+     */
+    public List<AdvertisementStats> aggregate() {
+        return jdbcTemplate.query(AGGREGATE + GROUP_BY, ROW_MAPPER);
+    }
+
+    /**
+     * Посчитать агрегаты по объявлениям с заданными ссылками и признаком актуальности
+     *
+     * @param links  ссылки на объявления
+     * @param actual признак актуальности
+     * @return агрегаты по группам
+     */
+    public List<AdvertisementStats> aggregate(Collection<String> links, boolean actual) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("links", links)
+                .addValue("actual", actual);
+        return jdbcTemplate.query(AGGREGATE + " WHERE link IN (:links) AND actual = :actual" + GROUP_BY, params,
+                ROW_MAPPER);
+    }
+
+    /**
+     * Посчитать агрегаты по неактуальным объявлениям с заданными id
+     *
+     * @param ids id объявлений
+     * @return агрегаты по группам
+     */
+    public List<AdvertisementStats> aggregateNotActual(Collection<Long> ids) {
+        return jdbcTemplate.query(AGGREGATE + " WHERE id IN (:ids) AND actual = FALSE" + GROUP_BY,
+                new MapSqlParameterSource("ids", ids), ROW_MAPPER);
+    }
+
+    /**
+     * Прочитать сводную таблицу
+     *
+     * @return агрегаты по группам
+     */
+    public List<AdvertisementStats> findAll() {
+        return jdbcTemplate.query("SELECT city, category, adv_type, actual, adv_count, price_count, price_sum, " +
+                "area_count, area_sum FROM advertisement_stats", ROW_MAPPER);
+    }
+
+    /**
+     * Заменить содержимое сводной таблицы
+     *
+     * @param stats агрегаты по группам
+     */
+    public void replaceAll(Collection<AdvertisementStats> stats) {
+        jdbcTemplate.getJdbcTemplate().update("DELETE FROM advertisement_stats");
+        SqlParameterSource[] batch = stats.stream()
+                .map(s -> new MapSqlParameterSource()
+                        .addValue("city", Objects.isNull(s.getCity()) ? null : s.getCity().getId(), Types.SMALLINT)
+                        .addValue("category", Objects.isNull(s.getCategory()) ? null : s.getCategory().getId(),
+                                Types.SMALLINT)
+                        .addValue("advType", Objects.isNull(s.getAdvType()) ? null : s.getAdvType().getId(),
+                                Types.SMALLINT)
+                        .addValue("actual", s.isActual())
+                        .addValue("count", s.getCount())
+                        .addValue("priceCount", s.getPriceCount())
+                        .addValue("priceSum", s.getPriceSum())
+                        .addValue("areaCount", s.getAreaCount())
+                        .addValue("areaSum", s.getAreaSum()))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("INSERT INTO advertisement_stats (city, category, adv_type, actual, adv_count, " +
+                "price_count, price_sum, area_count, area_sum) VALUES (:city, :category, :advType, :actual, :count, " +
+                ":priceCount, :priceSum, :areaCount, :areaSum)", batch);
+    }
+
+    private static Integer getCode(ResultSet rs, String column) throws SQLException {
+        int code = rs.getInt(column);
+        return rs.wasNull() ? null : code;
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.ddkolesnik.siteparser.repository;
+
+import com.ddkolesnik.siteparser.service.FetchTask;
+import com.ddkolesnik.siteparser.service.PageCursor;
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import com.ddkolesnik.siteparser.utils.FetchPriority;
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import com.ddkolesnik.siteparser.utils.SubCategory;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Задачи на загрузку и позиции сбора ссылок, сохранённые при остановке приложения
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Repository
+public class CheckpointRepository {
+
+    private static final String PIPELINE_CONDITION = "city = :city AND category = :category " +
+            "AND sub_category = :subCategory AND adv_type = :type";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public CheckpointRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Сохранить задачи одной пачкой
+     *
+     * @param tasks задачи на загрузку
+     */
+    public void saveAll(Collection<FetchTask> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        SqlParameterSource[] batch = tasks.stream()
+                .map(task -> getParams(task.getPipeline())
+                        .addValue("link", task.getLink())
+                        .addValue("publishDate", Objects.isNull(task.getPublishDate()) ? null
+                                : Date.valueOf(task.getPublishDate()))
+                        .addValue("priority", task.getPriority().name()))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("INSERT INTO crawl_checkpoint (link, publish_date, category, sub_category, " +
+                "adv_type, city, priority) VALUES (:link, :publishDate, :category, :subCategory, :type, :city, " +
+                ":priority)", batch);
+    }
+
+    /**
+     * Получить задачи сочетания фильтров
+     *
+     * @param pipeline сочетание фильтров
+     * @return задачи на загрузку
+     */
+    public List<FetchTask> findByPipeline(Pipeline pipeline) {
+        return jdbcTemplate.query("SELECT link, publish_date, priority FROM crawl_checkpoint WHERE " +
+                        PIPELINE_CONDITION, getParams(pipeline),
+                (rs, rowNum) -> {
+                    Date publishDate = rs.getDate("publish_date");
+                    return new FetchTask(rs.getString("link"),
+                            Objects.isNull(publishDate) ? null : publishDate.toLocalDate(), pipeline,
+                            FetchPriority.valueOf(rs.getString("priority")));
+                });
+    }
+
+    /**
+     * Удалить задачи сочетания фильтров
+     *
+     * @param pipeline сочетание фильтров
+     */
+    public void deleteByPipeline(Pipeline pipeline) {
+        jdbcTemplate.update("DELETE FROM crawl_checkpoint WHERE " + PIPELINE_CONDITION, getParams(pipeline));
+    }
+
+    /**
+     * Сохранить позицию сбора ссылок сочетания фильтров, заменив прежнюю
+     *
+     * @param pipeline сочетание фильтров
+     * @param cursor   позиция сбора ссылок
+     */
+    public void savePageCursor(Pipeline pipeline, PageCursor cursor) {
+        deletePageCursor(pipeline);
+        jdbcTemplate.update("INSERT INTO crawl_page_cursor (category, sub_category, adv_type, city, next_page, " +
+                "last_page) VALUES (:category, :subCategory, :type, :city, :nextPage, :lastPage)", getParams(pipeline)
+                .addValue("nextPage", cursor.getNextPage())
+                .addValue("lastPage", cursor.getLastPage(), Types.INTEGER));
+    }
+
+    /**
+     * Получить позицию сбора ссылок сочетания фильтров
+     *
+     * @param pipeline сочетание фильтров
+     * @return позиция или null, если не сохранялась
+     */
+    public PageCursor findPageCursor(Pipeline pipeline) {
+        List<PageCursor> cursors = jdbcTemplate.query("SELECT next_page, last_page FROM crawl_page_cursor WHERE " +
+                        PIPELINE_CONDITION, getParams(pipeline),
+                (rs, rowNum) -> new PageCursor(rs.getInt("next_page"), (Integer) rs.getObject("last_page")));
+        return cursors.isEmpty() ? null : cursors.get(0);
+    }
+
+    /**
+     * Удалить позицию сбора ссылок сочетания фильтров
+     *
+     * @param pipeline сочетание фильтров
+     */
+    public void deletePageCursor(Pipeline pipeline) {
+        jdbcTemplate.update("DELETE FROM crawl_page_cursor WHERE " + PIPELINE_CONDITION, getParams(pipeline));
+    }
+
+    private static MapSqlParameterSource getParams(Pipeline pipeline) {
+        return new MapSqlParameterSource()
+                .addValue("city", pipeline.getCity().name())
+                .addValue("category", pipeline.getCategory().name())
+                .addValue("subCategory", pipeline.getSubCategory().name())
+                .addValue("type", pipeline.getType().name());
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.ddkolesnik.siteparser.repository;
+
+import com.ddkolesnik.siteparser.service.PipelineMetrics;
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * История запусков сбора объявлений с показателями по сочетаниям фильтров.
+ * Названия колонок в выборках совпадают с ключами {@link PipelineMetrics#getSnapshot()}
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Repository
+public class CrawlRunRepository {
+
+    // колонки показателей и их названия в выборках
+    private static final String[][] METRICS = {
+            {"pages", "pages"},
+            {"detail_fetches", "detailFetches"},
+            {"cache_hits", "cacheHits"},
+            {"retries", "retries"},
+            {"block_pages", "blockPages"},
+            {"inserted", "inserted"},
+            {"updated", "updated"},
+            {"skipped", "skipped"},
+            {"errors", "errors"},
+            {"shared_hits", "sharedHits"},
+            {"cross_pipeline_hits", "crossPipelineHits"},
+            {"cards", "cards"},
+            {"enriched", "enriched"},
+            {"fetch_millis", "fetchMillis"},
+            {"db_millis", "dbMillis"}
+    };
+
+    private static final String RUN_COLUMNS = "r.id AS \"id\", r.job_id AS \"jobId\", r.trigger_type AS \"trigger\", " +
+            "r.mode AS \"mode\", r.state AS \"state\", r.started_at AS \"startedAt\", " +
+            "r.finished_at AS \"finishedAt\", r.duration_millis AS \"durationMillis\", r.error AS \"error\"";
+
+    private static final String RUN_GROUP = "r.id, r.job_id, r.trigger_type, r.mode, r.state, r.started_at, " +
+            "r.finished_at, r.duration_millis, r.error";
+
+    private static final String PIPELINE_COLUMNS = "p.city AS \"city\", p.category AS \"category\", " +
+            "p.sub_category AS \"subCategory\", p.adv_type AS \"type\"";
+
+    private static final String PIPELINE_GROUP = "p.city, p.category, p.sub_category, p.adv_type";
+
+    // предыдущие завершённые запуски того же режима
+    private static final String TRAILING_RUNS = "SELECT t.id FROM crawl_run t WHERE t.mode = :mode " +
+            "AND t.state = 'DONE' AND t.id < :runId ORDER BY t.id DESC LIMIT :limit";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public CrawlRunRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Сохранить начало запуска
+     *
+     * @param jobId     номер задания
+     * @param trigger   источник запуска
+     * @param mode      режим сбора
+     * @param startedAt время начала
+     * @return номер запуска
+     */
+    public long insert(long jobId, String trigger, String mode, LocalDateTime startedAt) {
+        Long id = jdbcTemplate.getJdbcTemplate().queryForObject("SELECT nextval('hibernate_sequence')", Long.class);
+        jdbcTemplate.update("INSERT INTO crawl_run (id, job_id, trigger_type, mode, state, started_at) " +
+                        "VALUES (:id, :jobId, :trigger, :mode, 'RUNNING', :startedAt)",
+                new MapSqlParameterSource()
+                        .addValue("id", id)
+                        .addValue("jobId", jobId)
+                        .addValue("trigger", trigger)
+                        .addValue("mode", mode)
+                        .addValue("startedAt", Timestamp.valueOf(startedAt)));
+        return Objects.requireNonNull(id);
+    }
+
+    /**
+     * Сохранить окончание запуска
+     *
+     * @param id             номер запуска
+     * @param state          итоговое состояние
+     * @param finishedAt     время окончания
+     * @param durationMillis длительность
+     * @param error          текст ошибки
+     */
+    public void finish(long id, String state, LocalDateTime finishedAt, long durationMillis, String error) {
+        jdbcTemplate.update("UPDATE crawl_run SET state = :state, finished_at = :finishedAt, " +
+                        "duration_millis = :durationMillis, error = :error WHERE id = :id",
+                new MapSqlParameterSource()
+                        .addValue("id", id)
+                        .addValue("state", state)
+                        .addValue("finishedAt", Timestamp.valueOf(finishedAt))
+                        .addValue("durationMillis", durationMillis)
+                        .addValue("error", error));
+    }
+
+    /**
+     * Сохранить показатели сочетаний фильтров запуска одной пачкой
+     *
+     * @param runId   номер запуска
+     * @param metrics показатели по сочетаниям фильтров
+     */
+    public void savePipelines(long runId, Map<Pipeline, PipelineMetrics> metrics) {
+        if (metrics.isEmpty()) {
+            return;
+        }
+        SqlParameterSource[] batch = metrics.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource(entry.getValue().getSnapshot())
+                        .addValue("runId", runId)
+                        .addValue("city", entry.getKey().getCity().name())
+                        .addValue("category", entry.getKey().getCategory().name())
+                        .addValue("subCategory", entry.getKey().getSubCategory().name())
+                        .addValue("type", entry.getKey().getType().name()))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("INSERT INTO crawl_run_pipeline (run_id, city, category, sub_category, adv_type, " +
+                columns("%1$s") + ") VALUES (:runId, :city, :category, :subCategory, :type, " +
+                columns(":%2$s") + ")", batch);
+    }
+
+    /**
+     * Получить последние запуски с суммой показателей по всем сочетаниям фильтров
+     *
+     * @param limit кол-во запусков
+     * @return запуски, начиная с последнего
+     */
+    public List<Map<String, Object>> findRuns(int limit) {
+        return jdbcTemplate.queryForList("SELECT " + RUN_COLUMNS + ", " + columns("SUM(p.%1$s) AS \"%2$s\"") +
+                        " FROM crawl_run r LEFT JOIN crawl_run_pipeline p ON p.run_id = r.id " +
+                        "GROUP BY " + RUN_GROUP + " ORDER BY r.id DESC LIMIT :limit",
+                new MapSqlParameterSource("limit", limit));
+    }
+
+    /**
+     * Получить запуск с суммой показателей по всем сочетаниям фильтров
+     *
+     * @param runId номер запуска
+     * @return запуск
+     */
+    public Optional<Map<String, Object>> findRun(long runId) {
+        return jdbcTemplate.queryForList("SELECT " + RUN_COLUMNS + ", " + columns("SUM(p.%1$s) AS \"%2$s\"") +
+                        " FROM crawl_run r LEFT JOIN crawl_run_pipeline p ON p.run_id = r.id " +
+                        "WHERE r.id = :runId GROUP BY " + RUN_GROUP,
+                new MapSqlParameterSource("runId", runId)).stream().findFirst();
+    }
+
+    /**
+     * Получить показатели сочетаний фильтров запуска
+     *
+     * @param runId номер запуска
+     * @return показатели по сочетаниям фильтров
+     */
+    public List<Map<String, Object>> findPipelines(long runId) {
+        return jdbcTemplate.queryForList("SELECT " + PIPELINE_COLUMNS + ", " + columns("p.%1$s AS \"%2$s\"") +
+                        " FROM crawl_run_pipeline p WHERE p.run_id = :runId ORDER BY " + PIPELINE_GROUP,
+                new MapSqlParameterSource("runId", runId));
+    }
+
+    /**
+     * Получить средние показатели предыдущих завершённых запусков того же режима
+     *
+     * @param runId номер запуска, с которым идёт сравнение
+     * @param mode  режим сбора
+     * @param limit кол-во предыдущих запусков
+     * @return кол-во запусков (runs), средняя длительность и средние суммы показателей
+     */
+    public Map<String, Object> findTrailingAverage(long runId, String mode, int limit) {
+        return jdbcTemplate.queryForMap("SELECT COUNT(*) AS \"runs\", AVG(t.duration_millis) AS \"durationMillis\", " +
+                        columns("AVG(t.%2$s) AS \"%2$s\"") + " FROM (SELECT r.id, r.duration_millis, " +
+                        columns("SUM(p.%1$s) AS %2$s") + " FROM crawl_run r " +
+                        "LEFT JOIN crawl_run_pipeline p ON p.run_id = r.id WHERE r.id IN (" + TRAILING_RUNS + ") " +
+                        "GROUP BY r.id, r.duration_millis) t",
+                trailingParams(runId, mode, limit));
+    }
+
+    /**
+     * Получить средние показатели сочетаний фильтров в предыдущих завершённых запусках того же режима
+     *
+     * @param runId номер запуска, с которым идёт сравнение
+     * @param mode  режим сбора
+     * @param limit кол-во предыдущих запусков
+     * @return кол-во запусков (runs) и средние показатели по сочетаниям фильтров
+     */
+    public List<Map<String, Object>> findTrailingPipelines(long runId, String mode, int limit) {
+        return jdbcTemplate.queryForList("SELECT " + PIPELINE_COLUMNS + ", COUNT(*) AS \"runs\", " +
+                        columns("AVG(p.%1$s) AS \"%2$s\"") + " FROM crawl_run_pipeline p " +
+                        "WHERE p.run_id IN (" + TRAILING_RUNS + ") GROUP BY " + PIPELINE_GROUP,
+                trailingParams(runId, mode, limit));
+    }
+
+    private static MapSqlParameterSource trailingParams(long runId, String mode, int limit) {
+        return new MapSqlParameterSource()
+                .addValue("runId", runId)
+                .addValue("mode", mode)
+                .addValue("limit", limit);
+    }
+
+    /*
+    Список колонок показателей по шаблону: %1$s - колонка, %2$s - название в выборке
+     */
+    private static String columns(String format) {
+        return Arrays.stream(METRICS)
+                .map(metric -> String.format(format, metric[0], metric[1]))
+                .collect(Collectors.joining(", "));
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.ddkolesnik.siteparser.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Корзины LSH и кластеры дублей объявлений
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Repository
+public class DuplicateRepository {
+
+    private static final int FETCH_SIZE = 5000;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    public DuplicateRepository(NamedParameterJdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        this.streamingJdbcTemplate.setFetchSize(FETCH_SIZE);
+    }
+
+    /**
+     * Прочитать корзины с текущим кластером объявления. Читается курсором, поэтому только внутри транзакции
+     *
+     * @param consumer получатель пар (ключ корзины, id кластера)
+     */
+    public void forEachBucket(BucketConsumer consumer) {
+        streamingJdbcTemplate.query("SELECT b.bucket, adv.cluster_id FROM advertisement_lsh_bucket b " +
+                        "JOIN advertisement adv ON adv.id = b.advertisement_id WHERE adv.cluster_id IS NOT NULL",
+                rs -> {
+                    consumer.accept(rs.getLong(1), rs.getLong(2));
+                });
+    }
+
+    /**
+     * Заменить корзины объявлений
+     *
+     * @param buckets ключи корзин по id объявления
+     */
+    public void replaceBuckets(Map<Long, long[]> buckets) {
+        if (buckets.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update("DELETE FROM advertisement_lsh_bucket WHERE advertisement_id IN (:ids)",
+                new MapSqlParameterSource("ids", buckets.keySet()));
+        List<SqlParameterSource> batch = new ArrayList<>();
+        buckets.forEach((id, keys) -> {
+            for (long key : keys) {
+                batch.add(new MapSqlParameterSource()
+                        .addValue("bucket", key)
+                        .addValue("advertisementId", id));
+            }
+        });
+        jdbcTemplate.batchUpdate("INSERT INTO advertisement_lsh_bucket (bucket, advertisement_id) " +
+                "VALUES (:bucket, :advertisementId)", batch.toArray(new SqlParameterSource[0]));
+    }
+
+    /**
+     * Удалить корзины объявлений
+     *
+     * @param advertisementIds id объявлений
+     */
+    public void deleteBuckets(Collection<Long> advertisementIds) {
+        jdbcTemplate.update("DELETE FROM advertisement_lsh_bucket WHERE advertisement_id IN (:ids)",
+                new MapSqlParameterSource("ids", advertisementIds));
+    }
+
+    /**
+     * Объединить кластеры
+     *
+     * @param target  id итогового кластера
+     * @param sources id поглощаемых кластеров
+     */
+    public void mergeClusters(long target, Collection<Long> sources) {
+        jdbcTemplate.update("UPDATE advertisement SET cluster_id = :target WHERE cluster_id IN (:sources)",
+                new MapSqlParameterSource()
+                        .addValue("target", target)
+                        .addValue("sources", sources));
+    }
+
+    /**
+     * Проставить кластеры объявлениям
+     *
+     * @param clusters id кластера по id объявления
+     */
+    public void setClusters(Map<Long, Long> clusters) {
+        SqlParameterSource[] batch = clusters.entrySet().stream()
+                .map(e -> new MapSqlParameterSource()
+                        .addValue("id", e.getKey())
+                        .addValue("clusterId", e.getValue()))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("UPDATE advertisement SET cluster_id = :clusterId WHERE id = :id", batch);
+    }
+
+    /**
+     * Удалить все корзины и кластеры перед полным пересчётом
+     */
+    public void reset() {
+        jdbcTemplate.getJdbcTemplate().update("DELETE FROM advertisement_lsh_bucket");
+        jdbcTemplate.getJdbcTemplate().update("UPDATE advertisement SET cluster_id = NULL WHERE cluster_id IS NOT NULL");
+    }
+
+    public boolean hasUnclustered() {
+        return !jdbcTemplate.getJdbcTemplate()
+                .queryForList("SELECT 1 FROM advertisement WHERE cluster_id IS NULL LIMIT 1").isEmpty();
+    }
+
+    @FunctionalInterface
+    public interface BucketConsumer {
+
+        void accept(long bucket, long clusterId);
+
+    }
+
+}
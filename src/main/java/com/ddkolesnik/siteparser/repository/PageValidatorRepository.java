@@ -0,0 +1,35 @@
+package com.ddkolesnik.siteparser.repository;
+
+import com.ddkolesnik.siteparser.model.PageValidator;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+/**
+ * @author Alexandr Stegnin
+ */
+
+@Repository
+public interface PageValidatorRepository extends JpaRepository<PageValidator, Long> {
+
+    Optional<PageValidator> findByUrl(String url);
+
+    /**
+     * Сохранить валидаторы страницы одним запросом: параллельные загрузки одной страницы
+     * не нарушают уникальность ссылки, побеждает последняя запись
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO page_validator (id, url, etag, last_modified, body_hash) " +
+            "VALUES (nextval('hibernate_sequence'), :url, :etag, :lastModified, :bodyHash) " +
+            "ON CONFLICT (url) DO UPDATE SET etag = EXCLUDED.etag, last_modified = EXCLUDED.last_modified, " +
+            "body_hash = EXCLUDED.body_hash, modified_time = NOW()", nativeQuery = true)
+    int upsert(@Param("url") String url, @Param("etag") String etag, @Param("lastModified") String lastModified,
+               @Param("bodyHash") String bodyHash);
+
+}
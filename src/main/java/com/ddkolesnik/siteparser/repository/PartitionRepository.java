@@ -0,0 +1,133 @@
+package com.ddkolesnik.siteparser.repository;
+
+import org.springframework.boot.jdbc.DatabaseDriver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Помесячные секции таблицы объявлений. Секционирование есть только в PostgreSQL,
+ * секция месяца называется advertisement_pГГГГММ, после отсоединения - advertisement_archive_pГГГГММ
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Repository
+public class PartitionRepository {
+
+    private static final String PARTITION_PREFIX = "advertisement_p";
+
+    private static final String ARCHIVE_PREFIX = "advertisement_archive_p";
+
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    // ключ блокировки записи объявлений, выбран произвольно
+    private static final long WRITE_LOCK_KEY = 20210901L;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final boolean postgres;
+
+    public PartitionRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.postgres = DatabaseDriver.fromJdbcUrl(getUrl(dataSource)) == DatabaseDriver.POSTGRESQL;
+    }
+
+    /**
+     * Проверить, секционирована ли таблица объявлений
+     *
+     * @return true, если таблица секционирована
+     */
+    public boolean isPartitioned() {
+        if (!postgres) {
+            return false;
+        }
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pg_partitioned_table pt " +
+                "JOIN pg_class c ON c.oid = pt.partrelid WHERE c.relname = 'advertisement'", Integer.class);
+        return count != null && count > 0;
+    }
+
+    /**
+     * Создать секцию месяца, если её нет
+     *
+     * @param month любой день месяца
+     * @return true, если секция создана
+     */
+    public boolean createPartition(LocalDate month) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT advertisement_create_partition(?)",
+                Boolean.class, Date.valueOf(month)));
+    }
+
+    /**
+     * Получить месяцы присоединённых секций, без секции по умолчанию
+     *
+     * @return первые дни месяцев по возрастанию
+     */
+    public List<LocalDate> findPartitions() {
+        return jdbcTemplate.queryForList("SELECT c.relname FROM pg_inherits i " +
+                        "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent " +
+                        "WHERE p.relname = 'advertisement' AND c.relname ~ '^advertisement_p[0-9]{6}$'", String.class)
+                .stream()
+                .map(name -> LocalDate.parse(name.substring(PARTITION_PREFIX.length()) + "01",
+                        DateTimeFormatter.BASIC_ISO_DATE))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Удалить историю цен и корзины дублей объявлений секции, они хранятся вне секций
+     *
+     * @param month первый день месяца секции
+     * @return кол-во объявлений в секции
+     */
+    public int deleteDependents(LocalDate month) {
+        String partition = PARTITION_PREFIX + month.format(MONTH_FORMAT);
+        jdbcTemplate.update("DELETE FROM advertisement_price_history WHERE advertisement_id IN (SELECT id FROM " +
+                partition + ")");
+        jdbcTemplate.update("DELETE FROM advertisement_lsh_bucket WHERE advertisement_id IN (SELECT id FROM " +
+                partition + ")");
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + partition, Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Отсоединить секцию месяца от таблицы объявлений. Меняются только метаданные, строки не переписываются
+     *
+     * @param month первый день месяца секции
+     * @param drop  удалить секцию, иначе она остаётся отдельной таблицей advertisement_archive_pГГГГММ
+     */
+    public void detachPartition(LocalDate month, boolean drop) {
+        String suffix = month.format(MONTH_FORMAT);
+        jdbcTemplate.execute("ALTER TABLE advertisement DETACH PARTITION " + PARTITION_PREFIX + suffix);
+        if (drop) {
+            jdbcTemplate.execute("DROP TABLE " + PARTITION_PREFIX + suffix);
+        } else {
+            jdbcTemplate.execute("ALTER TABLE " + PARTITION_PREFIX + suffix + " RENAME TO " + ARCHIVE_PREFIX + suffix);
+        }
+    }
+
+    /**
+     * Заблокировать запись объявлений до конца транзакции. Уникальный индекс по ссылке на секционированной таблице
+     * невозможен, поэтому проверка ссылок и запись объявлений выполняются последовательно
+     */
+    public void lockWrites() {
+        jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(?)::TEXT", String.class, WRITE_LOCK_KEY);
+    }
+
+    private static String getUrl(DataSource dataSource) {
+        try {
+            return JdbcUtils.extractDatabaseMetaData(dataSource, "getURL");
+        } catch (MetaDataAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
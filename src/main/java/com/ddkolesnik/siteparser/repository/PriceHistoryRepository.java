@@ -0,0 +1,103 @@
+package com.ddkolesnik.siteparser.repository;
+
+import com.ddkolesnik.siteparser.dto.PricePoint;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * История цен объявлений. Записи только добавляются, по одной на каждое изменение цены
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Repository
+public class PriceHistoryRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public PriceHistoryRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Добавить наблюдения цены одной пачкой
+     *
+     * @param points наблюдения
+     */
+    public void appendAll(Collection<PricePoint> points) {
+        if (points.isEmpty()) {
+            return;
+        }
+        SqlParameterSource[] batch = points.stream()
+                .map(point -> new MapSqlParameterSource()
+                        .addValue("advertisementId", point.getAdvertisementId())
+                        .addValue("observedAt", Timestamp.valueOf(point.getObservedAt()))
+                        .addValue("price", point.getPrice()))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("INSERT INTO advertisement_price_history (advertisement_id, observed_at, price) " +
+                "VALUES (:advertisementId, :observedAt, :price)", batch);
+    }
+
+    /**
+     * Удалить историю цен объявлений
+     *
+     * @param advertisementIds id объявлений
+     */
+    public void deleteByAdvertisementIds(Collection<Long> advertisementIds) {
+        jdbcTemplate.update("DELETE FROM advertisement_price_history WHERE advertisement_id IN (:ids)",
+                new MapSqlParameterSource("ids", advertisementIds));
+    }
+
+    /**
+     * Получить историю цены объявления
+     *
+     * @param advertisementId id объявления
+     * @return наблюдения по возрастанию времени
+     */
+    public List<PricePoint> findByAdvertisementId(long advertisementId) {
+        return jdbcTemplate.query("SELECT observed_at, price FROM advertisement_price_history " +
+                        "WHERE advertisement_id = :advertisementId ORDER BY observed_at",
+                new MapSqlParameterSource("advertisementId", advertisementId),
+                (rs, rowNum) -> PricePoint.builder()
+                        .observedAt(rs.getTimestamp("observed_at").toLocalDateTime())
+                        .price(rs.getBigDecimal("price"))
+                        .build());
+    }
+
+    /**
+     * Получить снижения цены, наблюдавшиеся начиная с заданного момента, по убыванию относительного снижения
+     *
+     * @param since начало периода
+     * @param limit кол-во записей
+     * @return снижения цены
+     */
+    public List<PricePoint> findDrops(LocalDateTime since, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("since", Timestamp.valueOf(since))
+                .addValue("limit", limit);
+        return jdbcTemplate.query("SELECT h.advertisement_id, h.observed_at, h.price, h.previous_price, adv.title, " +
+                        "adv.link FROM (SELECT advertisement_id, observed_at, price, " +
+                        "LAG(price) OVER (PARTITION BY advertisement_id ORDER BY observed_at) AS previous_price " +
+                        "FROM advertisement_price_history WHERE advertisement_id IN " +
+                        "(SELECT advertisement_id FROM advertisement_price_history WHERE observed_at >= :since)) h " +
+                        "JOIN advertisement adv ON adv.id = h.advertisement_id " +
+                        "WHERE h.observed_at >= :since AND h.price < h.previous_price " +
+                        "ORDER BY (h.previous_price - h.price) / h.previous_price DESC LIMIT :limit", params,
+                (rs, rowNum) -> PricePoint.builder()
+                        .advertisementId(rs.getLong("advertisement_id"))
+                        .observedAt(rs.getTimestamp("observed_at").toLocalDateTime())
+                        .price(rs.getBigDecimal("price"))
+                        .previousPrice(rs.getBigDecimal("previous_price"))
+                        .title(rs.getString("title"))
+                        .link(rs.getString("link"))
+                        .build());
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.ddkolesnik.siteparser.repository;
+
+import com.ddkolesnik.siteparser.model.Advertisement;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Обновление объявлений по результатам повторного разбора архива страниц
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Repository
+public class ReparseRepository {
+
+    private static final String APPEND_PRICE = "INSERT INTO advertisement_price_history " +
+            "(advertisement_id, observed_at, price) SELECT id, CURRENT_TIMESTAMP, :price FROM advertisement " +
+            "WHERE link = :link AND :price IS NOT NULL AND price IS DISTINCT FROM :price";
+
+    private static final String UPDATE_EXTRACTED = "UPDATE advertisement SET title = :title, area = :area, " +
+            "area_m2 = :areaM2, price = COALESCE(:price, price), address = :address, stations = :stations, " +
+            "description = :description, date_create = :dateCreate, modified_time = CURRENT_TIMESTAMP " +
+            "WHERE link = :link AND (title IS DISTINCT FROM :title OR area IS DISTINCT FROM :area " +
+            "OR area_m2 IS DISTINCT FROM :areaM2 OR (:price IS NOT NULL AND price IS DISTINCT FROM :price) " +
+            "OR address IS DISTINCT FROM :address OR stations IS DISTINCT FROM :stations " +
+            "OR description IS DISTINCT FROM :description OR date_create IS DISTINCT FROM :dateCreate)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public ReparseRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Обновить разобранные поля объявлений по ссылке. Строки, в которых ничего не изменилось, не переписываются.
+     * Изменившаяся цена добавляется в историю цен, не найденная на странице цена не стирает сохранённую
+     *
+     * @param advertisements заново разобранные объявления
+     * @return кол-во изменённых объявлений
+     */
+    public int updateExtracted(List<Advertisement> advertisements) {
+        if (advertisements.isEmpty()) {
+            return 0;
+        }
+        SqlParameterSource[] batch = advertisements.stream()
+                .map(adv -> new MapSqlParameterSource()
+                        .addValue("title", adv.getTitle(), Types.VARCHAR)
+                        .addValue("area", adv.getArea(), Types.VARCHAR)
+                        .addValue("areaM2", adv.getAreaM2(), Types.NUMERIC)
+                        .addValue("price", adv.getPrice(), Types.NUMERIC)
+                        .addValue("address", adv.getAddress(), Types.VARCHAR)
+                        .addValue("stations", adv.getStations(), Types.VARCHAR)
+                        .addValue("description", adv.getDescription(), Types.VARCHAR)
+                        .addValue("dateCreate", adv.getDateCreate(), Types.VARCHAR)
+                        .addValue("link", adv.getLink(), Types.VARCHAR))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(APPEND_PRICE, batch);
+        return Arrays.stream(jdbcTemplate.batchUpdate(UPDATE_EXTRACTED, batch))
+                .map(count -> Math.max(count, 0))
+                .sum();
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.ddkolesnik.siteparser.repository;
+
+import com.ddkolesnik.siteparser.model.Seller;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Alexandr Stegnin
+ */
+
+@Repository
+public interface SellerRepository extends JpaRepository<Seller, Long> {
+
+    List<Seller> findBySellerKeyIn(Collection<String> sellerKeys);
+
+    List<Seller> findByNameContainingIgnoreCaseOrderByAdvCountDesc(String name, Pageable pageable);
+
+    List<Seller> findAllByOrderByAdvCountDesc(Pageable pageable);
+
+    /**
+     * Добавить продавца, если продавца с таким ключом ещё нет: параллельные записи одного нового
+     * продавца не нарушают уникальность ключа, id после вставки получаем повторным поиском по ключу
+     */
+    @Modifying
+    @Query(value = "INSERT INTO seller (id, seller_key, name, type, on_avito, adv_complete, adv_actual) " +
+            "VALUES (nextval('hibernate_sequence'), :sellerKey, :name, :type, :onAvito, :advComplete, :advActual) " +
+            "ON CONFLICT (seller_key) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("sellerKey") String sellerKey, @Param("name") String name, @Param("type") String type,
+                       @Param("onAvito") String onAvito, @Param("advComplete") String advComplete,
+                       @Param("advActual") String advActual);
+
+    @Modifying
+    @Query("UPDATE Seller s SET s.onAvito = :onAvito, s.advComplete = :advComplete, s.advActual = :advActual, " +
+            "s.modifiedTime = CURRENT_TIMESTAMP WHERE s.id = :id")
+    void updateProfile(@Param("id") Long id, @Param("onAvito") String onAvito,
+                       @Param("advComplete") String advComplete, @Param("advActual") String advActual);
+
+    @Modifying
+    @Query("UPDATE Seller s SET s.advCount = s.advCount + :delta WHERE s.id = :id")
+    void addAdvCount(@Param("id") Long id, @Param("delta") long delta);
+
+    @Modifying
+    @Query(value = "UPDATE seller s SET adv_count = (SELECT COUNT(*) FROM advertisement adv WHERE adv.seller_id = s.id)",
+            nativeQuery = true)
+    void recountAdvCount();
+
+}
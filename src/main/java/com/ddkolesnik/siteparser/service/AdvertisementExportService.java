@@ -0,0 +1,249 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.dto.AdvertisementFilter;
+import com.ddkolesnik.siteparser.repository.AdvertisementQueryRepository;
+import com.ddkolesnik.siteparser.utils.ExportFormat;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.zip.GZIPOutputStream;
+import lombok.AccessLevel;
+import lombok.extern.slf4j.Slf4j;
+import lombok.experimental.FieldDefaults;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Потоковая выгрузка объявлений в NDJSON/CSV.
+ * Строки читаются курсором и сразу пишутся в выходной поток, память не зависит от размера выгрузки
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class AdvertisementExportService {
+
+  AdvertisementQueryRepository advertisementQueryRepository;
+
+  ObjectMapper objectMapper;
+
+  TransactionTemplate transactionTemplate;
+
+  public AdvertisementExportService(AdvertisementQueryRepository advertisementQueryRepository,
+                                    ObjectMapper objectMapper, PlatformTransactionManager transactionManager) {
+    this.advertisementQueryRepository = advertisementQueryRepository;
+    this.objectMapper = objectMapper;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setReadOnly(true);
+  }
+
+  /**
+   * Выгрузить объявления по фильтру
+   *
+   * @param filter        фильтр
+   * @param modifiedSince выгружать только созданные или изменённые начиная с этого момента
+   * @param format        формат
+   * @param gzip          сжимать выгрузку
+   * @param out           выходной поток
+   * @return кол-во выгруженных строк
+   */
+  public long export(AdvertisementFilter filter, LocalDateTime modifiedSince, ExportFormat format, boolean gzip,
+                     OutputStream out) throws IOException {
+    OutputStream target = gzip ? new GZIPOutputStream(out, 8192) : out;
+    Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8));
+    RowWriter rowWriter = newRowWriter(format, writer);
+    transactionTemplate.execute(status -> {
+      advertisementQueryRepository.export(filter, modifiedSince, rowWriter::write);
+      return null;
+    });
+    writer.flush();
+    if (gzip) {
+      ((GZIPOutputStream) target).finish();
+    }
+    log.info("Выгружено объявлений [{} шт] в формате {}", rowWriter.getCount(), format);
+    return rowWriter.getCount();
+  }
+
+  /**
+   * Создать построчный писатель в нужном формате
+   *
+   * @param format формат
+   * @param writer выходной поток
+   * @return писатель строк
+   */
+  RowWriter newRowWriter(ExportFormat format, Writer writer) throws IOException {
+    return format == ExportFormat.CSV ? new CsvRowWriter(writer) : new NdjsonRowWriter(objectMapper, writer);
+  }
+
+  /**
+   * Запись строк результата запроса в выходной поток
+   */
+  abstract static class RowWriter {
+
+    private long count;
+
+    private String[] columns;
+
+    void write(ResultSet rs) throws SQLException {
+      if (columns == null) {
+        ResultSetMetaData metaData = rs.getMetaData();
+        columns = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+          columns[i] = metaData.getColumnLabel(i + 1).toLowerCase();
+        }
+        writeHeader(columns);
+      }
+      writeRow(columns, rs);
+      count++;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    abstract void writeHeader(String[] columns);
+
+    abstract void writeRow(String[] columns, ResultSet rs) throws SQLException;
+
+    static Object value(ResultSet rs, int index) throws SQLException {
+      Object value = rs.getObject(index);
+      if (value instanceof Timestamp) {
+        return ((Timestamp) value).toLocalDateTime().toString();
+      }
+      if (value instanceof Date) {
+        return ((Date) value).toLocalDate().toString();
+      }
+      return value;
+    }
+
+  }
+
+  private static class NdjsonRowWriter extends RowWriter {
+
+    private final Writer writer;
+
+    private final JsonGenerator generator;
+
+    NdjsonRowWriter(ObjectMapper objectMapper, Writer writer) throws IOException {
+      this.writer = writer;
+      this.generator = objectMapper.getFactory().createGenerator(writer);
+      this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      // сброс генератора после строки только передаёт её в буфер писателя, выходной поток сбрасывается пачками
+      this.generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+      this.generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    void writeHeader(String[] columns) {
+    }
+
+    @Override
+    void writeRow(String[] columns, ResultSet rs) throws SQLException {
+      try {
+        generator.writeStartObject();
+        for (int i = 0; i < columns.length; i++) {
+          Object value = value(rs, i + 1);
+          generator.writeFieldName(columns[i]);
+          if (value == null) {
+            generator.writeNull();
+          } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+          } else if (value instanceof Number) {
+            generator.writeNumber(((Number) value).longValue());
+          } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+          } else {
+            generator.writeString(value.toString());
+          }
+        }
+        generator.writeEndObject();
+        generator.flush();
+        writer.write('\n');
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+  }
+
+  private static class CsvRowWriter extends RowWriter {
+
+    private final Writer writer;
+
+    CsvRowWriter(Writer writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    void writeHeader(String[] columns) {
+      try {
+        for (int i = 0; i < columns.length; i++) {
+          if (i > 0) {
+            writer.write(',');
+          }
+          writer.write(columns[i]);
+        }
+        writer.write("\r\n");
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    void writeRow(String[] columns, ResultSet rs) throws SQLException {
+      try {
+        for (int i = 0; i < columns.length; i++) {
+          if (i > 0) {
+            writer.write(',');
+          }
+          Object value = value(rs, i + 1);
+          if (value != null) {
+            writeEscaped(value.toString());
+          }
+        }
+        writer.write("\r\n");
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void writeEscaped(String value) throws IOException {
+      boolean quote = false;
+      for (int i = 0; i < value.length() && !quote; i++) {
+        char c = value.charAt(i);
+        quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+      }
+      if (!quote) {
+        writer.write(value);
+        return;
+      }
+      writer.write('"');
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '"') {
+          writer.write('"');
+        }
+        writer.write(c);
+      }
+      writer.write('"');
+    }
+
+  }
+
+}
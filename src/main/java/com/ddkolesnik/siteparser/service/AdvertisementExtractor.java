@@ -0,0 +1,383 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.jfr.FieldExtractEvent;
+import com.ddkolesnik.siteparser.model.Advertisement;
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import com.ddkolesnik.siteparser.utils.NumberScanner;
+import com.ddkolesnik.siteparser.utils.UrlUtils;
+import com.google.gson.Gson;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.springframework.stereotype.Component;
+
+/**
+ * Разбор страницы объявления. Не хранит состояния, поэтому вызывается из нескольких потоков:
+ * при сборе объявлений и при повторном разборе архива страниц
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Component
+public class AdvertisementExtractor {
+
+  /**
+   * Получить информацию об объявлении из загруженной страницы
+   *
+   * @param document          HTML страница
+   * @param link              ссылка на страницу с объявлением
+   * @param advertisementType вид объявления
+   * @param publishDate       дата публикации объявления
+   * @param city              город
+   * @param category          категория объявления
+   * @return объявление или null, если страница не прошла проверку
+   */
+  public Advertisement extract(Document document, String link, AdvertisementType advertisementType,
+                               LocalDate publishDate, City city, AdvCategory category) {
+    String address = field("address", link, () -> getAddress(document));
+    if (category == AdvCategory.COMMERCIAL_PROPERTY) {
+      if (!checkAddress(address, city)) {
+        log.warn("Адресс не валидный. [{}] :: [{}]", city.getDescription(), address);
+        return null;
+      }
+    }
+    String title = field("title", link, () -> getTitle(document));
+    if (Objects.isNull(title)) {
+      return null;
+    }
+    BigDecimal area = field("area", link, () -> getArea(document));
+    Advertisement advertisement = Advertisement.builder()
+        .advType(advertisementType)
+        .title(title)
+        .link(link)
+        .areaM2(area)
+        .area(Objects.isNull(area) ? null : area.stripTrailingZeros().toPlainString())
+        .price(field("price", link, () -> getPrice(document)))
+        .address(address)
+        .stations(field("stations", link, () -> getStations(document)))
+        .description(field("description", link, () -> getDescription(document)))
+        .dateCreate(field("dateCreate", link, () -> getDateCreate(document)))
+        .publishDate(publishDate)
+        .city(city)
+        .category(category)
+        .build();
+
+    field("seller", link, () -> {
+      setSellerInfo(document, advertisement);
+      return null;
+    });
+    return advertisement;
+  }
+
+  /**
+   * Получить краткую информацию об объявлении из карточки на странице списка объявлений.
+   * В карточке нет описания, станций метро и продавца, объявление отмечается недозагруженным
+   *
+   * @param card              карточка объявления
+   * @param advertisementType вид объявления
+   * @param publishDate       дата публикации объявления
+   * @param city              город
+   * @param category          категория объявления
+   * @return объявление или null, если карточка не прошла проверку
+   */
+  public Advertisement extractCard(Element card, AdvertisementType advertisementType, LocalDate publishDate,
+                                   City city, AdvCategory category) {
+    Element urlEl = card.selectFirst("a[itemprop=url]");
+    if (Objects.isNull(urlEl)) {
+      return null;
+    }
+    String link = UrlUtils.BASE_URL + urlEl.attr("href").trim();
+    String address = field("address", link,
+        () -> getCardText(card, "[data-marker=item-address], [class*=geo-address]"));
+    if (category == AdvCategory.COMMERCIAL_PROPERTY) {
+      if (!checkAddress(address, city)) {
+        log.warn("Адресс не валидный. [{}] :: [{}]", city.getDescription(), address);
+        return null;
+      }
+    }
+    String title = field("title", link, () -> getCardText(card, "[itemprop=name]"));
+    if (Objects.isNull(title)) {
+      return null;
+    }
+    BigDecimal area = field("area", link, () -> NumberScanner.scanAfter(title, ','));
+    return Advertisement.builder()
+        .advType(advertisementType)
+        .title(title)
+        .link(link)
+        .areaM2(area)
+        .area(Objects.isNull(area) ? null : area.stripTrailingZeros().toPlainString())
+        .price(field("price", link, () -> getCardPrice(card)))
+        .address(address)
+        .dateCreate(field("dateCreate", link, () -> getCardText(card, "div[data-marker=item-date]")))
+        .publishDate(publishDate)
+        .city(city)
+        .category(category)
+        .enriched(false)
+        .build();
+  }
+
+  /*
+  Извлечь одно поле, время извлечения пишется событием JFR
+   */
+  private static <T> T field(String name, String link, Supplier<T> extractor) {
+    FieldExtractEvent event = new FieldExtractEvent();
+    event.begin();
+    T value = extractor.get();
+    event.url = link;
+    event.field = name;
+    event.commit();
+    return value;
+  }
+
+  /**
+   * Получаем название объявления
+   *
+   * @param document HTML страница
+   * @return название объявления
+   */
+  private String getTitle(Document document) {
+    String title = null;
+    Element titleEl = document.select("span.title-info-title-text").first();
+    if (Objects.nonNull(titleEl)) {
+      title = titleEl.text();
+    }
+    return title;
+  }
+
+  /**
+   * Получаем площадь объявления в квадратных метрах
+   *
+   * @param document HTML страница
+   * @return площадь объявления
+   */
+  private BigDecimal getArea(Document document) {
+    Elements areaEl = document.select("div.item-params");
+    Elements areas = areaEl.select("span");
+
+    if (areas.size() == 6) {
+      return NumberScanner.scanAfter(areaEl.select("li").text(), ':');
+    }
+    Element areaFirstEl = areas.first();
+    if (Objects.nonNull(areaFirstEl)) {
+      return NumberScanner.scanAfter(areaFirstEl.text(), ':');
+    }
+    return null;
+  }
+
+  /**
+   * Получить стоимость объекта
+   *
+   * @param document HTML страница
+   * @return стоимость объявления или null, если цены нет или она не разобрана
+   */
+  private BigDecimal getPrice(Document document) {
+    Element priceEl = document.select("span.js-item-price").select("[itemprop=price]").first();
+    if (Objects.isNull(priceEl)) {
+      return null;
+    }
+    return NumberScanner.scan(priceEl.text());
+  }
+
+  /**
+   * Получить стоимость объекта из карточки: из разметки цены, если её нет - из текста цены
+   *
+   * @param card карточка объявления
+   * @return стоимость объявления или null, если цена в карточке не указана
+   */
+  private BigDecimal getCardPrice(Element card) {
+    BigDecimal price = null;
+    Element priceEl = card.selectFirst("meta[itemprop=price]");
+    if (Objects.nonNull(priceEl)) {
+      price = NumberScanner.scan(priceEl.attr("content"));
+    }
+    if (Objects.isNull(price)) {
+      price = NumberScanner.scan(getCardText(card, "[data-marker=item-price]"));
+    }
+    return price;
+  }
+
+  /**
+   * Получить текст первого элемента карточки
+   *
+   * @param card     карточка объявления
+   * @param selector селектор элемента
+   * @return текст элемента или null, если элемента нет или он пустой
+   */
+  private String getCardText(Element card, String selector) {
+    Element element = card.selectFirst(selector);
+    if (Objects.isNull(element)) {
+      return null;
+    }
+    String text = element.text().trim();
+    return text.isEmpty() ? null : text;
+  }
+
+  /**
+   * Получить адрес объекта
+   *
+   * @param document HTML страница
+   * @return адрес объекта
+   */
+  private String getAddress(Document document) {
+    String address = null;
+    Element addressEl = document.select("span.item-address__string").first();
+    if (Objects.nonNull(addressEl)) {
+      address = addressEl.text().trim();
+    }
+    return address;
+  }
+
+  /**
+   * Получить список станций метро
+   *
+   * @param document HTML страница
+   * @return станции метро возле объекта
+   */
+  private String getStations(Document document) {
+    List<String> stations = new ArrayList<>();
+    Element stationsArraySpan = document.selectFirst("span.item-address-georeferences");
+    if (Objects.nonNull(stationsArraySpan)) {
+      Elements stationsArrayItems = stationsArraySpan.select("span.item-address-georeferences-item");
+      for (Element stationEl : stationsArrayItems) {
+        stations.add(stationEl.text().trim());
+      }
+    }
+    return String.valueOf(stations);
+  }
+
+  /**
+   * Получить описание объявления
+   *
+   * @param document HTML страница
+   * @return описание объявления
+   */
+  private String getDescription(Document document) {
+    String description = "";
+    Element descriptionEl = document.selectFirst("div.item-description");
+    if (Objects.nonNull(descriptionEl)) {
+      description = descriptionEl.text().trim();
+    }
+    return description;
+  }
+
+  /**
+   * Получить дату создания объявления
+   *
+   * @param document HTML страница
+   * @return дата создания объявления
+   */
+  private String getDateCreate(Document document) {
+    String dateCreate = "";
+    Element dateCreateEl = document.selectFirst("div.title-info-metadata-item-redesign");
+    if (Objects.nonNull(dateCreateEl)) {
+      dateCreate = dateCreateEl.text().replace("\n", "").trim();
+    }
+    return dateCreate;
+  }
+
+  /**
+   * Добавить информацию об авторе в объявление
+   *
+   * @param document      HTML страница
+   * @param advertisement объявление
+   */
+  private void setSellerInfo(Document document, Advertisement advertisement) {
+    Element sellerInfoCol = document.select("div.seller-info-col").first();
+    if (Objects.nonNull(sellerInfoCol)) {
+      int elSize = sellerInfoCol.children().size();
+      String sellerName = sellerInfoCol.child(0).text();
+      String sellerType = sellerInfoCol.child(1).text();
+      if (elSize > 2) {
+        Elements children = sellerInfoCol.child(2).children();
+        if (children.size() > 1) {
+          String sellerAdvComplete = children.get(1).text().replace("\n", "");
+          String sellerOnAvito = children.get(0).text().replace("\n", "");
+          advertisement.setSellerAdvComplete(sellerAdvComplete);
+          advertisement.setSellerOnAvito(sellerOnAvito);
+        }
+      }
+      advertisement.setSellerName(sellerName);
+      advertisement.setSellerType(sellerType);
+    }
+    setSellerAdvActual(document, advertisement);
+  }
+
+  /**
+   * Добавить информацию о кол-ве актуальных объявлений
+   *
+   * @param document      HTML страница
+   * @param advertisement объявление
+   */
+  @SuppressWarnings("unchecked")
+  private void setSellerAdvActual(Document document, Advertisement advertisement) {
+    Elements activeAdvDivs = document.getElementsByClass("seller-info-favorite-seller-buttons");
+    String sellerAdvActual = "";
+    String json = activeAdvDivs.select("[data-props]").attr("data-props");
+    Gson gson = new Gson();
+    Map<String, Object> asMap = gson.fromJson(json, Map.class);
+    if (asMap != null) {
+      sellerAdvActual = (String) asMap.getOrDefault("summary", "");
+    }
+    advertisement.setSellerAdvActual(sellerAdvActual);
+  }
+
+  /**
+   * Проверить адрес, должен содержать в себе Московская область, г Москва/Свердловская обл, г Екатеринбург/Тюменская обл, г Тюмень
+   *
+   * @param address адресс для проверки
+   * @param city    город для получения регулярного выражения
+   * @return результат проверки
+   */
+  private boolean checkAddress(String address, City city) {
+    if (address == null) {
+      return true;
+    }
+    if (checkArea(address, city)) {
+      return true;
+    }
+    return checkCity(address, city);
+  }
+
+  /**
+   * Проверить область по шаблону
+   *
+   * @param address адрес
+   * @param city    город
+   * @return результат
+   */
+  private boolean checkArea(String address, City city) {
+    Pattern pattern = Pattern.compile(city.getPattern());
+    Matcher matcher = pattern.matcher(address.toLowerCase());
+    return matcher.find();
+  }
+
+  /**
+   * Проверить город по шаблону
+   *
+   * @param address адрес
+   * @param city    город
+   * @return результат
+   */
+  private boolean checkCity(String address, City city) {
+    String cityName = city.getDescription().toLowerCase();
+    String template = "(%s)";
+    String cityPattern = String.format(template, cityName);
+    Pattern pattern = Pattern.compile(cityPattern);
+    Matcher matcher = pattern.matcher(address.toLowerCase());
+    return matcher.find();
+  }
+
+}
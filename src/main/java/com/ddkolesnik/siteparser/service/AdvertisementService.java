@@ -1,12 +1,37 @@
 package com.ddkolesnik.siteparser.service;
 
+import com.ddkolesnik.siteparser.dto.AdvertisementFilter;
+import com.ddkolesnik.siteparser.dto.AdvertisementPage;
+import com.ddkolesnik.siteparser.dto.AdvertisementStats;
+import com.ddkolesnik.siteparser.dto.AdvertisementView;
+import com.ddkolesnik.siteparser.dto.PricePoint;
 import com.ddkolesnik.siteparser.model.Advertisement;
+import com.ddkolesnik.siteparser.repository.AdvertisementQueryRepository;
 import com.ddkolesnik.siteparser.repository.AdvertisementRepository;
+import com.ddkolesnik.siteparser.repository.AdvertisementStatsRepository;
+import com.ddkolesnik.siteparser.repository.PriceHistoryRepository;
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * @author Alexandr Stegnin
@@ -16,31 +41,333 @@ import java.time.LocalDateTime;
 @Transactional
 public class AdvertisementService {
 
+    private static final int LINKS_CHUNK_SIZE = 500;
+
+    private static final String CURSOR_SEPARATOR = "_";
+
+    // за сколько последних месяцев сначала ищется максимальная дата публикации
+    private static final int WATERMARK_MONTHS = 2;
+
     private final AdvertisementRepository advertisementRepository;
 
-    public AdvertisementService(AdvertisementRepository advertisementRepository) {
+    private final AdvertisementQueryRepository advertisementQueryRepository;
+
+    private final AdvertisementStatsRepository advertisementStatsRepository;
+
+    private final AdvertisementStatsService advertisementStatsService;
+
+    private final PriceHistoryRepository priceHistoryRepository;
+
+    private final DuplicateDetectionService duplicateDetectionService;
+
+    private final SellerService sellerService;
+
+    private final PartitionService partitionService;
+
+    public AdvertisementService(AdvertisementRepository advertisementRepository,
+                                AdvertisementQueryRepository advertisementQueryRepository,
+                                AdvertisementStatsRepository advertisementStatsRepository,
+                                AdvertisementStatsService advertisementStatsService,
+                                PriceHistoryRepository priceHistoryRepository,
+                                DuplicateDetectionService duplicateDetectionService,
+                                SellerService sellerService,
+                                PartitionService partitionService) {
         this.advertisementRepository = advertisementRepository;
+        this.advertisementQueryRepository = advertisementQueryRepository;
+        this.advertisementStatsRepository = advertisementStatsRepository;
+        this.advertisementStatsService = advertisementStatsService;
+        this.priceHistoryRepository = priceHistoryRepository;
+        this.duplicateDetectionService = duplicateDetectionService;
+        this.sellerService = sellerService;
+        this.partitionService = partitionService;
     }
 
     @Transactional
     public void create(Advertisement advertisement) {
-        advertisementRepository.save(advertisement);
+        createAll(Collections.singletonList(advertisement));
     }
 
+    /**
+     * Записать объявления. Объявление, уже сохранённое по этой ссылке, перезаписывается,
+     * при изменении цены в историю цен добавляется новое наблюдение, объявления распределяются по кластерам дублей,
+     * продавцы сохраняются в отдельную таблицу
+     *
+     * @param advertisements объявления
+     * @return ссылки объявлений, которые уже были сохранены и перезаписаны
+     */
+    public Set<String> createAll(List<Advertisement> advertisements) {
+        partitionService.lockWrites();
+        Map<String, Advertisement> byLink = new LinkedHashMap<>();
+        List<Advertisement> toSave = new ArrayList<>(advertisements.size());
+        for (Advertisement advertisement : advertisements) {
+            if (Objects.isNull(advertisement.getLink())) {
+                toSave.add(advertisement);
+            } else {
+                byLink.put(advertisement.getLink(), advertisement);
+            }
+        }
+        toSave.addAll(byLink.values());
+        Map<String, Advertisement> stored = byLink.isEmpty() ? Collections.emptyMap()
+                : advertisementRepository.findByLinkIn(byLink.keySet()).stream()
+                .collect(Collectors.toMap(Advertisement::getLink, Function.identity()));
+        sellerService.resolve(toSave);
+        LocalDateTime observedAt = LocalDateTime.now();
+        List<PricePoint> prices = new ArrayList<>();
+        Map<Long, Long> sellerDeltas = new HashMap<>();
+        for (Advertisement advertisement : toSave) {
+            Advertisement previous = stored.get(advertisement.getLink());
+            Long previousSellerId = Objects.isNull(previous) ? null : previous.getSellerId();
+            if (Objects.isNull(advertisement.getSellerId())) {
+                advertisement.setSellerId(previousSellerId);
+            }
+            if (!Objects.equals(previousSellerId, advertisement.getSellerId())) {
+                if (Objects.nonNull(previousSellerId)) {
+                    sellerDeltas.merge(previousSellerId, -1L, Long::sum);
+                }
+                if (Objects.nonNull(advertisement.getSellerId())) {
+                    sellerDeltas.merge(advertisement.getSellerId(), 1L, Long::sum);
+                }
+            }
+            if (Objects.isNull(previous)) {
+                continue;
+            }
+            advertisement.setId(previous.getId());
+            advertisement.setCreationTime(previous.getCreationTime());
+            if (Objects.isNull(advertisement.getPrice())) {
+                advertisement.setPrice(previous.getPrice());
+            } else if (Objects.isNull(previous.getPrice()) || advertisement.getPrice().compareTo(previous.getPrice()) != 0) {
+                prices.add(new PricePoint(previous.getId(), observedAt, advertisement.getPrice(), null, null, null));
+            }
+        }
+        advertisementStatsService.onSaved(stored.values(), toSave);
+        List<Advertisement> saved = advertisementRepository.saveAll(toSave);
+        // кластеры пишутся отдельным запросом по уже вставленным строкам: изменение сущности после persist
+        // даёт обновление с состоянием до вставки, без сгенерированного creation_time
+        advertisementRepository.flush();
+        duplicateDetectionService.assign(saved);
+        saved.stream()
+                .filter(advertisement -> Objects.nonNull(advertisement.getPrice())
+                        && !stored.containsKey(advertisement.getLink()))
+                .forEach(advertisement -> prices.add(new PricePoint(advertisement.getId(), observedAt,
+                        advertisement.getPrice(), null, null, null)));
+        priceHistoryRepository.appendAll(prices);
+        sellerService.addAdvCounts(sellerDeltas);
+        return stored.keySet();
+    }
+
+    /**
+     * Получить кол-во объявлений по счётчикам статистики, без подсчёта по таблице
+     *
+     * @return кол-во объявлений
+     */
     public long count() {
-        return advertisementRepository.count();
+        return advertisementStatsService.getTotal();
     }
 
+    /**
+     * Получить максимальную дату публикации. Сначала ищем за последние месяцы, чтобы на секционированной таблице
+     * читались только последние секции, и только если там пусто - по всей таблице
+     *
+     * @return максимальная дата публикации
+     */
     public LocalDate getMaxPublishDate() {
-        return advertisementRepository.getMaxPublishDate();
+        LocalDate since = LocalDate.now().withDayOfMonth(1).minusMonths(WATERMARK_MONTHS);
+        LocalDate maxPublishDate = advertisementRepository.getMaxPublishDate(since);
+        return Objects.nonNull(maxPublishDate) ? maxPublishDate : advertisementRepository.getMaxPublishDate();
+    }
+
+    /**
+     * Получить даты публикации объявлений, уже сохранённых в базе данных
+     *
+     * @param links ссылки на объявления
+     * @return дата публикации по ссылке, для отсутствующих в базе ссылок записей нет
+     */
+    @Transactional(readOnly = true)
+    public Map<String, LocalDate> getPublishDates(Collection<String> links) {
+        Map<String, LocalDate> publishDates = new HashMap<>();
+        List<String> chunk = new ArrayList<>(LINKS_CHUNK_SIZE);
+        for (String link : links) {
+            chunk.add(link);
+            if (chunk.size() == LINKS_CHUNK_SIZE) {
+                putPublishDates(chunk, publishDates);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            putPublishDates(chunk, publishDates);
+        }
+        return publishDates;
+    }
+
+    private void putPublishDates(List<String> links, Map<String, LocalDate> publishDates) {
+        advertisementRepository.getPublishDates(links)
+                .forEach(row -> publishDates.put((String) row[0], (LocalDate) row[1]));
+    }
+
+    /**
+     * Получить объявления, записанные по карточкам из выдачи и ещё не дозагруженные со страницы объявления
+     *
+     * @param city     город
+     * @param category категория объявления
+     * @param type     вид объявления
+     * @param limit    максимальное кол-во, первыми идут самые давние
+     * @return дата публикации по ссылке
+     */
+    @Transactional(readOnly = true)
+    public Map<String, LocalDate> getNotEnriched(City city, AdvCategory category, AdvertisementType type, int limit) {
+        Map<String, LocalDate> publishDates = new LinkedHashMap<>();
+        advertisementRepository.getNotEnriched(city, category, type, PageRequest.of(0, limit))
+                .forEach(row -> publishDates.put((String) row[0], (LocalDate) row[1]));
+        return publishDates;
+    }
+
+    /**
+     * Отметить объявление дозагруженным, например когда страница объявления не прошла проверку
+     * и карточка так и останется единственным источником данных
+     *
+     * @param link ссылка на объявление
+     * @return кол-во обновлённых записей
+     */
+    public int setEnriched(String link) {
+        return advertisementRepository.setEnriched(link);
+    }
+
+    @Transactional(readOnly = true)
+    public List<String> getActualLinks(City city, AdvCategory category, AdvertisementType type, LocalDateTime before) {
+        return advertisementRepository.getActualLinks(city, category, type, before);
+    }
+
+    @Transactional(readOnly = true)
+    public List<String> getNotActualLinks(City city, AdvCategory category, AdvertisementType type,
+                                          Collection<String> links) {
+        return advertisementRepository.getNotActualLinks(city, category, type, links);
+    }
+
+    public int setActual(Collection<String> links, boolean actual) {
+        List<AdvertisementStats> moved = advertisementStatsRepository.aggregate(links, !actual);
+        int updated = advertisementRepository.setActual(links, actual);
+        advertisementStatsService.onActualChanged(moved, actual);
+        return updated;
+    }
+
+    /**
+     * Получить страницу объявлений по фильтру
+     *
+     * @param filter          фильтр
+     * @param cursor          курсор из предыдущей страницы, для первой страницы не задаётся
+     * @param limit           размер страницы
+     * @param withDescription включать описание
+     * @return страница объявлений
+     */
+    @Transactional(readOnly = true)
+    public AdvertisementPage findPage(AdvertisementFilter filter, String cursor, int limit, boolean withDescription) {
+        LocalDate afterDate = null;
+        Long afterId = null;
+        if (Objects.nonNull(cursor) && !cursor.isEmpty()) {
+            String[] parts = cursor.split(CURSOR_SEPARATOR);
+            try {
+                afterDate = LocalDate.parse(parts[0]);
+                afterId = Long.valueOf(parts[1]);
+            } catch (RuntimeException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Неверный курсор [%s]", cursor));
+            }
+        }
+        List<AdvertisementView> items = advertisementQueryRepository.findPage(filter, afterDate, afterId, limit,
+                withDescription);
+        String nextCursor = null;
+        if (items.size() == limit) {
+            AdvertisementView last = items.get(items.size() - 1);
+            nextCursor = last.getPublishDate() + CURSOR_SEPARATOR + last.getId();
+        }
+        return new AdvertisementPage(items, nextCursor);
+    }
+
+    /**
+     * Найти объявления по словам в заголовке и описании
+     *
+     * @param query  поисковый запрос
+     * @param filter фильтр
+     * @param cursor курсор из предыдущей страницы, для первой страницы не задаётся
+     * @param limit  размер страницы
+     * @return страница объявлений
+     */
+    @Transactional(readOnly = true)
+    public AdvertisementPage search(String query, AdvertisementFilter filter, String cursor, int limit) {
+        if (Objects.isNull(query) || query.trim().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Не задан поисковый запрос");
+        }
+        int offset = 0;
+        if (Objects.nonNull(cursor) && !cursor.isEmpty()) {
+            try {
+                offset = Integer.parseInt(cursor);
+            } catch (NumberFormatException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("Неверный курсор [%s]", cursor));
+            }
+        }
+        List<AdvertisementView> items = advertisementQueryRepository.search(query.trim(), filter, offset, limit);
+        return new AdvertisementPage(items, items.size() == limit ? String.valueOf(offset + limit) : null);
+    }
+
+    @Transactional(readOnly = true)
+    public List<AdvertisementView> getDuplicates(long id) {
+        return advertisementQueryRepository.findDuplicates(id);
+    }
+
+    @Transactional(readOnly = true)
+    public List<PricePoint> getPriceHistory(long advertisementId) {
+        return priceHistoryRepository.findByAdvertisementId(advertisementId);
+    }
+
+    @Transactional(readOnly = true)
+    public List<PricePoint> getPriceDrops(LocalDateTime since, int limit) {
+        return priceHistoryRepository.findDrops(since, limit);
     }
 
     public void setNotActual(LocalDateTime currentDate) {
         advertisementRepository.setNotActual(currentDate);
+        advertisementStatsService.onBulkChange();
+    }
+
+    /**
+     * Получить id неактуальных объявлений, последний раз изменённых раньше заданного момента
+     *
+     * @param afterId id, после которого начинать
+     * @param before  момент
+     * @param limit   кол-во id
+     * @return id по возрастанию
+     */
+    @Transactional(readOnly = true)
+    public List<Long> findNotActualIds(long afterId, LocalDateTime before, int limit) {
+        return advertisementRepository.findNotActualIds(afterId, before, PageRequest.of(0, limit));
+    }
+
+    @Transactional(readOnly = true)
+    public long countNotActual(LocalDateTime before) {
+        return advertisementRepository.countNotActual(before);
     }
 
-    public void delete(LocalDateTime currentDate) {
-        advertisementRepository.deleteByCreationTimeBefore(currentDate);
+    /**
+     * Удалить неактуальные объявления одним запросом вместе с историей цен и корзинами дублей.
+     * Объявления, ставшие актуальными после выбора id, не удаляются
+     *
+     * @param ids id объявлений
+     * @return кол-во удалённых объявлений
+     */
+    public int delete(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        partitionService.lockWrites();
+        List<AdvertisementStats> removed = advertisementStatsRepository.aggregateNotActual(ids);
+        Map<Long, Long> sellerDeltas = new HashMap<>();
+        advertisementRepository.countNotActualBySeller(ids)
+                .forEach(row -> sellerDeltas.put((Long) row[0], -(Long) row[1]));
+        priceHistoryRepository.deleteByAdvertisementIds(ids);
+        duplicateDetectionService.deleteBuckets(ids);
+        int deleted = advertisementRepository.deleteNotActual(ids);
+        sellerService.addAdvCounts(sellerDeltas);
+        advertisementStatsService.onDeleted(removed);
+        return deleted;
     }
 
 }
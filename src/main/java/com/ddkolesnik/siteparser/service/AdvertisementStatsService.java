@@ -0,0 +1,343 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.dto.AdvertisementFilter;
+import com.ddkolesnik.siteparser.dto.AdvertisementStats;
+import com.ddkolesnik.siteparser.model.Advertisement;
+import com.ddkolesnik.siteparser.repository.AdvertisementStatsRepository;
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Счётчики объявлений в разрезе (город, категория, вид, актуальность).
+ * Счётчики хранятся в памяти и обновляются после фиксации транзакций, которые пишут объявления,
+ * периодически сбрасываются в сводную таблицу и сверяются с основной таблицей
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class AdvertisementStatsService {
+
+  AdvertisementStatsRepository advertisementStatsRepository;
+
+  TransactionTemplate transactionTemplate;
+
+  Map<StatsKey, Counter> counters = new ConcurrentHashMap<>();
+
+  ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  AtomicBoolean dirty = new AtomicBoolean();
+
+  // приращения, учтённые во время подсчёта сверки, null - сверка не идёт
+  @NonFinal
+  volatile Map<StatsKey, Counter> journal;
+
+  public AdvertisementStatsService(AdvertisementStatsRepository advertisementStatsRepository,
+                                   PlatformTransactionManager transactionManager) {
+    this.advertisementStatsRepository = advertisementStatsRepository;
+    // вызывается и после фиксации чужих транзакций, поэтому всегда в отдельной транзакции
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  /**
+   * Загрузить счётчики из сводной таблицы
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void load() {
+    replace(advertisementStatsRepository.findAll());
+    log.info("Загрузили статистику объявлений, всего [{} шт]", getTotal());
+  }
+
+  /**
+   * Учесть записанные объявления. Агрегаты снимаются сразу, до записи,
+   * потому что заменяемые объявления после слияния уже содержат новые значения
+   *
+   * @param replaced объявления в базе данных, которые перезаписываются
+   * @param saved    записываемые объявления
+   */
+  public void onSaved(Collection<Advertisement> replaced, Collection<Advertisement> saved) {
+    List<AdvertisementStats> removed = replaced.stream()
+        .map(AdvertisementStatsService::toStats)
+        .collect(Collectors.toList());
+    List<AdvertisementStats> added = saved.stream()
+        .map(AdvertisementStatsService::toStats)
+        .collect(Collectors.toList());
+    afterCommit(() -> {
+      removed.forEach(stats -> add(stats, -1));
+      added.forEach(stats -> add(stats, 1));
+    });
+  }
+
+  /**
+   * Учесть смену признака актуальности.
+   * Агрегаты по переводимым объявлениям нужно посчитать в той же транзакции до обновления
+   *
+   * @param moved  агрегаты по объявлениям, у которых меняется признак
+   * @param actual новое значение признака
+   */
+  public void onActualChanged(Collection<AdvertisementStats> moved, boolean actual) {
+    afterCommit(() -> moved.forEach(stats -> {
+      add(stats, -1);
+      stats.setActual(actual);
+      add(stats, 1);
+    }));
+  }
+
+  /**
+   * Учесть удалённые объявления. Агрегаты нужно посчитать в той же транзакции до удаления
+   *
+   * @param removed агрегаты по удаляемым объявлениям
+   */
+  public void onDeleted(Collection<AdvertisementStats> removed) {
+    afterCommit(() -> removed.forEach(stats -> add(stats, -1)));
+  }
+
+  /**
+   * Пересчитать счётчики после массового изменения, которое нельзя учесть по группам
+   */
+  public void onBulkChange() {
+    afterCommit(this::reconcile);
+  }
+
+  /**
+   * Получить общее кол-во объявлений
+   *
+   * @return кол-во объявлений
+   */
+  public long getTotal() {
+    return counters.values().stream().mapToLong(Counter::getCount).sum();
+  }
+
+  /**
+   * Получить статистику по группам, подходящим под фильтр.
+   * Учитываются только город, категория, вид и признак актуальности
+   *
+   * @param filter фильтр
+   * @return статистика по группам
+   */
+  public List<AdvertisementStats> getStats(AdvertisementFilter filter) {
+    return counters.entrySet().stream()
+        .filter(e -> e.getKey().matches(filter))
+        .map(e -> e.getValue().toStats(e.getKey()))
+        .filter(stats -> stats.getCount() != 0)
+        .sorted(Comparator.comparing(AdvertisementStats::getCount).reversed())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Сбросить счётчики в сводную таблицу, если они изменились.
+   * При остановке приложения - обязательно, иначе приращения с последнего сброса теряются до ближайшей сверки
+   */
+  @PreDestroy
+  @Scheduled(fixedDelayString = "${stats.flush-delay:60000}")
+  public void flush() {
+    if (!dirty.getAndSet(false)) {
+      return;
+    }
+    List<AdvertisementStats> snapshot = counters.entrySet().stream()
+        .map(e -> e.getValue().toStats(e.getKey()))
+        .collect(Collectors.toList());
+    try {
+      transactionTemplate.execute(status -> {
+        advertisementStatsRepository.replaceAll(snapshot);
+        return null;
+      });
+    } catch (RuntimeException e) {
+      dirty.set(true);
+      log.error("Не удалось сохранить статистику объявлений. Ошибка: {}", e.getLocalizedMessage());
+    }
+  }
+
+  /*
+  Сверка с основной таблицей. Подсчёт идёт без блокировки, приращения за время подсчёта копятся в журнале
+  и применяются поверх подсчитанных значений при подмене. Расхождение из-за транзакций, зафиксированных
+  одновременно с началом подсчёта, исправит следующая сверка
+   */
+  @Scheduled(initialDelayString = "${stats.reconcile-initial-delay:3600000}",
+      fixedDelayString = "${stats.reconcile-delay:21600000}")
+  public synchronized void reconcile() {
+    lock.writeLock().lock();
+    try {
+      journal = new ConcurrentHashMap<>();
+    } finally {
+      lock.writeLock().unlock();
+    }
+    List<AdvertisementStats> actual;
+    try {
+      actual = transactionTemplate.execute(status -> advertisementStatsRepository.aggregate());
+    } catch (RuntimeException e) {
+      journal = null;
+      throw e;
+    }
+    lock.writeLock().lock();
+    try {
+      Map<StatsKey, Counter> applied = journal;
+      journal = null;
+      long drift = actual.stream()
+          .mapToLong(stats -> {
+            Counter counter = counters.get(StatsKey.of(stats));
+            Counter during = applied.get(StatsKey.of(stats));
+            long expected = (counter == null ? 0 : counter.getCount()) - (during == null ? 0 : during.getCount());
+            return Math.abs(stats.getCount() - expected);
+          })
+          .sum();
+      if (drift > 0) {
+        log.warn("Статистика объявлений расходится с базой данных на [{} шт], пересчитываем", drift);
+      }
+      replace(actual);
+      applied.forEach((key, counter) -> add(counter.toStats(key), 1));
+    } finally {
+      lock.writeLock().unlock();
+    }
+    dirty.set(true);
+    flush();
+  }
+
+  private void replace(Collection<AdvertisementStats> stats) {
+    lock.writeLock().lock();
+    try {
+      counters.clear();
+      stats.forEach(s -> add(s, 1));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void add(AdvertisementStats stats, int sign) {
+    lock.readLock().lock();
+    try {
+      counters.computeIfAbsent(StatsKey.of(stats), key -> new Counter()).add(stats, sign);
+      Map<StatsKey, Counter> pending = journal;
+      if (pending != null) {
+        pending.computeIfAbsent(StatsKey.of(stats), key -> new Counter()).add(stats, sign);
+      }
+      dirty.set(true);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void afterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        action.run();
+      }
+    });
+  }
+
+  private static AdvertisementStats toStats(Advertisement advertisement) {
+    return AdvertisementStats.builder()
+        .city(advertisement.getCity())
+        .category(advertisement.getCategory())
+        .advType(advertisement.getAdvType())
+        .actual(advertisement.isActual())
+        .count(1)
+        .priceCount(advertisement.getPrice() == null ? 0 : 1)
+        .priceSum(advertisement.getPrice() == null ? BigDecimal.ZERO : advertisement.getPrice())
+        .areaCount(advertisement.getAreaM2() == null ? 0 : 1)
+        .areaSum(advertisement.getAreaM2() == null ? BigDecimal.ZERO : advertisement.getAreaM2())
+        .build();
+  }
+
+  @lombok.Value(staticConstructor = "of")
+  private static class StatsKey {
+
+    City city;
+
+    AdvCategory category;
+
+    AdvertisementType advType;
+
+    boolean actual;
+
+    static StatsKey of(AdvertisementStats stats) {
+      return of(stats.getCity(), stats.getCategory(), stats.getAdvType(), stats.isActual());
+    }
+
+    boolean matches(AdvertisementFilter filter) {
+      return (filter.getCity() == null || city == filter.getCity())
+          && (filter.getCategory() == null || category == filter.getCategory())
+          && (filter.getAdvType() == null || advType == filter.getAdvType())
+          && (filter.getActual() == null || actual == filter.getActual());
+    }
+
+  }
+
+  private static class Counter {
+
+    private long count;
+
+    private long priceCount;
+
+    private BigDecimal priceSum = BigDecimal.ZERO;
+
+    private long areaCount;
+
+    private BigDecimal areaSum = BigDecimal.ZERO;
+
+    synchronized void add(AdvertisementStats stats, int sign) {
+      count += sign * stats.getCount();
+      priceCount += sign * stats.getPriceCount();
+      priceSum = priceSum.add(signed(stats.getPriceSum(), sign));
+      areaCount += sign * stats.getAreaCount();
+      areaSum = areaSum.add(signed(stats.getAreaSum(), sign));
+    }
+
+    synchronized long getCount() {
+      return count;
+    }
+
+    synchronized AdvertisementStats toStats(StatsKey key) {
+      return AdvertisementStats.builder()
+          .city(key.getCity())
+          .category(key.getCategory())
+          .advType(key.getAdvType())
+          .actual(key.isActual())
+          .count(count)
+          .priceCount(priceCount)
+          .priceSum(priceSum)
+          .areaCount(areaCount)
+          .areaSum(areaSum)
+          .build();
+    }
+
+    private static BigDecimal signed(BigDecimal value, int sign) {
+      return value == null ? BigDecimal.ZERO : sign < 0 ? value.negate() : value;
+    }
+
+  }
+
+}
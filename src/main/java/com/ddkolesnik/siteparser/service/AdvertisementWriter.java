@@ -0,0 +1,112 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.jfr.DbFlushEvent;
+import com.ddkolesnik.siteparser.model.Advertisement;
+import com.ddkolesnik.siteparser.utils.MemoryStage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Запись объявлений в базу данных пачками.
+ * При исчерпании бюджета памяти на объявления к записи пишущий поток сам сбрасывает накопленную пачку
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class AdvertisementWriter {
+
+  AdvertisementService advertisementService;
+
+  MemoryBudget memoryBudget;
+
+  int batchSize;
+
+  Object flushLock = new Object();
+
+  List<Advertisement> buffer = new ArrayList<>();
+
+  List<PipelineMetrics> bufferMetrics = new ArrayList<>();
+
+  public AdvertisementWriter(AdvertisementService advertisementService, MemoryBudget memoryBudget,
+                             @Value("${parser.writer.batch-size:50}") int batchSize) {
+    this.advertisementService = advertisementService;
+    this.memoryBudget = memoryBudget;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Добавить объявление в пачку на запись. После записи пачки объявление учитывается в показателях
+   * как новое или перезаписанное, время записи пачки делится между её объявлениями
+   *
+   * @param advertisement объявление
+   * @param metrics       показатели сочетания фильтров объявления
+   */
+  public void write(Advertisement advertisement, PipelineMetrics metrics) {
+    long bytes = MemoryBudget.estimate(advertisement);
+    if (!memoryBudget.tryAcquire(MemoryStage.ENTITIES, bytes)) {
+      flush();
+      memoryBudget.acquire(MemoryStage.ENTITIES, bytes);
+    }
+    boolean full;
+    synchronized (buffer) {
+      buffer.add(advertisement);
+      bufferMetrics.add(metrics);
+      full = buffer.size() >= batchSize;
+    }
+    if (full) {
+      flush();
+    }
+  }
+
+  /**
+   * Записать накопленную пачку
+   */
+  public void flush() {
+    synchronized (flushLock) {
+      List<Advertisement> batch;
+      List<PipelineMetrics> batchMetrics;
+      synchronized (buffer) {
+        if (buffer.isEmpty()) {
+          return;
+        }
+        batch = new ArrayList<>(buffer);
+        batchMetrics = new ArrayList<>(bufferMetrics);
+        buffer.clear();
+        bufferMetrics.clear();
+      }
+      DbFlushEvent event = new DbFlushEvent();
+      event.begin();
+      long start = System.nanoTime();
+      try {
+        Set<String> updated = advertisementService.createAll(batch);
+        long share = (System.nanoTime() - start) / batch.size();
+        // повтор ссылки в пачке, например карточка и её дозагрузка, - перезапись первой записи
+        Set<String> written = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+          String link = batch.get(i).getLink();
+          boolean repeated = Objects.nonNull(link) && !written.add(link);
+          batchMetrics.get(i).onWritten(repeated || updated.contains(link));
+          batchMetrics.get(i).addDbTime(share);
+        }
+        event.count = batch.size();
+        event.commit();
+        log.info("Записали объявлений [{} шт]", batch.size());
+      } finally {
+        batch.forEach(advertisement -> memoryBudget.release(MemoryStage.ENTITIES,
+            MemoryBudget.estimate(advertisement)));
+      }
+    }
+  }
+
+}
@@ -1,34 +1,47 @@
 package com.ddkolesnik.siteparser.service;
 
+import com.ddkolesnik.siteparser.dto.PageRecord;
+import com.ddkolesnik.siteparser.jfr.BlockRetryEvent;
+import com.ddkolesnik.siteparser.jfr.DetailFetchEvent;
+import com.ddkolesnik.siteparser.jfr.ListingFetchEvent;
 import com.ddkolesnik.siteparser.model.Advertisement;
 import com.ddkolesnik.siteparser.utils.AdvCategory;
 import com.ddkolesnik.siteparser.utils.AdvertisementType;
 import com.ddkolesnik.siteparser.utils.City;
+import com.ddkolesnik.siteparser.utils.FetchPriority;
+import com.ddkolesnik.siteparser.utils.MemoryStage;
+import com.ddkolesnik.siteparser.utils.Pipeline;
 import com.ddkolesnik.siteparser.utils.SubCategory;
 import com.ddkolesnik.siteparser.utils.UrlUtils;
-import com.google.gson.Gson;
-import java.math.BigDecimal;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
@@ -41,8 +54,42 @@ import org.springframework.stereotype.Service;
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
 public class AvitoParseService {
 
-  ScraperApiService scraperApiService;
+  FetchRouter fetchRouter;
   AdvertisementService advertisementService;
+  AdvertisementWriter advertisementWriter;
+  MemoryBudget memoryBudget;
+  AdvertisementExtractor advertisementExtractor;
+  PageArchive pageArchive;
+  CheckpointService checkpointService;
+
+  AtomicInteger activeRuns = new AtomicInteger();
+
+  // первая страница списка, загруженная ради кол-ва страниц, забирается следующим сбором ссылок с неё
+  Map<String, Document> firstPages = new ConcurrentHashMap<>();
+
+  @NonFinal
+  @Value("${parser.fetch.threads:1}")
+  int fetchThreads;
+
+  @NonFinal
+  @Value("${parser.fetch.max-per-run:0}")
+  int maxFetchesPerRun;
+
+  @NonFinal
+  @Value("${parser.fetch.reverify-per-run:500}")
+  int reverifyPerRun;
+
+  @NonFinal
+  @Value("${parser.memory.bounded:false}")
+  boolean memoryBounded;
+
+  @NonFinal
+  @Value("${parser.listing.fast-mode:false}")
+  boolean fastMode;
+
+  @NonFinal
+  @Value("${parser.listing.enrich-backlog:500}")
+  int enrichBacklog;
 
   /**
    * Собрать и записать информацию по объявлениям
@@ -56,300 +103,521 @@ public class AvitoParseService {
    */
   public int parse(AdvCategory category, SubCategory subCategory, AdvertisementType advertisementType, City city,
                    LocalDate maxPublishDate) {
-    log.info("Начинаем собирать [{}] :: [{}] :: [{}] :: [{}]", category.getTitle(), subCategory.getTitle(),
-        advertisementType.getTitle(), city.getDescription());
-    Map<String, LocalDate> links = new HashMap<>();
-    String url = getUrl(category, subCategory, advertisementType, city);
-    String pagePart = "&p=";
-    int totalPages;
-    if (Objects.isNull(maxPublishDate)) {
-      totalPages = getTotalPages(url);
-    } else {
-      totalPages = 3;
-    }
-    int pageNumber = 1;
-    while (pageNumber <= totalPages) {
-      links.putAll(getLinks(url.concat(pagePart).concat(String.valueOf(pageNumber)), maxPublishDate));
-      pageNumber++;
-    }
-    log.info("Итого собрано ссылок [{} шт]", links.size());
-    return getAdvertisements(links, advertisementType, city, category);
+    return parse(Collections.singletonList(new Pipeline(category, subCategory, advertisementType, city)),
+        maxPublishDate);
   }
 
   /**
-   * Собрать ссылки на объявления со страницы
+   * Собрать и записать информацию по объявлениям нескольких сочетаний фильтров.
+   * Загрузка идёт в порядке приоритета: новые объявления, изменённые, перепроверка уже собранных.
+   * Без ограничения памяти ссылки собираются по всем сочетаниям до начала загрузки, в режиме ограниченной
+   * памяти загрузка идёт параллельно со сбором ссылок, а сбор ждёт при заполнении очереди
    *
-   * @param url            ссылка на страницу
+   * @param pipelines      сочетания фильтров
    * @param maxPublishDate дата последней публикации в базе данных
-   * @return список ссылок на объявления
+   * @return кол-во собранных ссылок
    */
-  public Map<String, LocalDate> getLinks(String url, LocalDate maxPublishDate) {
-    Map<String, LocalDate> links = new HashMap<>();
-    Document document = getDocument(url);
-    if (Objects.nonNull(document)) {
-      Elements divs = document.select("div[data-marker=item]");
-      divs.forEach(div -> {
-        LocalDate advCreateDate = extractDate(div);
-        if (Objects.nonNull(maxPublishDate) && Objects.nonNull(advCreateDate) && advCreateDate.isBefore(maxPublishDate)) {
-          return;
+  public int parse(List<Pipeline> pipelines, LocalDate maxPublishDate) {
+    return parse(pipelines, maxPublishDate, new CrawlProgress());
+  }
+
+  /**
+   * Собрать и записать информацию по объявлениям нескольких сочетаний фильтров с учётом хода и отмены запуска.
+   * После отмены новые страницы списка не загружаются, а задачи из очереди пропускаются
+   *
+   * @param pipelines      сочетания фильтров
+   * @param maxPublishDate дата последней публикации в базе данных
+   * @param progress       ход запуска
+   * @return кол-во собранных ссылок
+   */
+  public int parse(List<Pipeline> pipelines, LocalDate maxPublishDate, CrawlProgress progress) {
+    activeRuns.incrementAndGet();
+    memoryBudget.resetPeaks();
+    SingleFlight<Boolean> flights = new SingleFlight<>();
+    FetchScheduler scheduler = new FetchScheduler(fetchThreads, maxFetchesPerRun, reverifyPerRun, progress,
+        task -> parseAdvertisement(task, progress, flights),
+        task -> memoryBudget.release(MemoryStage.LINKS, MemoryBudget.estimate(task)));
+    if (memoryBounded) {
+      scheduler.start();
+    }
+    boolean started = memoryBounded;
+    int count = 0;
+    try {
+      for (Pipeline pipeline : pipelines) {
+        if (progress.isCancelled()) {
+          if (progress.isDraining()) {
+            checkpoint(pipeline, null);
+            continue;
+          }
+          break;
         }
-        Element urlEl = div.selectFirst("a[itemprop=url]");
-        if (Objects.nonNull(urlEl)) {
-          String href = urlEl.select("a[href]").attr("href");
-          links.put(href.trim(), advCreateDate);
+        count += submitTasks(pipeline, maxPublishDate, scheduler, progress);
+      }
+      if (!memoryBounded) {
+        scheduler.start();
+        started = true;
+      }
+      return count;
+    } finally {
+      if (!started) {
+        // сбор ссылок прервался до запуска загрузки: задачи не выполнятся, память под их ссылки освобождается
+        int discarded = scheduler.discard();
+        if (discarded > 0) {
+          log.warn("Сбор прерван до начала загрузки, отброшено задач [{} шт]", discarded);
         }
-      });
+      }
+      scheduler.await();
+      advertisementWriter.flush();
+      if (progress.isDraining()) {
+        checkpoint(scheduler.getPending(), progress);
+      }
+      scheduler.report();
+      if (flights.getShared() > 0) {
+        log.info("Совмещено загрузок одинаковых страниц [{} шт], из них между сочетаниями фильтров [{} шт]",
+            flights.getShared(), flights.getCrossPipeline());
+      }
+      memoryBudget.report();
+      activeRuns.decrementAndGet();
     }
-    return links;
   }
 
   /**
-   * Получить информацию об объявлении со страницы
+   * Собрать ссылки по сочетанию фильтров, определить приоритет их загрузки и поставить в очередь.
+   * Если прошлый запуск остановлен посреди сбора, страницы начиная с сохранённой собираются без отсечения
+   * по дате последней публикации. В быстром режиме новые объявления сразу записываются по карточкам из выдачи, а загрузка их страниц
+   * откладывается в конец очереди вместе с недозагруженными объявлениями прошлых запусков
    *
-   * @param url               ссылка на страницу с объявлением
-   * @param advertisementType вид объявления
-   * @param publishDate       дата публикации объявления
-   * @param city              город
-   * @param category          категория объявления
+   * @param pipeline       сочетание фильтров
+   * @param maxPublishDate дата последней публикации в базе данных
+   * @param scheduler      планировщик загрузки
+   * @param progress       ход запуска
+   * @return кол-во собранных ссылок
    */
-  public void parseAdvertisement(String url, AdvertisementType advertisementType, LocalDate publishDate, City city,
-                                 AdvCategory category) {
-    url = "https://avito.ru" + url;
-    String link = url;
-    Advertisement advertisement;
-    Document document = getDocument(url);
-    String address = getAddress(document);
-    if (category == AdvCategory.COMMERCIAL_PROPERTY) {
-      if (!checkAddress(address, city)) {
-        log.warn("Адресс не валидный. [{}] :: [{}]", city.getDescription(), address);
-        return;
+  private int submitTasks(Pipeline pipeline, LocalDate maxPublishDate, FetchScheduler scheduler,
+                          CrawlProgress progress) {
+    log.info("Начинаем собирать {}", pipeline);
+    int count = 0;
+    PipelineMetrics metrics = progress.metrics(pipeline);
+    Set<String> submitted = new HashSet<>();
+    for (FetchTask task : checkpointService.take(pipeline)) {
+      memoryBudget.acquire(MemoryStage.LINKS, MemoryBudget.estimate(task));
+      scheduler.submit(task);
+      submitted.add(task.getLink());
+      progress.onLink();
+      count++;
+    }
+    PageCursor cursor = checkpointService.takePageCursor(pipeline);
+    int pageCount = getPageCount(pipeline, maxPublishDate, metrics);
+    int lastPage = pageCount;
+    if (Objects.nonNull(cursor)) {
+      int cursorLastPage = Objects.nonNull(cursor.getLastPage()) ? cursor.getLastPage()
+          : Objects.isNull(maxPublishDate) ? pageCount : getPageCount(pipeline, null, metrics);
+      lastPage = Math.max(pageCount, cursorLastPage);
+    }
+    for (int page = 1; page <= lastPage; page++) {
+      boolean resumed = Objects.nonNull(cursor) && page >= cursor.getNextPage();
+      if (page > pageCount && !resumed) {
+        continue;
+      }
+      if (progress.isCancelled()) {
+        log.info("Сбор ссылок {} отменён", pipeline);
+        if (progress.isDraining()) {
+          checkpoint(pipeline, new PageCursor(page, lastPage));
+        }
+        break;
+      }
+      Map<String, Advertisement> cards = fastMode ? new HashMap<>() : null;
+      Map<String, LocalDate> links = getLinks(pipeline, getPageUrl(pipeline, page), resumed ? null : maxPublishDate,
+          metrics, cards);
+      links.keySet().removeAll(submitted);
+      progress.onPage();
+      for (FetchTask task : getTasks(pipeline, links)) {
+        if (fastMode) {
+          task = writeCard(task, cards.get(task.getLink()), progress);
+        }
+        memoryBudget.acquire(MemoryStage.LINKS, MemoryBudget.estimate(task));
+        scheduler.submit(task);
+        submitted.add(task.getLink());
+        progress.onLink();
+        count++;
       }
     }
-    String title = getTitle(document);
-    if (Objects.isNull(title)) {
-      return;
+    if (fastMode && !progress.isCancelled()) {
+      count += submitNotEnriched(pipeline, scheduler, progress, submitted);
     }
-    advertisement = Advertisement.builder()
-        .advType(advertisementType.getTitle())
-        .title(title)
-        .link(link)
-        .area(getArea(document))
-        .price(getPrice(document))
-        .address(address)
-        .stations(getStations(document))
-        .description(getDescription(document))
-        .dateCreate(getDateCreate(document))
-        .publishDate(publishDate)
-        .city(city.getDescription())
-        .category(category.getTitle())
-        .build();
-
-    setSellerInfo(document, advertisement);
-    advertisementService.create(advertisement);
-    log.info("Сохранили объявление: {}", advertisement.getId());
+    // первая страница, загруженная ради кол-ва страниц, но не разобранная из-за отмены
+    firstPages.remove(getPageUrl(pipeline, 1));
+    log.info("Итого собрано ссылок [{} шт]", count);
+    return count;
   }
 
   /**
-   * Получить список объявлений из массива ссылок
+   * Записать новое объявление по карточке из выдачи и отложить загрузку его страницы
    *
-   * @param urls              ссылки на объявления
-   * @param advertisementType вид объявления
-   * @param city              город
-   * @param category          категория объявления
+   * @param task     задача на загрузку
+   * @param card     объявление из карточки, null - карточка не разобрана
+   * @param progress ход запуска
+   * @return задача на дозагрузку или исходная задача, если объявление уже сохранено или карточки нет
    */
-  public int getAdvertisements(Map<String, LocalDate> urls, AdvertisementType advertisementType, City city,
-                               AdvCategory category) {
-    int linksCount = urls.size();
-    AtomicInteger counter = new AtomicInteger(0);
-    urls.forEach((url, date) -> {
-      log.info("Собираем {} из {} объявлений", counter.get() + 1, linksCount);
-      parseAdvertisement(url, advertisementType, date, city, category);
-      counter.getAndIncrement();
-    });
-    return linksCount;
+  private FetchTask writeCard(FetchTask task, Advertisement card, CrawlProgress progress) {
+    if (task.getPriority() != FetchPriority.NEW || Objects.isNull(card)) {
+      return task;
+    }
+    PipelineMetrics metrics = progress.metrics(task.getPipeline());
+    advertisementWriter.write(card, metrics);
+    metrics.onCard();
+    progress.onAdvertisement();
+    return new FetchTask(task.getLink(), task.getPublishDate(), task.getPipeline(), FetchPriority.ENRICH);
   }
 
   /**
-   * Получаем название объявления
+   * Поставить в очередь дозагрузку объявлений, записанных по карточкам в прошлых запусках.
+   * Недозагруженные объявления в базе данных - очередь дозагрузки, которая переживает лимит загрузок
+   * и перезапуск приложения
    *
-   * @param document HTML страница
-   * @return название объявления
+   * @param pipeline  сочетание фильтров
+   * @param scheduler планировщик загрузки
+   * @param progress  ход запуска
+   * @param submitted ссылки, уже поставленные в очередь в этом запуске
+   * @return кол-во поставленных задач
    */
-  private String getTitle(Document document) {
-    String title = null;
-    Element titleEl = document.select("span.title-info-title-text").first();
-    if (Objects.nonNull(titleEl)) {
-      title = titleEl.text();
+  private int submitNotEnriched(Pipeline pipeline, FetchScheduler scheduler, CrawlProgress progress,
+                                Set<String> submitted) {
+    int count = 0;
+    Map<String, LocalDate> notEnriched = advertisementService.getNotEnriched(pipeline.getCity(),
+        pipeline.getCategory(), pipeline.getType(), enrichBacklog);
+    for (Map.Entry<String, LocalDate> entry : notEnriched.entrySet()) {
+      if (!entry.getKey().startsWith(UrlUtils.BASE_URL)) {
+        continue;
+      }
+      String link = entry.getKey().substring(UrlUtils.BASE_URL.length());
+      if (!submitted.add(link)) {
+        continue;
+      }
+      FetchTask task = new FetchTask(link, entry.getValue(), pipeline, FetchPriority.ENRICH);
+      memoryBudget.acquire(MemoryStage.LINKS, MemoryBudget.estimate(task));
+      scheduler.submit(task);
+      progress.onLink();
+      count++;
     }
-    return title;
+    if (count > 0) {
+      log.info("Поставили в очередь дозагрузку объявлений прошлых запусков [{} шт]", count);
+    }
+    return count;
   }
 
-  /**
-   * Получаем площадь объявления
-   *
-   * @param document HTML страница
-   * @return площадь объявления
+  /*
+  Сохранить задачи, пропущенные при остановке приложения, их заберёт следующий запуск тех же фильтров
    */
-  private String getArea(Document document) {
-    String area = null;
-    Elements areaEl = document.select("div.item-params");
-    Elements areas = areaEl.select("span");
+  private void checkpoint(List<FetchTask> pending, CrawlProgress progress) {
+    try {
+      checkpointService.save(pending);
+      progress.onCheckpointed(pending.size());
+    } catch (RuntimeException e) {
+      log.error("Не удалось сохранить невыполненные задачи [{} шт]. Ошибка: {}", pending.size(),
+          e.getLocalizedMessage());
+    }
+  }
 
-    if (areas.size() == 6) {
-      area = areaEl.select("li").text().split(":")[1].replaceAll("[^\\d.]", "");
-    } else {
-      Element areaFirstEl = areaEl.select("span").first();
-      if (Objects.nonNull(areaFirstEl)) {
-        String[] areaParts = areaFirstEl.text().split(":");
-        if (areaParts.length > 1) {
-          area = areaParts[1].replaceAll("[^\\d.]", "");
-          if (area.endsWith(".")) {
-            area = area.substring(0, area.length() - 1);
-          }
-        }
+  /*
+  Сохранить страницу списка, на которой остановлен сбор ссылок, null - сбор по сочетанию фильтров не начинался
+   */
+  private void checkpoint(Pipeline pipeline, PageCursor cursor) {
+    try {
+      if (Objects.isNull(cursor)) {
+        checkpointService.savePageCursorIfAbsent(pipeline);
+      } else {
+        checkpointService.savePageCursor(pipeline, cursor);
       }
+    } catch (RuntimeException e) {
+      log.error("Не удалось сохранить позицию сбора ссылок {}. Ошибка: {}", pipeline, e.getLocalizedMessage());
     }
-    return area;
   }
 
   /**
-   * Получить стоимость объекта
+   * Определить приоритет загрузки ссылок по данным, уже сохранённым в базе данных
    *
-   * @param document HTML страница
-   * @return стоимость объявления
+   * @param pipeline сочетание фильтров
+   * @param links    ссылки на объявления с датой публикации
+   * @return задачи на загрузку объявлений
    */
-  private BigDecimal getPrice(Document document) {
-    BigDecimal price = BigDecimal.ZERO;
-    Element priceEl = document.select("span.js-item-price").select("[itemprop=price]").first();
-    if (Objects.nonNull(priceEl)) {
-      String priceStr = priceEl.text().replaceAll("\\s", "");
-      price = new BigDecimal(priceStr);
-    }
-    return price;
+  private List<FetchTask> getTasks(Pipeline pipeline, Map<String, LocalDate> links) {
+    Map<String, LocalDate> storedDates = advertisementService.getPublishDates(
+        links.keySet().stream().map(UrlUtils.BASE_URL::concat).collect(Collectors.toList()));
+    List<FetchTask> tasks = new ArrayList<>(links.size());
+    links.forEach((link, date) -> {
+      String fullLink = UrlUtils.BASE_URL.concat(link);
+      FetchPriority priority = FetchPriority.NEW;
+      if (storedDates.containsKey(fullLink)) {
+        LocalDate storedDate = storedDates.get(fullLink);
+        boolean changed = Objects.nonNull(date) && (Objects.isNull(storedDate) || date.isAfter(storedDate));
+        priority = changed ? FetchPriority.CHANGED : FetchPriority.REVERIFY;
+      }
+      tasks.add(new FetchTask(link, date, pipeline, priority));
+    });
+    return tasks;
   }
 
   /**
-   * Получить адрес объекта
+   * Получить ссылки на страницы списка объявлений
    *
-   * @param document HTML страница
-   * @return адрес объекта
+   * @param pipeline       сочетание фильтров
+   * @param maxPublishDate дата последней публикации в базе данных, если не задана - берутся все страницы
+   * @return ссылки на страницы
    */
-  private String getAddress(Document document) {
-    String address = null;
-    Element addressEl = document.select("span.item-address__string").first();
-    if (Objects.nonNull(addressEl)) {
-      address = addressEl.text().trim();
+  public List<String> getPageUrls(Pipeline pipeline, LocalDate maxPublishDate) {
+    int totalPages = getPageCount(pipeline, maxPublishDate, new PipelineMetrics());
+    List<String> pageUrls = new ArrayList<>(totalPages);
+    for (int pageNumber = 1; pageNumber <= totalPages; pageNumber++) {
+      pageUrls.add(getPageUrl(pipeline, pageNumber));
     }
-    return address;
+    return pageUrls;
+  }
+
+  /*
+  Кол-во страниц списка для сбора: без даты последней публикации - все страницы, иначе первые три
+   */
+  private int getPageCount(Pipeline pipeline, LocalDate maxPublishDate, PipelineMetrics metrics) {
+    if (Objects.isNull(maxPublishDate)) {
+      return getTotalPages(getPageUrl(pipeline, 1), metrics);
+    }
+    return 3;
+  }
+
+  private String getPageUrl(Pipeline pipeline, int pageNumber) {
+    return getUrl(pipeline.getCategory(), pipeline.getSubCategory(), pipeline.getType(), pipeline.getCity())
+        .concat("&p=").concat(String.valueOf(pageNumber));
+  }
+
+  /**
+   * Проверить, идёт ли сейчас сбор объявлений
+   *
+   * @return результат проверки
+   */
+  public boolean isRunning() {
+    return activeRuns.get() > 0;
   }
 
   /**
-   * Получить список станций метро
+   * Собрать ссылки на объявления со страницы
    *
-   * @param document HTML страница
-   * @return станции метро возле объекта
+   * @param pipeline       сочетание фильтров страницы
+   * @param url            ссылка на страницу
+   * @param maxPublishDate дата последней публикации в базе данных
+   * @return список ссылок на объявления
    */
-  private String getStations(Document document) {
-    List<String> stations = new ArrayList<>();
-    Element stationsArraySpan = document.selectFirst("span.item-address-georeferences");
-    if (Objects.nonNull(stationsArraySpan)) {
-      Elements stationsArrayItems = stationsArraySpan.select("span.item-address-georeferences-item");
-      for (Element stationEl : stationsArrayItems) {
-        stations.add(stationEl.text().trim());
+  public Map<String, LocalDate> getLinks(Pipeline pipeline, String url, LocalDate maxPublishDate) {
+    return getLinks(pipeline, url, maxPublishDate, new PipelineMetrics(), null);
+  }
+
+  /*
+  Собрать ссылки со страницы, если задан cards - заодно разобрать карточки объявлений, пока страница в памяти
+   */
+  private Map<String, LocalDate> getLinks(Pipeline pipeline, String url, LocalDate maxPublishDate,
+                                          PipelineMetrics metrics, Map<String, Advertisement> cards) {
+    Map<String, LocalDate> links = new HashMap<>();
+    memoryBudget.acquire(MemoryStage.DOCUMENTS, 0);
+    long documentSize = 0;
+    ListingFetchEvent event = new ListingFetchEvent();
+    event.begin();
+    try {
+      Document document = firstPages.remove(url);
+      if (Objects.isNull(document)) {
+        document = getDocument(url, metrics);
+        metrics.onPage();
       }
+      documentSize = MemoryBudget.estimate(document);
+      memoryBudget.account(MemoryStage.DOCUMENTS, documentSize);
+      collectLinks(document, maxPublishDate, links, pipeline, cards);
+      event.url = url;
+      event.category = pipeline.getCategory().name();
+      event.bytes = FetchRouter.getLastBodySize();
+      event.links = links.size();
+      event.commit();
+    } finally {
+      memoryBudget.release(MemoryStage.DOCUMENTS, documentSize);
     }
-    return String.valueOf(stations);
+    return links;
+  }
+
+  private void collectLinks(Document document, LocalDate maxPublishDate, Map<String, LocalDate> links,
+                            Pipeline pipeline, Map<String, Advertisement> cards) {
+    if (Objects.nonNull(document)) {
+      Elements divs = document.select("div[data-marker=item]");
+      divs.forEach(div -> {
+        LocalDate advCreateDate = extractDate(div);
+        if (Objects.nonNull(maxPublishDate) && Objects.nonNull(advCreateDate) && advCreateDate.isBefore(maxPublishDate)) {
+          return;
+        }
+        Element urlEl = div.selectFirst("a[itemprop=url]");
+        if (Objects.nonNull(urlEl)) {
+          String href = getLink(urlEl.select("a[href]").attr("href"));
+          links.put(href, advCreateDate);
+          if (Objects.nonNull(cards)) {
+            Advertisement card = advertisementExtractor.extractCard(div, pipeline.getType(), advCreateDate,
+                pipeline.getCity(), pipeline.getCategory());
+            if (Objects.nonNull(card)) {
+              cards.put(href, card);
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /*
+  Ссылка на объявление относительно сайта без контекста выдачи: одно объявление из разных страниц и запусков
+  ставится в очередь, записывается и отмечается как живое по одной и той же ссылке
+   */
+  private static String getLink(String href) {
+    String link = UrlUtils.normalize(href);
+    return link.startsWith(UrlUtils.BASE_URL) ? link.substring(UrlUtils.BASE_URL.length()) : link;
   }
 
   /**
-   * Получить описание объявления
+   * Получить информацию об объявлении со страницы
    *
-   * @param document HTML страница
-   * @return описание объявления
+   * @param url               ссылка на страницу с объявлением
+   * @param advertisementType вид объявления
+   * @param publishDate       дата публикации объявления
+   * @param city              город
+   * @param category          категория объявления
    */
-  private String getDescription(Document document) {
-    String description = "";
-    Element descriptionEl = document.selectFirst("div.item-description");
-    if (Objects.nonNull(descriptionEl)) {
-      description = descriptionEl.text().trim();
+  public void parseAdvertisement(String url, AdvertisementType advertisementType, LocalDate publishDate, City city,
+                                 AdvCategory category) {
+    url = UrlUtils.BASE_URL + url;
+    Document document = getDocument(url, new PipelineMetrics());
+    archive(document, url, advertisementType, publishDate, city, category);
+    Advertisement advertisement = advertisementExtractor.extract(document, url, advertisementType, publishDate, city,
+        category);
+    if (Objects.nonNull(advertisement)) {
+      advertisementService.create(advertisement);
+      log.info("Сохранили объявление: {}", advertisement.getId());
     }
-    return description;
   }
 
   /**
-   * Получить дату создания объявления
+   * Получить информацию об объявлении по задаче на загрузку, совместив её с загрузкой той же страницы другой задачей.
+   * Ключ совмещения - приведённая ссылка и всё, что кроме страницы определяет разобранное объявление,
+   * поэтому задачи пересекающихся выдач (например, торговые площади и остальные категории коммерческой
+   * недвижимости) делят одну загрузку, один разбор и одну запись объявления
    *
-   * @param document HTML страница
-   * @return дата создания объявления
+   * @param task     задача на загрузку
+   * @param progress ход запуска
+   * @param flights  загрузки запуска
+   * @return false, если страница не изменилась с прошлой загрузки
    */
-  private String getDateCreate(Document document) {
-    String dateCreate = "";
-    Element dateCreateEl = document.selectFirst("div.title-info-metadata-item-redesign");
-    if (Objects.nonNull(dateCreateEl)) {
-      dateCreate = dateCreateEl.text().replace("\n", "").trim();
-    }
-    return dateCreate;
+  private boolean parseAdvertisement(FetchTask task, CrawlProgress progress, SingleFlight<Boolean> flights) {
+    Pipeline pipeline = task.getPipeline();
+    String key = UrlUtils.normalize(UrlUtils.BASE_URL + task.getLink()) + "|" + pipeline.getType() + "|" +
+        pipeline.getCity() + "|" + pipeline.getCategory();
+    PipelineMetrics metrics = progress.metrics(pipeline);
+    return flights.execute(key, pipeline, () -> parseAdvertisement(task, progress),
+        owner -> metrics.onSharedHit(!owner.equals(pipeline)));
   }
 
   /**
-   * Добавить информацию об авторе в объявление
+   * Получить информацию об объявлении по задаче на загрузку.
+   * Уже сохранённые объявления загружаются условным запросом и не разбираются, если страница не изменилась.
+   * Объявление, записанное по карточке, после загрузки страницы перезаписывается полностью.
+   * Страница блокировки после всех попыток не разбирается и не архивируется
    *
-   * @param document      HTML страница
-   * @param advertisement объявление
+   * @param task     задача на загрузку
+   * @param progress ход запуска
+   * @return false, если страница не изменилась с прошлой загрузки
    */
-  private void setSellerInfo(Document document, Advertisement advertisement) {
-    Element sellerInfoCol = document.select("div.seller-info-col").first();
-    if (Objects.nonNull(sellerInfoCol)) {
-      int elSize = sellerInfoCol.children().size();
-      String sellerName = sellerInfoCol.child(0).text();
-      String sellerType = sellerInfoCol.child(1).text();
-      if (elSize > 2) {
-        Elements children = sellerInfoCol.child(2).children();
-        if (children.size() > 1) {
-          String sellerAdvComplete = children.get(1).text().replace("\n", "");
-          String sellerOnAvito = children.get(0).text().replace("\n", "");
-          advertisement.setSellerAdvComplete(sellerAdvComplete);
-          advertisement.setSellerOnAvito(sellerOnAvito);
-        }
+  private boolean parseAdvertisement(FetchTask task, CrawlProgress progress) {
+    Pipeline pipeline = task.getPipeline();
+    PipelineMetrics metrics = progress.metrics(pipeline);
+    String url = UrlUtils.BASE_URL + task.getLink();
+    memoryBudget.acquire(MemoryStage.DOCUMENTS, 0);
+    long documentSize = 0;
+    Advertisement advertisement;
+    try {
+      DetailFetchEvent event = new DetailFetchEvent();
+      event.begin();
+      boolean conditional = task.getPriority() != FetchPriority.NEW && task.getPriority() != FetchPriority.ENRICH;
+      Document document = conditional ? getDocumentIfModified(url, metrics) : getDocument(url, metrics);
+      metrics.onDetailFetch(Objects.isNull(document));
+      event.url = url;
+      event.category = pipeline.getCategory().name();
+      event.bytes = FetchRouter.getLastBodySize();
+      event.conditional = conditional;
+      event.notModified = Objects.isNull(document);
+      event.commit();
+      if (Objects.isNull(document)) {
+        return false;
+      }
+      if (fetchRouter.isBlocked(document)) {
+        // попытки исчерпаны на странице блокировки: объявление не трогаем, недозагруженное останется
+        // в очереди дозагрузки следующего запуска
+        log.warn("Страница [{}] так и не стала доступна, пропускаем", url);
+        metrics.onSkipped();
+        return true;
+      }
+      documentSize = MemoryBudget.estimate(document);
+      memoryBudget.account(MemoryStage.DOCUMENTS, documentSize);
+      archive(document, url, pipeline.getType(), task.getPublishDate(), pipeline.getCity(), pipeline.getCategory());
+      advertisement = advertisementExtractor.extract(document, url, pipeline.getType(), task.getPublishDate(),
+          pipeline.getCity(), pipeline.getCategory());
+    } finally {
+      memoryBudget.release(MemoryStage.DOCUMENTS, documentSize);
+    }
+    if (Objects.nonNull(advertisement)) {
+      advertisementWriter.write(advertisement, metrics);
+      if (task.getPriority() == FetchPriority.ENRICH) {
+        metrics.onEnriched();
+      } else {
+        progress.onAdvertisement();
+      }
+      log.info("Собрали объявление: {}", url);
+    } else {
+      if (task.getPriority() == FetchPriority.ENRICH) {
+        // страница не прошла проверку, иначе объявление будет дозагружаться в каждом запуске
+        advertisementService.setEnriched(url);
       }
-      advertisement.setSellerName(sellerName);
-      advertisement.setSellerType(sellerType);
+      metrics.onSkipped();
     }
-    setSellerAdvActual(document, advertisement);
+    return true;
   }
 
-  /**
-   * Добавить информацию о кол-ве актуальных объявлений
-   *
-   * @param document      HTML страница
-   * @param advertisement объявление
+  /*
+  Сохранить загруженную страницу в архив для повторного разбора, если архив включён
    */
-  @SuppressWarnings("unchecked")
-  private void setSellerAdvActual(Document document, Advertisement advertisement) {
-    Elements activeAdvDivs = document.getElementsByClass("seller-info-favorite-seller-buttons");
-    String sellerAdvActual = "";
-    String json = activeAdvDivs.select("[data-props]").attr("data-props");
-    Gson gson = new Gson();
-    Map<String, Object> asMap = gson.fromJson(json, Map.class);
-    if (asMap != null) {
-      sellerAdvActual = (String) asMap.getOrDefault("summary", "");
+  private void archive(Document document, String url, AdvertisementType advertisementType, LocalDate publishDate,
+                       City city, AdvCategory category) {
+    if (Objects.isNull(document) || !pageArchive.isEnabled()) {
+      return;
     }
-    advertisement.setSellerAdvActual(sellerAdvActual);
+    pageArchive.append(PageRecord.builder()
+        .url(url)
+        .fetchedAt(LocalDateTime.now())
+        .advType(advertisementType)
+        .city(city)
+        .category(category)
+        .publishDate(publishDate)
+        .html(document.outerHtml())
+        .build());
   }
 
   /**
-   * Получить кол-во страниц
+   * Получить кол-во страниц. Загруженная первая страница сохраняется для сбора ссылок с неё,
+   * чтобы не загружать её дважды
    *
-   * @param url ссылка на страницу
+   * @param url ссылка на первую страницу
    * @return кол-во страниц
    */
-  private int getTotalPages(String url) {
+  private int getTotalPages(String url, PipelineMetrics metrics) {
     int totalPages;
     try {
-      Document document = getDocument(url);
+      Document document = getDocument(url, metrics);
+      metrics.onPage();
       if (Objects.isNull(document)) {
         return 0;
       }
+      if (!fetchRouter.isBlocked(document)) {
+        firstPages.put(url, document);
+      }
       Element pageCountDiv = document.getElementsByClass("pagination-pages").first();
       if (Objects.nonNull(pageCountDiv)) {
         Element pageCountHref = pageCountDiv.getElementsByClass("pagination-pages").last();
@@ -381,18 +649,71 @@ public class AvitoParseService {
   /**
    * Получить объект страницы HTML
    *
-   * @param url адрес страницы
+   * @param url     адрес страницы
+   * @param metrics показатели сочетания фильтров, к которым относится запрос
    * @return объект страницы HTML
    */
-  private Document getDocument(String url) {
+  private Document getDocument(String url, PipelineMetrics metrics) {
+    int retrieveCount = 5;
+    long start = System.nanoTime();
+    try {
+      Document document = fetchRouter.getDocument(url);
+      while (fetchRouter.isBlocked(document) && retrieveCount > 0) {
+        log.warn("Страница [{}] не доступна, пробуем повторить. Осталось попыток {}", url, retrieveCount);
+        metrics.onBlockPage();
+        metrics.onRetry();
+        BlockRetryEvent event = new BlockRetryEvent();
+        event.begin();
+        document = fetchRouter.getDocument(url);
+        retrieveCount--;
+        commit(event, url, retrieveCount);
+      }
+      // попытки исчерпаны, последний ответ тоже может быть страницей блокировки
+      if (retrieveCount == 0 && fetchRouter.isBlocked(document)) {
+        metrics.onBlockPage();
+      }
+      return document;
+    } finally {
+      metrics.addFetchTime(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Получить объект страницы HTML, если она изменилась с прошлой загрузки
+   *
+   * @param url     адрес страницы
+   * @param metrics показатели сочетания фильтров, к которым относится запрос
+   * @return объект страницы HTML или null, если страница не изменилась
+   */
+  private Document getDocumentIfModified(String url, PipelineMetrics metrics) {
     int retrieveCount = 5;
-    Document document = scraperApiService.getDocument(url);
-    while (document.text().toLowerCase(Locale.ROOT).contains("подозрительная") && retrieveCount > 0) {
-      log.warn("Страница [{}] не доступна, пробуем повторить. Осталось попыток {}", url, retrieveCount);
-      document = scraperApiService.getDocument(url);
-      retrieveCount--;
+    long start = System.nanoTime();
+    try {
+      Document document = fetchRouter.getDocumentIfModified(url);
+      while (Objects.nonNull(document) && fetchRouter.isBlocked(document) && retrieveCount > 0) {
+        log.warn("Страница [{}] не доступна, пробуем повторить. Осталось попыток {}", url, retrieveCount);
+        metrics.onBlockPage();
+        metrics.onRetry();
+        BlockRetryEvent event = new BlockRetryEvent();
+        event.begin();
+        document = fetchRouter.getDocumentIfModified(url);
+        retrieveCount--;
+        commit(event, url, retrieveCount);
+      }
+      if (retrieveCount == 0 && Objects.nonNull(document) && fetchRouter.isBlocked(document)) {
+        metrics.onBlockPage();
+      }
+      return document;
+    } finally {
+      metrics.addFetchTime(System.nanoTime() - start);
     }
-    return document;
+  }
+
+  private static void commit(BlockRetryEvent event, String url, int attemptsLeft) {
+    event.url = url;
+    event.bytes = FetchRouter.getLastBodySize();
+    event.attemptsLeft = attemptsLeft;
+    event.commit();
   }
 
   /**
@@ -554,51 +875,4 @@ public class AvitoParseService {
       return null;
     }
   }
-
-  /**
-   * Проверить адрес, должен содержать в себе Московская область, г Москва/Свердловская обл, г Екатеринбург/Тюменская обл, г Тюмень
-   *
-   * @param address адресс для проверки
-   * @param city    город для получения регулярного выражения
-   * @return результат проверки
-   */
-  private boolean checkAddress(String address, City city) {
-    if (address == null) {
-      return true;
-    }
-    if (checkArea(address, city)) {
-      return true;
-    }
-    return checkCity(address, city);
-  }
-
-  /**
-   * Проверить область по шаблону
-   *
-   * @param address адрес
-   * @param city    город
-   * @return результат
-   */
-  private boolean checkArea(String address, City city) {
-    Pattern pattern = Pattern.compile(city.getPattern());
-    Matcher matcher = pattern.matcher(address.toLowerCase());
-    return matcher.find();
-  }
-
-  /**
-   * Проверить город по шаблону
-   *
-   * @param address адрес
-   * @param city    город
-   * @return результат
-   */
-  private boolean checkCity(String address, City city) {
-    String cityName = city.getDescription().toLowerCase();
-    String template = "(%s)";
-    String cityPattern = String.format(template, cityName);
-    Pattern pattern = Pattern.compile(cityPattern);
-    Matcher matcher = pattern.matcher(address.toLowerCase());
-    return matcher.find();
-  }
-
 }
@@ -0,0 +1,116 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import com.ddkolesnik.siteparser.utils.SubCategory;
+import java.util.List;
+import java.util.Objects;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Однократный сбор объявлений из командной строки для запуска внешним планировщиком:
+ * {@code java -jar site-parser.jar batch --city=TYUMEN --category=STEAD --type=SALE --mode=full}.
+ * Без категории, подкатегории или вида собираются все подходящие сочетания фильтров города,
+ * режим по умолчанию - incremental (только объявления новее последней даты публикации в базе данных)
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Component
+@Profile(BatchRunner.PROFILE)
+@RequiredArgsConstructor
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class BatchRunner {
+
+  public static final String PROFILE = "batch";
+
+  public static final String COMMAND = "batch";
+
+  public static final int EXIT_OK = 0;
+
+  public static final int EXIT_FAILED = 1;
+
+  public static final int EXIT_USAGE = 2;
+
+  CrawlJobService crawlJobService;
+
+  /**
+   * Собрать объявления по аргументам командной строки
+   *
+   * @param args аргументы командной строки
+   * @return код завершения процесса
+   */
+  public int run(ApplicationArguments args) {
+    List<Pipeline> pipelines;
+    boolean full;
+    try {
+      pipelines = getPipelines(args);
+      full = isFull(args);
+    } catch (IllegalArgumentException e) {
+      log.error("Неверные аргументы: {}. Допустимы --city, --category, --sub-category, --type, " +
+          "--mode=full|incremental", e.getLocalizedMessage());
+      return EXIT_USAGE;
+    }
+    try {
+      CrawlJob job = crawlJobService.start(pipelines, full, CrawlJob.Trigger.BATCH);
+      job.await();
+      return job.getState() == CrawlJob.State.DONE ? EXIT_OK : EXIT_FAILED;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return EXIT_FAILED;
+    } catch (RuntimeException e) {
+      log.error("Сбор объявлений завершился ошибкой", e);
+      return EXIT_FAILED;
+    }
+  }
+
+  private static List<Pipeline> getPipelines(ApplicationArguments args) {
+    City city = getOption(args, "city", City.class);
+    AdvCategory category = getOption(args, "category", AdvCategory.class);
+    SubCategory subCategory = getOption(args, "sub-category", SubCategory.class);
+    AdvertisementType type = getOption(args, "type", AdvertisementType.class);
+    List<Pipeline> pipelines = Pipeline.select(Objects.isNull(city) ? City.TYUMEN : city, category, subCategory, type);
+    if (pipelines.isEmpty()) {
+      throw new IllegalArgumentException("нет сочетаний фильтров для выбранных значений");
+    }
+    return pipelines;
+  }
+
+  private static boolean isFull(ApplicationArguments args) {
+    String mode = getOption(args, "mode");
+    if (Objects.isNull(mode) || "incremental".equalsIgnoreCase(mode)) {
+      return false;
+    }
+    if ("full".equalsIgnoreCase(mode)) {
+      return true;
+    }
+    throw new IllegalArgumentException("неизвестный режим " + mode);
+  }
+
+  private static <E extends Enum<E>> E getOption(ApplicationArguments args, String name, Class<E> type) {
+    String value = getOption(args, name);
+    if (Objects.isNull(value)) {
+      return null;
+    }
+    try {
+      return Enum.valueOf(type, value.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("неизвестное значение --" + name + "=" + value);
+    }
+  }
+
+  private static String getOption(ApplicationArguments args, String name) {
+    List<String> values = args.getOptionValues(name);
+    return Objects.isNull(values) || values.isEmpty() ? null : values.get(values.size() - 1);
+  }
+
+}
@@ -0,0 +1,101 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.repository.CheckpointRepository;
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Сохранение и возобновление задач на загрузку и сбора ссылок по страницам списка, не выполненных
+ * к остановке приложения
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class CheckpointService {
+
+  CheckpointRepository checkpointRepository;
+
+  /**
+   * Сохранить невыполненные задачи
+   *
+   * @param tasks задачи на загрузку
+   */
+  @Transactional
+  public void save(Collection<FetchTask> tasks) {
+    checkpointRepository.saveAll(tasks);
+    if (!tasks.isEmpty()) {
+      log.info("Сохранили невыполненные задачи на загрузку [{} шт]", tasks.size());
+    }
+  }
+
+  /**
+   * Забрать сохранённые задачи сочетания фильтров, после этого они удаляются
+   *
+   * @param pipeline сочетание фильтров
+   * @return задачи на загрузку
+   */
+  @Transactional
+  public List<FetchTask> take(Pipeline pipeline) {
+    List<FetchTask> tasks = checkpointRepository.findByPipeline(pipeline);
+    if (!tasks.isEmpty()) {
+      checkpointRepository.deleteByPipeline(pipeline);
+      log.info("Возобновляем задачи на загрузку {} [{} шт]", pipeline, tasks.size());
+    }
+    return tasks;
+  }
+
+  /**
+   * Сохранить страницу списка, с которой следующий запуск продолжит сбор ссылок
+   *
+   * @param pipeline сочетание фильтров
+   * @param cursor   позиция сбора ссылок
+   */
+  @Transactional
+  public void savePageCursor(Pipeline pipeline, PageCursor cursor) {
+    checkpointRepository.savePageCursor(pipeline, cursor);
+    log.info("Сохранили позицию сбора ссылок {}: страница [{}] из [{}]", pipeline, cursor.getNextPage(),
+        Objects.isNull(cursor.getLastPage()) ? "?" : cursor.getLastPage());
+  }
+
+  /**
+   * Сохранить начальную позицию сбора ссылок сочетания фильтров, сбор по которым не начинался,
+   * если позиция прошлой остановки ещё не забрана
+   *
+   * @param pipeline сочетание фильтров
+   */
+  @Transactional
+  public void savePageCursorIfAbsent(Pipeline pipeline) {
+    if (Objects.isNull(checkpointRepository.findPageCursor(pipeline))) {
+      savePageCursor(pipeline, new PageCursor(1, null));
+    }
+  }
+
+  /**
+   * Забрать позицию сбора ссылок сочетания фильтров, после этого она удаляется
+   *
+   * @param pipeline сочетание фильтров
+   * @return позиция или null, если не сохранялась
+   */
+  @Transactional
+  public PageCursor takePageCursor(Pipeline pipeline) {
+    PageCursor cursor = checkpointRepository.findPageCursor(pipeline);
+    if (Objects.nonNull(cursor)) {
+      checkpointRepository.deletePageCursor(pipeline);
+      log.info("Продолжаем сбор ссылок {} со страницы [{}]", pipeline, cursor.getNextPage());
+    }
+    return cursor;
+  }
+
+}
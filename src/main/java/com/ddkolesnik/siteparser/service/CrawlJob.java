@@ -0,0 +1,158 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+/**
+ * Задание на сбор объявлений по нескольким сочетаниям фильтров
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Getter
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class CrawlJob {
+
+  public enum State {
+    QUEUED, RUNNING, DONE, CANCELLED, FAILED
+  }
+
+  public enum Trigger {
+    MANUAL, SCHEDULED, BATCH
+  }
+
+  long id;
+
+  List<Pipeline> pipelines;
+
+  boolean full;
+
+  Trigger trigger;
+
+  LocalDateTime createdAt = LocalDateTime.now();
+
+  CrawlProgress progress = new CrawlProgress();
+
+  AtomicInteger coalesced = new AtomicInteger();
+
+  CountDownLatch done = new CountDownLatch(1);
+
+  @NonFinal
+  volatile State state = State.QUEUED;
+
+  @NonFinal
+  volatile LocalDateTime startedAt;
+
+  @NonFinal
+  volatile LocalDateTime finishedAt;
+
+  @NonFinal
+  volatile String error;
+
+  @NonFinal
+  volatile Long runId;
+
+  CrawlJob(long id, List<Pipeline> pipelines, boolean full, Trigger trigger) {
+    this.id = id;
+    this.pipelines = pipelines;
+    this.full = full;
+    this.trigger = trigger;
+  }
+
+  public boolean isActive() {
+    return state == State.QUEUED || state == State.RUNNING;
+  }
+
+  /**
+   * Проверить, совпадает ли задание с запрошенным: те же сочетания фильтров и тот же режим
+   *
+   * @param pipelines сочетания фильтров
+   * @param full      полный обход
+   * @return результат проверки
+   */
+  boolean isSame(List<Pipeline> pipelines, boolean full) {
+    return this.full == full && new HashSet<>(this.pipelines).equals(new HashSet<>(pipelines));
+  }
+
+  /**
+   * Проверить, собирает ли задание хотя бы одно из сочетаний фильтров
+   *
+   * @param pipelines сочетания фильтров
+   * @return результат проверки
+   */
+  boolean overlaps(List<Pipeline> pipelines) {
+    Set<Pipeline> own = new HashSet<>(this.pipelines);
+    return pipelines.stream().anyMatch(own::contains);
+  }
+
+  void setRunId(Long runId) {
+    this.runId = runId;
+  }
+
+  void onStart() {
+    startedAt = LocalDateTime.now();
+    state = State.RUNNING;
+  }
+
+  void onFinish(State state, String error) {
+    this.error = error;
+    this.finishedAt = LocalDateTime.now();
+    this.state = state;
+    done.countDown();
+  }
+
+  /**
+   * Дождаться завершения задания
+   */
+  public void await() throws InterruptedException {
+    done.await();
+  }
+
+  /**
+   * Дождаться завершения задания не дольше заданного времени
+   *
+   * @param timeout время ожидания
+   * @param unit    единица времени
+   * @return true, если задание завершилось
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return done.await(timeout, unit);
+  }
+
+  /**
+   * Получить состояние и ход задания
+   *
+   * @return показатели задания
+   */
+  public Map<String, Object> getStatus() {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("id", id);
+    status.put("runId", runId);
+    status.put("state", state);
+    status.put("trigger", trigger);
+    status.put("mode", full ? "full" : "incremental");
+    status.put("pipelines", pipelines.stream().map(Pipeline::toString).collect(Collectors.toList()));
+    status.put("createdAt", createdAt);
+    status.put("startedAt", startedAt);
+    status.put("finishedAt", finishedAt);
+    status.put("cancelRequested", progress.isCancelled());
+    status.put("coalesced", coalesced.get());
+    status.putAll(progress.getSnapshot());
+    status.put("error", error);
+    return status;
+  }
+
+}
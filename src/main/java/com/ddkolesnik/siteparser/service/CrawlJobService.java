@@ -0,0 +1,268 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Запуск и учёт заданий на сбор объявлений. Через него идут ручные, плановые и однократные запуски,
+ * поэтому одно сочетание фильтров не собирается двумя заданиями одновременно:
+ * повторный запуск того же задания присоединяется к уже идущему, пересекающийся - отклоняется
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class CrawlJobService {
+
+  AvitoParseService avitoParseService;
+
+  AdvertisementService advertisementService;
+
+  AdvertisementWriter advertisementWriter;
+
+  CrawlRunService crawlRunService;
+
+  int history;
+
+  long drainTimeout;
+
+  AtomicLong sequence = new AtomicLong();
+
+  Map<Long, CrawlJob> jobs = new LinkedHashMap<>();
+
+  ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "crawl-job");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  Object drainLock = new Object();
+
+  @NonFinal
+  volatile boolean draining;
+
+  @NonFinal
+  Map<String, Object> drainReport;
+
+  public CrawlJobService(AvitoParseService avitoParseService,
+                         AdvertisementService advertisementService,
+                         AdvertisementWriter advertisementWriter,
+                         CrawlRunService crawlRunService,
+                         @Value("${jobs.history:50}") int history,
+                         @Value("${jobs.drain-timeout:60000}") long drainTimeout) {
+    this.avitoParseService = avitoParseService;
+    this.advertisementService = advertisementService;
+    this.advertisementWriter = advertisementWriter;
+    this.crawlRunService = crawlRunService;
+    this.history = history;
+    this.drainTimeout = drainTimeout;
+  }
+
+  /**
+   * Запустить задание. Если такое же задание уже идёт, возвращает его
+   *
+   * @param pipelines сочетания фильтров
+   * @param full      полный обход всех страниц, иначе только объявления новее последней даты публикации
+   * @param trigger   источник запуска
+   * @return задание
+   */
+  public synchronized CrawlJob start(List<Pipeline> pipelines, boolean full, CrawlJob.Trigger trigger) {
+    if (draining) {
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Приложение останавливается");
+    }
+    for (CrawlJob job : jobs.values()) {
+      if (!job.isActive()) {
+        continue;
+      }
+      if (job.isSame(pipelines, full)) {
+        job.getCoalesced().incrementAndGet();
+        log.info("Задание [{}] уже выполняется, запуск [{}] присоединён к нему", job.getId(), trigger);
+        return job;
+      }
+      if (job.overlaps(pipelines)) {
+        throw new ResponseStatusException(HttpStatus.CONFLICT,
+            String.format("Сочетания фильтров уже собираются заданием [%d]", job.getId()));
+      }
+    }
+    CrawlJob job = new CrawlJob(sequence.incrementAndGet(), new ArrayList<>(pipelines), full, trigger);
+    jobs.put(job.getId(), job);
+    trimHistory();
+    executor.execute(() -> run(job));
+    log.info("Поставлено задание [{}] [{}] по {}", job.getId(), trigger, pipelines);
+    return job;
+  }
+
+  /**
+   * Получить задание
+   *
+   * @param id id задания
+   * @return задание
+   */
+  public synchronized CrawlJob get(long id) {
+    return Optional.ofNullable(jobs.get(id)).orElseThrow(() ->
+        new ResponseStatusException(HttpStatus.NOT_FOUND, String.format("Задание [%d] не найдено", id)));
+  }
+
+  /**
+   * Получить последние задания, новые первыми
+   *
+   * @return задания
+   */
+  public synchronized List<CrawlJob> getJobs() {
+    List<CrawlJob> result = new ArrayList<>(jobs.values());
+    Collections.reverse(result);
+    return result;
+  }
+
+  /**
+   * Отменить задание. Уже загруженные объявления записываются, оставшиеся задачи пропускаются
+   *
+   * @param id id задания
+   * @return задание
+   */
+  public CrawlJob cancel(long id) {
+    CrawlJob job = get(id);
+    if (job.isActive()) {
+      job.getProgress().cancel();
+      log.info("Запрошена отмена задания [{}]", id);
+    }
+    return job;
+  }
+
+  /**
+   * Проверить, идёт ли хотя бы одно задание
+   *
+   * @return результат проверки
+   */
+  public synchronized boolean isRunning() {
+    return jobs.values().stream().anyMatch(CrawlJob::isActive);
+  }
+
+  /**
+   * Подготовить приложение к остановке: новые задания не принимаются, идущие перестают брать новые страницы,
+   * уже начатые загрузки дорабатывают не дольше заданного времени, накопленные объявления записываются,
+   * а невыполненные задачи сохраняются для следующего запуска. Повторный вызов возвращает тот же отчёт
+   *
+   * @param timeout время ожидания начатых загрузок, мс
+   * @return отчёт об остановке
+   */
+  public Map<String, Object> drain(long timeout) {
+    synchronized (drainLock) {
+      if (Objects.isNull(drainReport)) {
+        drainReport = doDrain(timeout);
+      }
+      return drainReport;
+    }
+  }
+
+  private Map<String, Object> doDrain(long timeout) {
+    List<CrawlJob> active;
+    synchronized (this) {
+      draining = true;
+      active = jobs.values().stream().filter(CrawlJob::isActive).collect(Collectors.toList());
+    }
+    long start = System.nanoTime();
+    log.info("Останавливаем задания [{} шт], ожидание не дольше {} мс", active.size(), timeout);
+    int fetchedBefore = active.stream().mapToInt(job -> job.getProgress().getFetched()).sum();
+    active.forEach(job -> job.getProgress().drain());
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+    int unfinished = 0;
+    for (CrawlJob job : active) {
+      try {
+        if (!job.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+          unfinished++;
+          log.warn("Задание [{}] не завершилось за отведённое время", job.getId());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        unfinished++;
+      }
+    }
+    advertisementWriter.flush();
+    executor.shutdown();
+    int dropped = active.stream().mapToInt(job -> job.getProgress().getDropped()).sum();
+    int checkpointed = active.stream().mapToInt(job -> job.getProgress().getCheckpointed()).sum();
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("drainMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    report.put("jobs", active.size());
+    report.put("unfinished", unfinished);
+    report.put("inFlightCompleted",
+        active.stream().mapToInt(job -> job.getProgress().getFetched()).sum() - fetchedBefore);
+    report.put("dropped", dropped);
+    report.put("checkpointed", checkpointed);
+    report.put("lost", dropped - checkpointed);
+    log.info("Задания остановлены за {} мс: не завершилось [{} шт], отложено задач [{} шт], сохранено [{} шт]",
+        report.get("drainMillis"), unfinished, dropped, checkpointed);
+    return report;
+  }
+
+  /*
+  Остановка без вызова /shutdown, например по сигналу: те же шаги с временем ожидания по умолчанию
+   */
+  @PreDestroy
+  public void shutdown() {
+    drain(drainTimeout);
+  }
+
+  private void run(CrawlJob job) {
+    Thread.currentThread().setName("crawl-job-" + job.getId());
+    job.onStart();
+    crawlRunService.onStart(job);
+    CrawlJob.State state;
+    String error = null;
+    try {
+      if (job.getProgress().isCancelled()) {
+        state = CrawlJob.State.CANCELLED;
+      } else {
+        LocalDate maxPublishDate = job.isFull() ? null : advertisementService.getMaxPublishDate();
+        log.info("Начинаем задание [{}]: {} сбор объявлений старше {}", job.getId(),
+            job.isFull() ? "ПОЛНЫЙ" : "ИНКРЕМЕНТАЛЬНЫЙ", maxPublishDate);
+        int count = avitoParseService.parse(job.getPipelines(), maxPublishDate, job.getProgress());
+        log.info("Задание [{}] завершено, собрано ссылок [{} шт], записано объявлений [{} шт]", job.getId(), count,
+            job.getProgress().getSnapshot().get("ads"));
+        state = job.getProgress().isCancelled() ? CrawlJob.State.CANCELLED : CrawlJob.State.DONE;
+      }
+    } catch (RuntimeException e) {
+      log.error("Задание [{}] завершилось ошибкой", job.getId(), e);
+      state = CrawlJob.State.FAILED;
+      error = Objects.toString(e.getLocalizedMessage(), e.getClass().getName());
+    }
+    // история пишется до завершения задания: ожидающие задание видят запуск уже записанным
+    crawlRunService.onFinish(job, state, error);
+    job.onFinish(state, error);
+  }
+
+  private void trimHistory() {
+    Iterator<CrawlJob> iterator = jobs.values().iterator();
+    while (jobs.size() > history && iterator.hasNext()) {
+      if (!iterator.next().isActive()) {
+        iterator.remove();
+      }
+    }
+  }
+
+}
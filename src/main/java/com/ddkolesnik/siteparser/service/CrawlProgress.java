@@ -0,0 +1,161 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+/**
+ * Ход одного запуска сбора объявлений. Обновляется потоками сбора ссылок и загрузки,
+ * флаг отмены проверяется между страницами и задачами, поэтому запуск останавливается без потери уже собранного
+ *
+ * @author Alexandr Stegnin
+ */
+
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class CrawlProgress {
+
+  long startTime = System.nanoTime();
+
+  AtomicInteger pages = new AtomicInteger();
+
+  AtomicInteger links = new AtomicInteger();
+
+  AtomicInteger fetched = new AtomicInteger();
+
+  AtomicInteger unchanged = new AtomicInteger();
+
+  AtomicInteger ads = new AtomicInteger();
+
+  AtomicInteger skipped = new AtomicInteger();
+
+  AtomicInteger errors = new AtomicInteger();
+
+  AtomicInteger dropped = new AtomicInteger();
+
+  AtomicInteger checkpointed = new AtomicInteger();
+
+  Map<Pipeline, PipelineMetrics> metrics = new ConcurrentHashMap<>();
+
+  @NonFinal
+  volatile boolean cancelled;
+
+  @NonFinal
+  volatile boolean draining;
+
+  public void onPage() {
+    pages.incrementAndGet();
+  }
+
+  public void onLink() {
+    links.incrementAndGet();
+  }
+
+  public void onFetched(boolean changed) {
+    fetched.incrementAndGet();
+    if (!changed) {
+      unchanged.incrementAndGet();
+    }
+  }
+
+  public void onAdvertisement() {
+    ads.incrementAndGet();
+  }
+
+  public void onSkipped() {
+    skipped.incrementAndGet();
+  }
+
+  public void onError() {
+    errors.incrementAndGet();
+  }
+
+  public void onDropped() {
+    dropped.incrementAndGet();
+  }
+
+  public void onCheckpointed(int count) {
+    checkpointed.addAndGet(count);
+  }
+
+  /**
+   * Получить показатели сочетания фильтров в этом запуске
+   *
+   * @param pipeline сочетание фильтров
+   * @return показатели, создаются при первом обращении
+   */
+  public PipelineMetrics metrics(Pipeline pipeline) {
+    return metrics.computeIfAbsent(pipeline, key -> new PipelineMetrics());
+  }
+
+  public Map<Pipeline, PipelineMetrics> getMetrics() {
+    return metrics;
+  }
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Остановить запуск перед остановкой приложения: как отмена, но пропущенные задачи сохраняются для возобновления
+   */
+  public void drain() {
+    draining = true;
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public boolean isDraining() {
+    return draining;
+  }
+
+  public int getFetched() {
+    return fetched.get();
+  }
+
+  public int getAds() {
+    return ads.get();
+  }
+
+  public int getDropped() {
+    return dropped.get();
+  }
+
+  public int getCheckpointed() {
+    return checkpointed.get();
+  }
+
+  /**
+   * Получить показатели запуска
+   *
+   * @return показатели по названию
+   */
+  public Map<String, Object> getSnapshot() {
+    double minutes = (System.nanoTime() - startTime) / 60_000_000_000d;
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("pages", pages.get());
+    snapshot.put("links", links.get());
+    snapshot.put("fetched", fetched.get());
+    snapshot.put("unchanged", unchanged.get());
+    snapshot.put("ads", ads.get());
+    snapshot.put("skipped", skipped.get());
+    snapshot.put("errors", errors.get());
+    snapshot.put("dropped", dropped.get());
+    snapshot.put("checkpointed", checkpointed.get());
+    snapshot.put("sharedHits", metrics.values().stream().mapToInt(PipelineMetrics::getSharedHits).sum());
+    snapshot.put("crossPipelineHits",
+        metrics.values().stream().mapToInt(PipelineMetrics::getCrossPipelineHits).sum());
+    snapshot.put("cards", metrics.values().stream().mapToInt(PipelineMetrics::getCards).sum());
+    snapshot.put("enriched", metrics.values().stream().mapToInt(PipelineMetrics::getEnriched).sum());
+    snapshot.put("adsPerMinute", minutes > 0 ? Math.round(ads.get() / minutes * 10) / 10d : 0);
+    return snapshot;
+  }
+
+}
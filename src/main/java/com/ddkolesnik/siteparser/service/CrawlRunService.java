@@ -0,0 +1,223 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.repository.CrawlRunRepository;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * История запусков сбора объявлений. Запуск записывается при начале задания, показатели сочетаний фильтров -
+ * по его окончании. Отчёт сравнивает запуск со средним по предыдущим завершённым запускам того же режима,
+ * рост длительности, времени запросов, повторов и блокировок сверх порога отмечается как ухудшение
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class CrawlRunService {
+
+  // показатели, рост которых означает ухудшение
+  static List<String> LOWER_IS_BETTER = Arrays.asList("durationMillis", "fetchMillisPerRequest", "dbMillisPerAd",
+      "retries", "blockPages", "blockRate", "errors");
+
+  CrawlRunRepository crawlRunRepository;
+
+  int trailingRuns;
+
+  double regressionPercent;
+
+  public CrawlRunService(CrawlRunRepository crawlRunRepository,
+                         @Value("${runs.trailing:5}") int trailingRuns,
+                         @Value("${runs.regression-percent:25}") double regressionPercent) {
+    this.crawlRunRepository = crawlRunRepository;
+    this.trailingRuns = trailingRuns;
+    this.regressionPercent = regressionPercent;
+  }
+
+  /**
+   * Записать начало задания. Ошибка записи истории не должна прерывать сбор, поэтому только логируется
+   *
+   * @param job задание
+   */
+  public void onStart(CrawlJob job) {
+    try {
+      job.setRunId(crawlRunRepository.insert(job.getId(), job.getTrigger().name(), getMode(job),
+          job.getStartedAt()));
+    } catch (RuntimeException e) {
+      log.error("Не удалось записать начало задания [{}] в историю. Ошибка: {}", job.getId(), e.getLocalizedMessage());
+    }
+  }
+
+  /**
+   * Записать окончание задания и показатели его сочетаний фильтров, сравнить со средним по предыдущим запускам
+   *
+   * @param job   задание
+   * @param state итоговое состояние
+   * @param error текст ошибки
+   */
+  public void onFinish(CrawlJob job, CrawlJob.State state, String error) {
+    Long runId = job.getRunId();
+    if (Objects.isNull(runId)) {
+      return;
+    }
+    try {
+      LocalDateTime finishedAt = LocalDateTime.now();
+      crawlRunRepository.savePipelines(runId, job.getProgress().getMetrics());
+      crawlRunRepository.finish(runId, state.name(), finishedAt,
+          Duration.between(job.getStartedAt(), finishedAt).toMillis(), error);
+      if (state == CrawlJob.State.DONE) {
+        Map<String, Object> report = getReport(runId, trailingRuns);
+        if (!((List<?>) report.get("regressions")).isEmpty()) {
+          log.warn("Запуск [{}] хуже среднего по предыдущим запускам: {}", runId, report.get("regressions"));
+        }
+      }
+    } catch (RuntimeException e) {
+      log.error("Не удалось записать окончание задания [{}] в историю. Ошибка: {}", job.getId(),
+          e.getLocalizedMessage());
+    }
+  }
+
+  /**
+   * Получить последние запуски с суммой показателей
+   *
+   * @param limit кол-во запусков
+   * @return запуски, начиная с последнего
+   */
+  public List<Map<String, Object>> getRuns(int limit) {
+    return crawlRunRepository.findRuns(limit);
+  }
+
+  /**
+   * Сравнить запуск со средним по предыдущим завершённым запускам того же режима,
+   * в целом и по каждому сочетанию фильтров
+   *
+   * @param runId    номер запуска
+   * @param trailing кол-во предыдущих запусков
+   * @return запуск, среднее, сравнение, ухудшения и то же по сочетаниям фильтров
+   */
+  public Map<String, Object> getReport(long runId, int trailing) {
+    Map<String, Object> run = crawlRunRepository.findRun(runId)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Запуск не найден"));
+    String mode = (String) run.get("mode");
+    Map<String, Object> average = crawlRunRepository.findTrailingAverage(runId, mode, trailing);
+    Map<String, Map<String, Object>> comparison = compare(run, average);
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("run", withRates(run));
+    report.put("trailing", withRates(rounded(average)));
+    report.put("comparison", comparison);
+    report.put("regressions", getRegressions(comparison));
+    Map<String, Map<String, Object>> averageByPipeline = new HashMap<>();
+    crawlRunRepository.findTrailingPipelines(runId, mode, trailing)
+        .forEach(row -> averageByPipeline.put(getPipelineKey(row), row));
+    List<Map<String, Object>> pipelines = new ArrayList<>();
+    for (Map<String, Object> row : crawlRunRepository.findPipelines(runId)) {
+      Map<String, Object> pipelineAverage = averageByPipeline.getOrDefault(getPipelineKey(row),
+          Collections.emptyMap());
+      Map<String, Map<String, Object>> pipelineComparison = compare(row, pipelineAverage);
+      Map<String, Object> pipeline = new LinkedHashMap<>(withRates(row));
+      pipeline.put("trailingRuns", pipelineAverage.getOrDefault("runs", 0));
+      pipeline.put("comparison", pipelineComparison);
+      pipeline.put("regressions", getRegressions(pipelineComparison));
+      pipelines.add(pipeline);
+    }
+    report.put("pipelines", pipelines);
+    return report;
+  }
+
+  private static String getMode(CrawlJob job) {
+    return job.isFull() ? "full" : "incremental";
+  }
+
+  private static String getPipelineKey(Map<String, Object> row) {
+    return row.get("city") + "/" + row.get("category") + "/" + row.get("subCategory") + "/" + row.get("type");
+  }
+
+  /*
+  Сравнить показатели с их средним: значение, среднее и изменение в процентах.
+  Без предыдущих запусков или при нулевом среднем изменение не считается
+   */
+  private static Map<String, Map<String, Object>> compare(Map<String, Object> current, Map<String, Object> average) {
+    Map<String, Object> currentRates = withRates(current);
+    Map<String, Object> averageRates = withRates(average);
+    Map<String, Map<String, Object>> comparison = new LinkedHashMap<>();
+    currentRates.forEach((key, value) -> {
+      if (!(value instanceof Number) || "id".equals(key) || "jobId".equals(key)) {
+        return;
+      }
+      Double averageValue = toDouble(averageRates.get(key));
+      Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("value", round(toDouble(value)));
+      entry.put("average", Objects.isNull(averageValue) ? null : round(averageValue));
+      entry.put("changePercent", Objects.isNull(averageValue) || averageValue == 0 ? null
+          : round((toDouble(value) - averageValue) / averageValue * 100));
+      comparison.put(key, entry);
+    });
+    return comparison;
+  }
+
+  private List<String> getRegressions(Map<String, Map<String, Object>> comparison) {
+    List<String> regressions = new ArrayList<>();
+    for (String key : LOWER_IS_BETTER) {
+      Map<String, Object> entry = comparison.get(key);
+      if (Objects.nonNull(entry) && Objects.nonNull(entry.get("changePercent"))
+          && (Double) entry.get("changePercent") > regressionPercent) {
+        regressions.add(key);
+      }
+    }
+    return regressions;
+  }
+
+  /*
+  Добавить относительные показатели: время одного запроса, время записи одного объявления,
+  доля страниц без изменений и доля страниц блокировки
+   */
+  private static Map<String, Object> withRates(Map<String, Object> row) {
+    if (row.isEmpty() || Objects.isNull(row.get("pages"))) {
+      return row;
+    }
+    Map<String, Object> result = new LinkedHashMap<>(row);
+    double requests = toDouble(row.get("pages")) + toDouble(row.get("detailFetches")) + toDouble(row.get("retries"));
+    double written = toDouble(row.get("inserted")) + toDouble(row.get("updated"));
+    double details = toDouble(row.get("detailFetches"));
+    result.put("fetchMillisPerRequest", requests > 0 ? round(toDouble(row.get("fetchMillis")) / requests) : null);
+    result.put("dbMillisPerAd", written > 0 ? round(toDouble(row.get("dbMillis")) / written) : null);
+    result.put("cacheHitRate", details > 0 ? round(toDouble(row.get("cacheHits")) / details) : null);
+    result.put("blockRate", requests > 0 ? round(toDouble(row.get("blockPages")) / requests) : null);
+    return result;
+  }
+
+  /*
+  Средние из базы данных приходят как BigDecimal с длинной дробной частью
+   */
+  private static Map<String, Object> rounded(Map<String, Object> row) {
+    Map<String, Object> result = new LinkedHashMap<>();
+    row.forEach((key, value) -> result.put(key, value instanceof Number && !"runs".equals(key)
+        ? round(toDouble(value)) : value));
+    return result;
+  }
+
+  private static Double toDouble(Object value) {
+    return value instanceof Number ? ((Number) value).doubleValue() : null;
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 100) / 100d;
+  }
+
+}
@@ -0,0 +1,186 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.model.PageValidator;
+import com.ddkolesnik.siteparser.utils.UrlUtils;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import javax.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.nodes.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+/**
+ * Прямая загрузка страниц с сайта клиентом HtmlUnit, без платного посредника.
+ * Клиенты не потокобезопасны, поэтому держатся в пуле: поток загрузки берёт свободный клиент на время запроса,
+ * клиенты создаются по мере надобности, но не больше размера пула. Страница не строится клиентом,
+ * тело ответа разбирается тем же разбором, что и ответы ScraperAPI
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class DirectFetchService implements FetchBackend {
+
+  ObjectProvider<WebClient> webClientProvider;
+
+  BlockingQueue<WebClient> idle = new LinkedBlockingQueue<>();
+
+  Semaphore permits;
+
+  boolean enabled;
+
+  double cost;
+
+  int timeout;
+
+  String baseUrl;
+
+  public DirectFetchService(ObjectProvider<WebClient> webClientProvider,
+                            @Value("${fetch.direct.enabled:true}") boolean enabled,
+                            @Value("${fetch.direct.cost:0.1}") double cost,
+                            @Value("${fetch.direct.pool-size:4}") int poolSize,
+                            @Value("${fetch.direct.timeout:30000}") int timeout,
+                            @Value("${fetch.direct.base-url:}") String baseUrl) {
+    this.webClientProvider = webClientProvider;
+    this.enabled = enabled;
+    this.cost = cost;
+    this.permits = new Semaphore(poolSize);
+    this.timeout = timeout;
+    this.baseUrl = baseUrl;
+  }
+
+  @Override
+  public String getName() {
+    return "direct";
+  }
+
+  @Override
+  public double getCost() {
+    return cost;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Загрузить страницу свободным клиентом пула, при необходимости ждёт освобождения клиента
+   *
+   * @param url       адрес страницы
+   * @param validator сохранённые признаки прошлой загрузки, null - обычный запрос
+   * @return ответ
+   */
+  @Override
+  public FetchResponse fetch(String url, PageValidator validator) {
+    WebClient client = borrow();
+    WebResponse response = null;
+    try {
+      WebRequest request = new WebRequest(new URL(rewrite(url)));
+      request.setAdditionalHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+      MessageDigest digest = null;
+      if (Objects.nonNull(validator)) {
+        if (Objects.nonNull(validator.getEtag())) {
+          request.setAdditionalHeader(HttpHeaders.IF_NONE_MATCH, validator.getEtag());
+        }
+        if (Objects.nonNull(validator.getLastModified())) {
+          request.setAdditionalHeader(HttpHeaders.IF_MODIFIED_SINCE, validator.getLastModified());
+        }
+        digest = PageParser.md5();
+      }
+      response = client.loadWebResponse(request);
+      Document document = null;
+      if (!FetchResponse.isSuccessful(response.getStatusCode())) {
+        // тело ответа с ошибкой разбирается только для проверки на блокировку
+        digest = null;
+      }
+      if (response.getStatusCode() != HttpStatus.NOT_MODIFIED.value()) {
+        Charset charset = response.getContentCharsetOrNull();
+        try (InputStream body = response.getContentAsStream()) {
+          document = PageParser.parse(body, Objects.isNull(charset) ? null : charset.name(), url, digest);
+        }
+      }
+      return FetchResponse.builder()
+          .backend(getName())
+          .status(response.getStatusCode())
+          .document(document)
+          .etag(getHeader(response, HttpHeaders.ETAG))
+          .lastModified(getHeader(response, HttpHeaders.LAST_MODIFIED))
+          .bodyHash(Objects.isNull(digest) || Objects.isNull(document) ? null : PageParser.toHex(digest))
+          .build();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      if (Objects.nonNull(response)) {
+        response.cleanUp();
+      }
+      release(client);
+    }
+  }
+
+  /**
+   * Закрыть клиенты пула
+   */
+  @PreDestroy
+  public void close() {
+    WebClient client;
+    while ((client = idle.poll()) != null) {
+      client.close();
+    }
+  }
+
+  private WebClient borrow() {
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Ожидание клиента прямой загрузки прервано", e);
+    }
+    WebClient client = idle.poll();
+    if (Objects.isNull(client)) {
+      client = webClientProvider.getObject();
+      client.getOptions().setTimeout(timeout);
+      client.getCache().setMaxSize(0);
+      log.debug("Создали клиент прямой загрузки");
+    }
+    return client;
+  }
+
+  private void release(WebClient client) {
+    idle.offer(client);
+    permits.release();
+  }
+
+  /*
+  Подменить адрес сайта, например на локальную заглушку при проверке
+   */
+  private String rewrite(String url) {
+    return baseUrl.isEmpty() || !url.startsWith(UrlUtils.BASE_URL) ? url
+        : baseUrl + url.substring(UrlUtils.BASE_URL.length());
+  }
+
+  private static String getHeader(WebResponse response, String name) {
+    String value = response.getResponseHeaderValue(name);
+    return Objects.isNull(value) || value.isEmpty() ? null : value;
+  }
+
+}
@@ -0,0 +1,376 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.model.Advertisement;
+import com.ddkolesnik.siteparser.repository.AdvertisementRepository;
+import com.ddkolesnik.siteparser.repository.DuplicateRepository;
+import com.ddkolesnik.siteparser.utils.MinHash;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Поиск почти одинаковых объявлений (одна недвижимость от собственника и агентств).
+ * По признакам объявления считаются ключи корзин LSH, объявления с общей корзиной объединяются в кластер,
+ * id кластера - наименьший id объявления в нём. Корзины хранятся в памяти компактной таблицей
+ * и в таблице advertisement_lsh_bucket, откуда загружаются при первом обращении
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class DuplicateDetectionService {
+
+  static int SHINGLE_SIZE = 3;
+
+  // меньше признаков - слишком высока вероятность случайного совпадения корзин
+  static int MIN_FEATURES = 8;
+
+  AdvertisementRepository advertisementRepository;
+
+  DuplicateRepository duplicateRepository;
+
+  TransactionTemplate transactionTemplate;
+
+  BucketIndex index = new BucketIndex();
+
+  Map<Long, Long> merged = new HashMap<>();
+
+  int mergedLimit;
+
+  @NonFinal
+  boolean loaded;
+
+  public DuplicateDetectionService(AdvertisementRepository advertisementRepository,
+                                   DuplicateRepository duplicateRepository,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${duplicates.merged-limit:100000}") int mergedLimit) {
+    this.advertisementRepository = advertisementRepository;
+    this.duplicateRepository = duplicateRepository;
+    this.mergedLimit = mergedLimit;
+    // загрузка и пересчёт не должны выполняться в транзакции записи, которая их вызвала
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  /**
+   * Загрузить корзины при запуске, если есть объявления без кластера - пересчитать по всем объявлениям
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public synchronized void init() {
+    load();
+  }
+
+  /**
+   * Определить и сохранить кластеры записанных объявлений и их корзины.
+   * Вызывается в транзакции записи, объявления уже должны быть вставлены в таблицу.
+   * Корзины и слияния пачки попадают в память только после фиксации транзакции, откат их не оставляет
+   *
+   * @param advertisements объявления
+   * @return id кластера по id объявления
+   */
+  public synchronized Map<Long, Long> assign(Collection<Advertisement> advertisements) {
+    load();
+    Map<Long, Long> clusters = new LinkedHashMap<>();
+    Map<Long, long[]> buckets = new HashMap<>();
+    Map<Long, Set<Long>> merges = new HashMap<>();
+    Map<Long, Long> indexUpdates = new HashMap<>();
+    Map<Long, Long> mergedUpdates = new HashMap<>();
+    for (Advertisement advertisement : advertisements) {
+      long id = advertisement.getId();
+      Set<String> features = getFeatures(advertisement);
+      if (features.size() < MIN_FEATURES) {
+        clusters.put(id, id);
+        continue;
+      }
+      long[] keys = MinHash.bucketKeys(features);
+      TreeSet<Long> found = new TreeSet<>();
+      found.add(id);
+      for (long key : keys) {
+        Long pending = indexUpdates.get(key);
+        long cluster = Objects.isNull(pending) ? index.get(key) : pending;
+        if (cluster != 0) {
+          found.add(resolve(cluster, mergedUpdates));
+        }
+      }
+      long cluster = found.pollFirst();
+      for (Long other : found) {
+        mergedUpdates.put(other, cluster);
+        merges.computeIfAbsent(cluster, c -> new HashSet<>()).add(other);
+      }
+      for (long key : keys) {
+        indexUpdates.put(key, cluster);
+      }
+      clusters.put(id, cluster);
+      buckets.put(id, keys);
+    }
+    clusters.replaceAll((id, cluster) -> resolve(cluster, mergedUpdates));
+    duplicateRepository.setClusters(clusters);
+    duplicateRepository.replaceBuckets(buckets);
+    Map<Long, Set<Long>> targets = new HashMap<>();
+    merges.forEach((target, sources) -> targets.computeIfAbsent(resolve(target, mergedUpdates), t -> new HashSet<>())
+        .addAll(sources));
+    targets.forEach((target, sources) -> {
+      sources.remove(target);
+      if (!sources.isEmpty()) {
+        duplicateRepository.mergeClusters(target, sources);
+      }
+    });
+    afterCommit(() -> apply(indexUpdates, mergedUpdates));
+    return clusters;
+  }
+
+  /*
+  Перенести зафиксированные корзины и слияния в память. Цепочки слияний нужны, пока в корзинах остаются
+  id поглощённых кластеров, поэтому при переполнении корзины перечитываются из базы данных, где кластеры
+  уже слиты, и цепочки сбрасываются
+   */
+  private synchronized void apply(Map<Long, Long> indexUpdates, Map<Long, Long> mergedUpdates) {
+    indexUpdates.forEach(index::put);
+    merged.putAll(mergedUpdates);
+    if (merged.size() > mergedLimit) {
+      log.info("Слияний кластеров в памяти [{} шт] больше лимита, перечитываем корзины", merged.size());
+      reload();
+    }
+  }
+
+  private void afterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        action.run();
+      }
+    });
+  }
+
+  /**
+   * Пересчитать корзины и кластеры по всем объявлениям
+   */
+  public synchronized void rebuild() {
+    log.info("Пересчитываем кластеры дублей объявлений");
+    transactionTemplate.execute(status -> {
+      duplicateRepository.reset();
+      return null;
+    });
+    index.clear();
+    merged.clear();
+    loaded = true;
+    long afterId = 0;
+    int count = 0;
+    while (true) {
+      long from = afterId;
+      List<Advertisement> chunk = transactionTemplate.execute(status -> {
+        List<Advertisement> advertisements = advertisementRepository.findTop500ByIdGreaterThanOrderById(from);
+        if (!advertisements.isEmpty()) {
+          assign(advertisements);
+        }
+        return advertisements;
+      });
+      if (Objects.isNull(chunk) || chunk.isEmpty()) {
+        break;
+      }
+      afterId = chunk.get(chunk.size() - 1).getId();
+      count += chunk.size();
+    }
+    log.info("Кластеры дублей пересчитаны, объявлений [{} шт], корзин в памяти [{} шт]", count, index.size());
+  }
+
+  /**
+   * Удалить корзины удаляемых объявлений. Корзины в памяти остаются: они указывают на кластер,
+   * а не на объявление, и новые объявления того же кластера по-прежнему в него попадут
+   *
+   * @param ids id объявлений
+   */
+  public void deleteBuckets(Collection<Long> ids) {
+    duplicateRepository.deleteBuckets(ids);
+  }
+
+  /**
+   * Сбросить корзины в памяти после массового удаления объявлений, при следующем обращении они загрузятся заново
+   */
+  public synchronized void reload() {
+    index.clear();
+    merged.clear();
+    loaded = false;
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    if (transactionTemplate.execute(status -> duplicateRepository.hasUnclustered())) {
+      rebuild();
+      return;
+    }
+    transactionTemplate.execute(status -> {
+      duplicateRepository.forEachBucket((bucket, clusterId) -> {
+        long current = index.get(bucket);
+        if (current == 0 || clusterId < current) {
+          index.put(bucket, clusterId);
+        }
+      });
+      return null;
+    });
+    log.info("Загрузили корзины дублей объявлений [{} шт]", index.size());
+  }
+
+  /*
+  Найти итоговый кластер по цепочке слияний: сначала ещё не зафиксированные слияния пачки, затем из памяти
+   */
+  private long resolve(long cluster, Map<Long, Long> pending) {
+    Long target = next(cluster, pending);
+    while (Objects.nonNull(target)) {
+      cluster = target;
+      target = next(cluster, pending);
+    }
+    return cluster;
+  }
+
+  private Long next(long cluster, Map<Long, Long> pending) {
+    Long target = pending.get(cluster);
+    return Objects.isNull(target) ? merged.get(cluster) : target;
+  }
+
+  /**
+   * Признаки объявления: шинглы из слов заголовка и описания, округлённые площадь и цена, слова адреса.
+   * Вид объявления и город входят в признаки, чтобы не склеивать продажу с арендой
+   *
+   * @param advertisement объявление
+   * @return множество признаков
+   */
+  Set<String> getFeatures(Advertisement advertisement) {
+    Set<String> features = new HashSet<>();
+    List<String> words = new ArrayList<>(normalize(advertisement.getTitle()));
+    words.addAll(normalize(advertisement.getDescription()));
+    for (int i = 0; i + SHINGLE_SIZE <= words.size(); i++) {
+      features.add(String.join(" ", words.subList(i, i + SHINGLE_SIZE)));
+    }
+    if (features.isEmpty()) {
+      return features;
+    }
+    normalize(advertisement.getAddress()).forEach(word -> features.add("addr:" + word));
+    if (Objects.nonNull(advertisement.getAreaM2())) {
+      features.add("area:" + advertisement.getAreaM2().setScale(0, RoundingMode.HALF_UP));
+    }
+    if (Objects.nonNull(advertisement.getPrice()) && advertisement.getPrice().signum() > 0) {
+      // шаг 2%, чтобы небольшой торг не разводил объявления
+      features.add("price:" + Math.round(Math.log(advertisement.getPrice().doubleValue()) / Math.log(1.02)));
+    }
+    // названия, а не коды: ключи корзин, сохранённые до перехода на коды, остаются действительными
+    features.add("type:" + (Objects.isNull(advertisement.getAdvType()) ? null : advertisement.getAdvType().getTitle()));
+    features.add("city:" + (Objects.isNull(advertisement.getCity()) ? null : advertisement.getCity().getDescription()));
+    return features;
+  }
+
+  private List<String> normalize(String text) {
+    if (Objects.isNull(text)) {
+      return new ArrayList<>();
+    }
+    StringBuilder normalized = new StringBuilder(text.length());
+    for (char c : text.toLowerCase(Locale.ROOT).toCharArray()) {
+      normalized.append(Character.isLetterOrDigit(c) ? (c == 'ё' ? 'е' : c) : ' ');
+    }
+    return Arrays.stream(normalized.toString().split(" +"))
+        .filter(word -> !word.isEmpty())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Таблица ключ корзины - id кластера с открытой адресацией на массивах примитивов,
+   * чтобы миллионы корзин не превращались в миллионы объектов
+   */
+  private static class BucketIndex {
+
+    private long[] keys = new long[1 << 16];
+
+    private long[] values = new long[1 << 16];
+
+    private int size;
+
+    long get(long key) {
+      int mask = keys.length - 1;
+      for (int slot = slot(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+        if (keys[slot] == key) {
+          return values[slot];
+        }
+      }
+      return 0;
+    }
+
+    void put(long key, long value) {
+      if (size * 2 >= keys.length) {
+        resize();
+      }
+      int mask = keys.length - 1;
+      int slot = slot(key, mask);
+      while (keys[slot] != 0 && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      if (keys[slot] == 0) {
+        keys[slot] = key;
+        size++;
+      }
+      values[slot] = value;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      keys = new long[1 << 16];
+      values = new long[1 << 16];
+      size = 0;
+    }
+
+    private void resize() {
+      long[] oldKeys = keys;
+      long[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = new long[oldValues.length * 2];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != 0) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    private static int slot(long key, int mask) {
+      return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+  }
+
+}
@@ -0,0 +1,37 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.model.PageValidator;
+
+/**
+ * Способ загрузки страниц сайта. Маршрутизатор загрузки выбирает способы по цене запроса и доле успешных ответов
+ *
+ * @author Alexandr Stegnin
+ */
+
+public interface FetchBackend {
+
+  /**
+   * @return название способа в показателях
+   */
+  String getName();
+
+  /**
+   * @return условная цена одного запроса, более дешёвые способы пробуются первыми
+   */
+  double getCost();
+
+  /**
+   * @return false, если способ отключён настройками
+   */
+  boolean isEnabled();
+
+  /**
+   * Загрузить страницу
+   *
+   * @param url       адрес страницы
+   * @param validator сохранённые признаки прошлой загрузки для условного запроса, null - обычный запрос
+   * @return ответ; при условном запросе с хэшем тела ответа
+   */
+  FetchResponse fetch(String url, PageValidator validator);
+
+}
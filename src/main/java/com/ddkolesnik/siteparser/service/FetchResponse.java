@@ -0,0 +1,44 @@
+package com.ddkolesnik.siteparser.service;
+
+import lombok.Builder;
+import lombok.Value;
+import org.jsoup.nodes.Document;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Ответ на загрузку страницы одним из способов загрузки
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Value
+@Builder
+public class FetchResponse {
+
+  String backend;
+
+  int status;
+
+  // null, если страница не изменилась (304)
+  Document document;
+
+  String etag;
+
+  String lastModified;
+
+  // только для ответов 2xx
+  String bodyHash;
+
+  public boolean isNotModified() {
+    return status == HttpStatus.NOT_MODIFIED.value();
+  }
+
+  public boolean isSuccessful() {
+    return isSuccessful(status);
+  }
+
+  static boolean isSuccessful(int status) {
+    return status >= 200 && status < 300;
+  }
+
+}
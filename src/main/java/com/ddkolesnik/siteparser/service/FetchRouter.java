@@ -0,0 +1,260 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.model.PageValidator;
+import com.ddkolesnik.siteparser.repository.PageValidatorRepository;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.nodes.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+/**
+ * Загрузка страниц сайта с выбором способа загрузки. Способы пробуются от дешёвого к дорогому,
+ * на страницу блокировки, ошибку или отказ сайта запрос повторяется следующим способом, самый дорогой способ -
+ * последний и используется всегда. Дешёвый способ пропускается, пока его доля успешных ответов
+ * не окупает цену: цена способа должна быть меньше доли успеха, умноженной на цену последнего способа.
+ * Пропущенный способ время от времени пробуется снова, чтобы заметить восстановление
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class FetchRouter {
+
+  static String BLOCK_MARKER = "подозрительная";
+
+  List<BackendState> backends;
+
+  PageValidatorRepository pageValidatorRepository;
+
+  double alpha;
+
+  int probeEvery;
+
+  public FetchRouter(List<FetchBackend> backends,
+                     PageValidatorRepository pageValidatorRepository,
+                     @Value("${fetch.routing.ewma-alpha:0.1}") double alpha,
+                     @Value("${fetch.routing.probe-every:50}") int probeEvery) {
+    this.backends = backends.stream()
+        .filter(FetchBackend::isEnabled)
+        .sorted(Comparator.comparingDouble(FetchBackend::getCost))
+        .map(BackendState::new)
+        .collect(Collectors.toList());
+    if (this.backends.isEmpty()) {
+      throw new IllegalStateException("Не задан ни один способ загрузки страниц");
+    }
+    this.pageValidatorRepository = pageValidatorRepository;
+    this.alpha = alpha;
+    this.probeEvery = probeEvery;
+    log.info("Способы загрузки страниц: {}", this.backends.stream()
+        .map(state -> state.backend.getName()).collect(Collectors.joining(" -> ")));
+  }
+
+  /**
+   * Получить страницу
+   *
+   * @param url адрес страницы
+   * @return объект страницы HTML
+   */
+  public Document getDocument(String url) {
+    return fetch(url, null).getDocument();
+  }
+
+  /**
+   * Получить страницу, только если она изменилась с прошлой загрузки.
+   * Отправляет условный запрос по сохранённым ETag/Last-Modified, если сервер их не поддерживает -
+   * сравнивает хэш тела ответа, посчитанный при разборе, с сохранённым
+   *
+   * @param url адрес страницы
+   * @return объект страницы HTML или null, если страница не изменилась
+   */
+  public Document getDocumentIfModified(String url) {
+    PageValidator validator = pageValidatorRepository.findByUrl(url)
+        .orElseGet(() -> PageValidator.builder().url(url).build());
+    FetchResponse response = fetch(url, validator);
+    if (response.isNotModified()) {
+      log.debug("Страница [{}] не изменилась (304)", url);
+      return null;
+    }
+    Document document = response.getDocument();
+    if (Objects.nonNull(response.getBodyHash()) && response.getBodyHash().equals(validator.getBodyHash())) {
+      log.debug("Страница [{}] не изменилась (хэш)", url);
+      return null;
+    }
+    // валидаторы ответа с ошибкой или страницы блокировки не описывают страницу
+    if (response.isSuccessful() && !isBlocked(document)) {
+      pageValidatorRepository.upsert(url, response.getEtag(), response.getLastModified(), response.getBodyHash());
+    }
+    return document;
+  }
+
+  /**
+   * Проверить, не вернулась ли страница с блокировкой вместо содержимого
+   *
+   * @param document объект страницы HTML
+   * @return результат проверки
+   */
+  public boolean isBlocked(Document document) {
+    return document.text().toLowerCase(Locale.ROOT).contains(BLOCK_MARKER);
+  }
+
+  /**
+   * Получить размер распакованного тела последнего ответа, полученного текущим потоком
+   *
+   * @return размер в байтах
+   */
+  public static long getLastBodySize() {
+    return PageParser.getLastBodySize();
+  }
+
+  /**
+   * Получить показатели способов загрузки в порядке их применения
+   *
+   * @return показатели по способам
+   */
+  public List<Map<String, Object>> getStatus() {
+    BackendState last = backends.get(backends.size() - 1);
+    return backends.stream()
+        .map(state -> state.getStatus(state == last || state.isWorthIt(last.backend.getCost())))
+        .collect(Collectors.toList());
+  }
+
+  /*
+  Пройти по способам загрузки до первого успешного ответа. Ответ последнего способа возвращается как есть,
+  даже если это страница блокировки, повторы на этот случай остаются за вызывающим кодом
+   */
+  private FetchResponse fetch(String url, PageValidator validator) {
+    BackendState last = backends.get(backends.size() - 1);
+    for (BackendState state : backends) {
+      if (state != last && !state.shouldTry(last.backend.getCost(), probeEvery)) {
+        continue;
+      }
+      long start = System.nanoTime();
+      try {
+        FetchResponse response = state.backend.fetch(url, validator);
+        boolean success = isSuccess(response);
+        state.record(success, response.isNotModified(), System.nanoTime() - start, alpha);
+        if (success || state == last) {
+          return response;
+        }
+        log.debug("Способ [{}] не получил страницу [{}], статус {}", state.backend.getName(), url,
+            response.getStatus());
+      } catch (RuntimeException e) {
+        state.record(false, false, System.nanoTime() - start, alpha);
+        state.errors.incrementAndGet();
+        if (state == last) {
+          throw e;
+        }
+        log.debug("Способ [{}] не получил страницу [{}]. Ошибка: {}", state.backend.getName(), url,
+            e.getLocalizedMessage());
+      }
+    }
+    throw new IllegalStateException("Не удалось загрузить страницу " + url);
+  }
+
+  private boolean isSuccess(FetchResponse response) {
+    if (response.isNotModified()) {
+      return true;
+    }
+    HttpStatus status = HttpStatus.resolve(response.getStatus());
+    return Objects.nonNull(status) && status.is2xxSuccessful() && Objects.nonNull(response.getDocument())
+        && !isBlocked(response.getDocument());
+  }
+
+  /**
+   * Показатели способа загрузки: общие счётчики и скользящие средние доли успеха и времени ответа
+   */
+  @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+  private static class BackendState {
+
+    FetchBackend backend;
+
+    AtomicLong requests = new AtomicLong();
+
+    AtomicLong successes = new AtomicLong();
+
+    AtomicLong notModified = new AtomicLong();
+
+    AtomicLong errors = new AtomicLong();
+
+    AtomicLong skipped = new AtomicLong();
+
+    AtomicLong totalNanos = new AtomicLong();
+
+    // до первых ответов способ считается успешным, иначе дешёвый способ ни разу не будет опробован
+    @NonFinal
+    double successRate = 1;
+
+    @NonFinal
+    double latencyMillis;
+
+    BackendState(FetchBackend backend) {
+      this.backend = backend;
+    }
+
+    boolean isWorthIt(double fallbackCost) {
+      return backend.getCost() < getSuccessRate() * fallbackCost;
+    }
+
+    boolean shouldTry(double fallbackCost, int probeEvery) {
+      if (isWorthIt(fallbackCost)) {
+        return true;
+      }
+      long count = skipped.incrementAndGet();
+      return probeEvery > 0 && count % probeEvery == 0;
+    }
+
+    synchronized void record(boolean success, boolean notModified, long nanos, double alpha) {
+      requests.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      if (success) {
+        successes.incrementAndGet();
+      }
+      if (notModified) {
+        this.notModified.incrementAndGet();
+      }
+      double millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+      successRate = successRate + alpha * ((success ? 1 : 0) - successRate);
+      latencyMillis = requests.get() == 1 ? millis : latencyMillis + alpha * (millis - latencyMillis);
+    }
+
+    synchronized double getSuccessRate() {
+      return successRate;
+    }
+
+    synchronized Map<String, Object> getStatus(boolean active) {
+      long count = requests.get();
+      Map<String, Object> status = new LinkedHashMap<>();
+      status.put("backend", backend.getName());
+      status.put("cost", backend.getCost());
+      status.put("active", active);
+      status.put("requests", count);
+      status.put("successes", successes.get());
+      status.put("notModified", notModified.get());
+      status.put("errors", errors.get());
+      status.put("skipped", skipped.get());
+      status.put("successRate", count == 0 ? null : Math.round(successes.get() * 1000d / count) / 1000d);
+      status.put("recentSuccessRate", Math.round(successRate * 1000) / 1000d);
+      status.put("avgLatencyMillis", count == 0 ? null : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count));
+      status.put("recentLatencyMillis", Math.round(latencyMillis));
+      status.put("spent", Math.round(count * backend.getCost() * 100) / 100d);
+      return status;
+    }
+
+  }
+
+}
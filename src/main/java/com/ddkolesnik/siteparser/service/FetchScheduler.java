@@ -0,0 +1,267 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.utils.FetchPriority;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Планировщик загрузки страниц объявлений по классам приоритета.
+ * Сначала обрабатываются новые объявления, затем изменённые, перепроверка уже собранных
+ * объявлений и дозагрузка объявлений, записанных по карточкам из выдачи, выполняются в последнюю очередь
+ * и только в пределах оставшегося лимита загрузок. Перепроверка, кроме того, ограничена своим лимитом,
+ * чтобы полный обход не загружал заново весь каталог.
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class FetchScheduler {
+
+  PriorityBlockingQueue<PrioritizedTask> queue = new PriorityBlockingQueue<>();
+
+  List<Thread> workers = new ArrayList<>();
+
+  int threads;
+
+  CrawlProgress progress;
+
+  Predicate<FetchTask> worker;
+
+  Consumer<FetchTask> onComplete;
+
+  int capacity;
+
+  int reverifyLimit;
+
+  long startTime = System.nanoTime();
+
+  AtomicLong sequence = new AtomicLong();
+
+  AtomicInteger started = new AtomicInteger();
+
+  AtomicInteger reverifyStarted = new AtomicInteger();
+
+  Map<FetchPriority, ClassStats> stats = new EnumMap<>(FetchPriority.class);
+
+  Queue<FetchTask> pending = new ConcurrentLinkedQueue<>();
+
+  @NonFinal
+  volatile boolean closed;
+
+  /**
+   * @param threads       кол-во потоков загрузки
+   * @param capacity      лимит загрузок за запуск, 0 - без ограничений
+   * @param reverifyLimit лимит перепроверок за запуск, 0 - без ограничений
+   * @param progress      ход запуска, после отмены задачи из очереди пропускаются, а при остановке приложения
+   *                      откладываются для сохранения
+   * @param worker        обработчик задачи, возвращает false, если страница не изменилась с прошлой загрузки
+   * @param onComplete    вызывается после обработки или пропуска каждой задачи
+   */
+  public FetchScheduler(int threads, int capacity, int reverifyLimit, CrawlProgress progress,
+                        Predicate<FetchTask> worker, Consumer<FetchTask> onComplete) {
+    this.threads = threads;
+    this.progress = progress;
+    this.worker = worker;
+    this.onComplete = onComplete;
+    this.capacity = capacity;
+    this.reverifyLimit = reverifyLimit;
+    for (FetchPriority priority : FetchPriority.values()) {
+      stats.put(priority, new ClassStats());
+    }
+  }
+
+  /**
+   * Запустить потоки загрузки. Задачи, поставленные до запуска, выбираются строго по приоритету
+   */
+  public void start() {
+    for (int i = 0; i < threads; i++) {
+      Thread thread = new Thread(this::work, "fetch-" + (i + 1));
+      workers.add(thread);
+      thread.start();
+    }
+  }
+
+  /**
+   * Поставить задачу в очередь
+   *
+   * @param task задача на загрузку
+   */
+  public void submit(FetchTask task) {
+    stats.get(task.getPriority()).submitted.incrementAndGet();
+    queue.add(new PrioritizedTask(task, sequence.getAndIncrement()));
+  }
+
+  /**
+   * Дождаться выполнения всех поставленных задач
+   */
+  public void await() {
+    closed = true;
+    try {
+      for (Thread thread : workers) {
+        while (thread.isAlive()) {
+          thread.join(TimeUnit.MINUTES.toMillis(1));
+          if (thread.isAlive()) {
+            log.info("Ожидаем завершения загрузки, в очереди [{} шт]", queue.size());
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      workers.forEach(Thread::interrupt);
+    }
+  }
+
+  /**
+   * Убрать из очереди задачи, которые не будут выполнены, например если сбор ссылок прервался ошибкой
+   * до запуска потоков загрузки. Для каждой задачи вызывается обработчик завершения
+   *
+   * @return кол-во убранных задач
+   */
+  public int discard() {
+    int count = 0;
+    PrioritizedTask next;
+    while ((next = queue.poll()) != null) {
+      stats.get(next.task.getPriority()).skipped.incrementAndGet();
+      onComplete.accept(next.task);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Кол-во обработанных задач
+   *
+   * @return кол-во задач
+   */
+  public int getProcessed() {
+    return stats.values().stream().mapToInt(s -> s.processed.get()).sum();
+  }
+
+  /**
+   * Задачи, пропущенные из-за остановки приложения
+   *
+   * @return задачи на загрузку
+   */
+  public List<FetchTask> getPending() {
+    return new ArrayList<>(pending);
+  }
+
+  /**
+   * Вывести в лог пропускную способность по классам приоритета
+   */
+  public void report() {
+    stats.forEach((priority, s) -> {
+      double minutes = (s.lastFinish.get() - startTime) / 60_000_000_000d;
+      double rate = minutes > 0 ? s.processed.get() / minutes : 0;
+      log.info("Класс [{}]: поставлено [{}], обработано [{}], не изменились [{}], пропущено [{}], ошибок [{}], " +
+              "{} объявл./мин", priority.getTitle(), s.submitted.get(), s.processed.get(), s.unchanged.get(),
+          s.skipped.get(), s.failed.get(), String.format("%.1f", rate));
+    });
+  }
+
+  private void work() {
+    try {
+      while (true) {
+        PrioritizedTask next = queue.poll(1, TimeUnit.SECONDS);
+        if (next != null) {
+          run(next.task);
+        } else if (closed && queue.isEmpty()) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run(FetchTask task) {
+    ClassStats classStats = stats.get(task.getPriority());
+    try {
+      if (progress.isCancelled()) {
+        classStats.skipped.incrementAndGet();
+        progress.onDropped();
+        if (progress.isDraining()) {
+          pending.add(task);
+        }
+        return;
+      }
+      boolean overCapacity = task.getPriority().getId() >= FetchPriority.REVERIFY.getId() && capacity > 0
+          && started.get() >= capacity;
+      boolean overReverifyLimit = task.getPriority() == FetchPriority.REVERIFY && reverifyLimit > 0
+          && reverifyStarted.incrementAndGet() > reverifyLimit;
+      if (overCapacity || overReverifyLimit) {
+        classStats.skipped.incrementAndGet();
+        progress.onSkipped();
+        progress.metrics(task.getPipeline()).onSkipped();
+        return;
+      }
+      log.info("Собираем {} из {} объявлений [{}]", started.incrementAndGet(), sequence.get(),
+          task.getPriority().getTitle());
+      boolean changed = worker.test(task);
+      if (!changed) {
+        classStats.unchanged.incrementAndGet();
+      }
+      classStats.processed.incrementAndGet();
+      progress.onFetched(changed);
+    } catch (Exception e) {
+      classStats.failed.incrementAndGet();
+      progress.onError();
+      progress.metrics(task.getPipeline()).onError();
+      log.error("Не удалось обработать [{}]. Ошибка: {}", task.getLink(), e.getLocalizedMessage());
+    } finally {
+      classStats.lastFinish.set(System.nanoTime());
+      onComplete.accept(task);
+    }
+  }
+
+  private static class ClassStats {
+
+    final AtomicInteger submitted = new AtomicInteger();
+
+    final AtomicInteger processed = new AtomicInteger();
+
+    final AtomicInteger skipped = new AtomicInteger();
+
+    final AtomicInteger unchanged = new AtomicInteger();
+
+    final AtomicInteger failed = new AtomicInteger();
+
+    final AtomicLong lastFinish = new AtomicLong();
+
+  }
+
+  private static class PrioritizedTask implements Comparable<PrioritizedTask> {
+
+    private final FetchTask task;
+
+    private final long order;
+
+    PrioritizedTask(FetchTask task, long order) {
+      this.task = task;
+      this.order = order;
+    }
+
+    @Override
+    public int compareTo(PrioritizedTask other) {
+      int result = Integer.compare(task.getPriority().getId(), other.task.getPriority().getId());
+      return result != 0 ? result : Long.compare(order, other.order);
+    }
+
+  }
+
+}
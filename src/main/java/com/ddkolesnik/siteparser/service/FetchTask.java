@@ -0,0 +1,25 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.utils.FetchPriority;
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import java.time.LocalDate;
+import lombok.Value;
+
+/**
+ * Задача на загрузку страницы объявления
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Value
+public class FetchTask {
+
+  String link;
+
+  LocalDate publishDate;
+
+  Pipeline pipeline;
+
+  FetchPriority priority;
+
+}
@@ -0,0 +1,166 @@
+package com.ddkolesnik.siteparser.service;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+
+/**
+ * Запись Java Flight Recorder с событиями сбора объявлений (профиль jfr/site-parser.jfc поверх стандартного).
+ * Запись идёт по кругу: хранятся события за последние max-age минут, выгрузка в файл - по запросу
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class FlightRecorderService {
+
+  static String PROFILE = "jfr/site-parser.jfc";
+
+  static DateTimeFormatter FILE_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+  boolean alwaysOn;
+
+  String dir;
+
+  long maxAgeMinutes;
+
+  long maxSizeMb;
+
+  @NonFinal
+  Recording recording;
+
+  public FlightRecorderService(@Value("${jfr.always-on:false}") boolean alwaysOn,
+                               @Value("${jfr.dir:${java.io.tmpdir}}") String dir,
+                               @Value("${jfr.max-age-minutes:60}") long maxAgeMinutes,
+                               @Value("${jfr.max-size-mb:100}") long maxSizeMb) {
+    this.alwaysOn = alwaysOn;
+    this.dir = dir;
+    this.maxAgeMinutes = maxAgeMinutes;
+    this.maxSizeMb = maxSizeMb;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void init() {
+    if (alwaysOn) {
+      start();
+    }
+  }
+
+  /**
+   * Начать запись, если она ещё не идёт
+   *
+   * @return состояние записи
+   */
+  public synchronized Map<String, Object> start() {
+    if (!isRecording()) {
+      recording = new Recording(getSettings());
+      recording.setName("site-parser");
+      recording.setToDisk(true);
+      recording.setMaxAge(Duration.ofMinutes(maxAgeMinutes));
+      recording.setMaxSize(maxSizeMb * 1024 * 1024);
+      recording.start();
+      log.info("Начали запись JFR, хранится не больше {} мин и {} МБ", maxAgeMinutes, maxSizeMb);
+    }
+    return getStatus();
+  }
+
+  /**
+   * Выгрузить накопленные события в файл, запись продолжается
+   *
+   * @return путь к файлу
+   */
+  public synchronized String dump() {
+    if (!isRecording()) {
+      throw new IllegalStateException("Запись JFR не ведётся");
+    }
+    Path file = Paths.get(dir, "site-parser-" + LocalDateTime.now().format(FILE_SUFFIX) + ".jfr");
+    try {
+      Files.createDirectories(file.getParent());
+      recording.dump(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    log.info("Выгрузили запись JFR в {}", file);
+    return file.toString();
+  }
+
+  /**
+   * Остановить запись без выгрузки
+   *
+   * @return состояние записи
+   */
+  @PreDestroy
+  public synchronized Map<String, Object> stop() {
+    if (Objects.nonNull(recording)) {
+      recording.close();
+      recording = null;
+      log.info("Остановили запись JFR");
+    }
+    return getStatus();
+  }
+
+  /**
+   * Получить состояние записи
+   *
+   * @return показатели записи
+   */
+  public synchronized Map<String, Object> getStatus() {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("recording", isRecording());
+    status.put("dir", dir);
+    status.put("maxAgeMinutes", maxAgeMinutes);
+    status.put("maxSizeMb", maxSizeMb);
+    if (Objects.nonNull(recording)) {
+      status.put("state", recording.getState());
+      status.put("startTime", recording.getStartTime());
+      status.put("bytes", recording.getSize());
+    }
+    return status;
+  }
+
+  private boolean isRecording() {
+    return Objects.nonNull(recording) && recording.getState() == RecordingState.RUNNING;
+  }
+
+  private static Map<String, String> getSettings() {
+    try (Reader reader = new InputStreamReader(new ClassPathResource(PROFILE).getInputStream(),
+        StandardCharsets.UTF_8)) {
+      Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+      settings.putAll(Configuration.create(reader).getSettings());
+      return settings;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (ParseException e) {
+      throw new IllegalStateException("Неверный профиль JFR " + PROFILE, e);
+    }
+  }
+
+}
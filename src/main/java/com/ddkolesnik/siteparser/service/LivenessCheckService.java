@@ -0,0 +1,161 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.utils.City;
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import com.ddkolesnik.siteparser.utils.UrlUtils;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Проверка актуальности сохранённых объявлений по спискам объявлений, без загрузки страниц самих объявлений.
+ * Объявления, пропавшие из выдачи, помечаются неактуальными, вернувшиеся в выдачу - снова актуальными
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class LivenessCheckService {
+
+  static int BATCH_SIZE = 500;
+
+  AvitoParseService avitoParseService;
+
+  AdvertisementService advertisementService;
+
+  @NonFinal
+  @Value("${liveness.page-pause:5000}")
+  long pagePause;
+
+  /*
+  Непрерывная проверка с низким приоритетом:
+  1. Обходим страницы списков объявлений, пока не идёт основной сбор
+  2. Собираем множество ссылок из карточек
+  3. Пачками обновляем признак актуальности
+   */
+  @Scheduled(initialDelayString = "${liveness.initial-delay:600000}", fixedDelayString = "${liveness.delay:3600000}")
+  public void check() {
+    // подкатегории коммерческой недвижимости не хранятся, поэтому проверяются вместе
+    Map<List<Object>, List<Pipeline>> groups = Pipeline.all(City.TYUMEN).stream()
+        .collect(Collectors.groupingBy(p -> Arrays.asList(p.getCategory(), p.getType(), p.getCity()),
+            LinkedHashMap::new, Collectors.toList()));
+    for (List<Pipeline> group : groups.values()) {
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+      check(group);
+    }
+  }
+
+  /**
+   * Проверить актуальность объявлений по группе сочетаний фильтров с одинаковыми категорией, видом и городом
+   *
+   * @param group сочетания фильтров
+   */
+  private void check(List<Pipeline> group) {
+    Pipeline pipeline = group.get(0);
+    LocalDateTime sweepStart = LocalDateTime.now();
+    Set<String> seen = new HashSet<>();
+    for (Pipeline subPipeline : group) {
+      log.info("Проверяем актуальность объявлений {}", subPipeline);
+      List<String> pageUrls = avitoParseService.getPageUrls(subPipeline, null);
+      if (pageUrls.isEmpty()) {
+        log.warn("Не удалось получить кол-во страниц, проверка {} прервана", subPipeline);
+        return;
+      }
+      for (String pageUrl : pageUrls) {
+        if (!waitForIdle()) {
+          return;
+        }
+        Map<String, LocalDate> links = avitoParseService.getLinks(subPipeline, pageUrl, null);
+        if (links.isEmpty()) {
+          log.warn("Страница [{}] не содержит объявлений, проверка {} прервана", pageUrl, subPipeline);
+          return;
+        }
+        links.keySet().forEach(link -> seen.add(UrlUtils.BASE_URL.concat(link)));
+      }
+    }
+    List<String> gone = advertisementService.getActualLinks(pipeline.getCity(), pipeline.getCategory(),
+            pipeline.getType(), sweepStart).stream()
+        .filter(link -> !seen.contains(link))
+        .distinct()
+        .collect(Collectors.toList());
+    List<String> returned = new ArrayList<>();
+    for (List<String> chunk : chunks(seen)) {
+      returned.addAll(advertisementService.getNotActualLinks(pipeline.getCity(), pipeline.getCategory(),
+          pipeline.getType(), chunk));
+    }
+    int deactivated = setActual(gone, false);
+    int activated = setActual(returned, true);
+    log.info("Проверка завершена, в выдаче [{} шт], стали неактуальными [{} шт], снова актуальны [{} шт]",
+        seen.size(), deactivated, activated);
+  }
+
+  /**
+   * Обновить признак актуальности пачками, каждая пачка в отдельной транзакции
+   *
+   * @param links  ссылки на объявления
+   * @param actual признак актуальности
+   * @return кол-во обновлённых записей
+   */
+  private int setActual(Collection<String> links, boolean actual) {
+    int updated = 0;
+    for (List<String> chunk : chunks(links)) {
+      updated += advertisementService.setActual(chunk, actual);
+    }
+    return updated;
+  }
+
+  private List<List<String>> chunks(Collection<String> links) {
+    List<List<String>> chunks = new ArrayList<>();
+    List<String> chunk = new ArrayList<>(BATCH_SIZE);
+    for (String link : links) {
+      chunk.add(link);
+      if (chunk.size() == BATCH_SIZE) {
+        chunks.add(chunk);
+        chunk = new ArrayList<>(BATCH_SIZE);
+      }
+    }
+    if (!chunk.isEmpty()) {
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  /**
+   * Выдержать паузу между страницами и дождаться завершения основного сбора объявлений
+   *
+   * @return false, если поток был прерван
+   */
+  private boolean waitForIdle() {
+    try {
+      do {
+        Thread.sleep(pagePause);
+      } while (avitoParseService.isRunning());
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+}
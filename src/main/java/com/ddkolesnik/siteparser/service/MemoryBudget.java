@@ -0,0 +1,221 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.model.Advertisement;
+import com.ddkolesnik.siteparser.utils.MemoryStage;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.nodes.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Бюджет памяти по этапам обработки.
+ * В режиме ограниченной памяти этап, исчерпавший бюджет, блокирует поставщика данных до освобождения места.
+ * Независимо от режима считается текущий и пиковый удерживаемый объём по каждому этапу
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Component
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class MemoryBudget {
+
+  /**
+   * Оценка размера одного элемента DOM Jsoup вместе с атрибутами и текстом
+   */
+  static int ELEMENT_SIZE = 256;
+
+  static int OBJECT_OVERHEAD = 64;
+
+  boolean bounded;
+
+  Map<MemoryStage, Stage> stages = new EnumMap<>(MemoryStage.class);
+
+  public MemoryBudget(@Value("${parser.memory.bounded:false}") boolean bounded,
+                      @Value("${parser.memory.max-documents:8}") int maxDocuments,
+                      @Value("${parser.memory.max-links:2000}") int maxLinks,
+                      @Value("${parser.memory.max-entities:200}") int maxEntities) {
+    this.bounded = bounded;
+    stages.put(MemoryStage.DOCUMENTS, new Stage(maxDocuments));
+    stages.put(MemoryStage.LINKS, new Stage(maxLinks));
+    stages.put(MemoryStage.ENTITIES, new Stage(maxEntities));
+  }
+
+  /**
+   * Занять место на этапе, при исчерпании бюджета ждать освобождения
+   *
+   * @param stage этап
+   * @param bytes оценка размера элемента
+   */
+  public void acquire(MemoryStage stage, long bytes) {
+    Stage s = stages.get(stage);
+    if (bounded) {
+      try {
+        s.permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Ожидание бюджета памяти прервано", e);
+      }
+    }
+    s.add(bytes);
+  }
+
+  /**
+   * Занять место на этапе, если бюджет не исчерпан
+   *
+   * @param stage этап
+   * @param bytes оценка размера элемента
+   * @return false, если бюджет исчерпан
+   */
+  public boolean tryAcquire(MemoryStage stage, long bytes) {
+    Stage s = stages.get(stage);
+    if (bounded && !s.permits.tryAcquire()) {
+      return false;
+    }
+    s.add(bytes);
+    return true;
+  }
+
+  /**
+   * Учесть изменение размера уже занятого элемента, например страницы после загрузки
+   *
+   * @param stage этап
+   * @param bytes прирост размера
+   */
+  public void account(MemoryStage stage, long bytes) {
+    Stage s = stages.get(stage);
+    s.peakBytes.accumulateAndGet(s.bytes.addAndGet(bytes), Math::max);
+  }
+
+  /**
+   * Освободить место на этапе
+   *
+   * @param stage этап
+   * @param bytes оценка размера элемента, переданная при занятии
+   */
+  public void release(MemoryStage stage, long bytes) {
+    Stage s = stages.get(stage);
+    s.count.decrementAndGet();
+    s.bytes.addAndGet(-bytes);
+    if (bounded) {
+      s.permits.release();
+    }
+  }
+
+  /**
+   * Сбросить пиковые значения, вызывается в начале запуска сбора
+   */
+  public void resetPeaks() {
+    stages.values().forEach(s -> {
+      s.peakCount.set(s.count.get());
+      s.peakBytes.set(s.bytes.get());
+    });
+  }
+
+  /**
+   * Получить текущее состояние этапов
+   *
+   * @return состояние по этапам
+   */
+  public List<Map<String, Object>> getSnapshot() {
+    List<Map<String, Object>> snapshot = new ArrayList<>();
+    stages.forEach((stage, s) -> {
+      Map<String, Object> item = new LinkedHashMap<>();
+      item.put("stage", stage.name());
+      item.put("title", stage.getTitle());
+      item.put("bounded", bounded);
+      item.put("budget", s.budget);
+      item.put("count", s.count.get());
+      item.put("peakCount", s.peakCount.get());
+      item.put("retainedBytes", s.bytes.get());
+      item.put("peakRetainedBytes", s.peakBytes.get());
+      snapshot.add(item);
+    });
+    return snapshot;
+  }
+
+  /**
+   * Вывести в лог пиковый удерживаемый объём по этапам
+   */
+  public void report() {
+    stages.forEach((stage, s) -> log.info("Этап [{}]: пик [{} шт] / [{} шт], пиковый объём [{} КБ]", stage.getTitle(),
+        s.peakCount.get(), s.budget, s.peakBytes.get() / 1024));
+  }
+
+  /**
+   * Оценить размер страницы в памяти
+   *
+   * @param document HTML страница
+   * @return оценка размера в байтах
+   */
+  public static long estimate(Document document) {
+    return Objects.isNull(document) ? 0 : (long) document.getAllElements().size() * ELEMENT_SIZE;
+  }
+
+  /**
+   * Оценить размер задачи на загрузку в памяти
+   *
+   * @param task задача на загрузку
+   * @return оценка размера в байтах
+   */
+  public static long estimate(FetchTask task) {
+    return OBJECT_OVERHEAD + sizeOf(task.getLink());
+  }
+
+  /**
+   * Оценить размер объявления в памяти
+   *
+   * @param advertisement объявление
+   * @return оценка размера в байтах
+   */
+  public static long estimate(Advertisement advertisement) {
+    return OBJECT_OVERHEAD * 4 + sizeOf(advertisement.getTitle()) + sizeOf(advertisement.getArea()) +
+        sizeOf(advertisement.getAddress()) + sizeOf(advertisement.getStations()) +
+        sizeOf(advertisement.getDescription()) + sizeOf(advertisement.getLink()) +
+        sizeOf(advertisement.getDateCreate()) + sizeOf(advertisement.getSellerName()) +
+        sizeOf(advertisement.getSellerType()) + sizeOf(advertisement.getSellerOnAvito()) +
+        sizeOf(advertisement.getSellerAdvComplete()) + sizeOf(advertisement.getSellerAdvActual());
+  }
+
+  private static long sizeOf(String value) {
+    return Objects.isNull(value) ? 0 : OBJECT_OVERHEAD + 2L * value.length();
+  }
+
+  private static class Stage {
+
+    final int budget;
+
+    final Semaphore permits;
+
+    final AtomicInteger count = new AtomicInteger();
+
+    final AtomicInteger peakCount = new AtomicInteger();
+
+    final AtomicLong bytes = new AtomicLong();
+
+    final AtomicLong peakBytes = new AtomicLong();
+
+    Stage(int budget) {
+      this.budget = budget;
+      this.permits = new Semaphore(budget, true);
+    }
+
+    void add(long size) {
+      peakCount.accumulateAndGet(count.incrementAndGet(), Math::max);
+      peakBytes.accumulateAndGet(bytes.addAndGet(size), Math::max);
+    }
+
+  }
+
+}
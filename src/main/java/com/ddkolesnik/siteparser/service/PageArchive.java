@@ -0,0 +1,309 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.dto.PageRecord;
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.PreDestroy;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Архив загруженных страниц объявлений для повторного разбора без новых запросов к сайту.
+ * Страницы дописываются в файлы-сегменты, каждая запись - отдельный блок gzip с заголовком в духе WARC,
+ * поэтому запись читается с любого смещения без распаковки сегмента целиком. Рядом с сегментом пишется индекс:
+ * смещение, длина блока, время загрузки и ссылка. Сегмент закрывается при достижении заданного размера
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Component
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class PageArchive {
+
+  static String VERSION = "PAGE/1.0";
+
+  static String SEGMENT_PREFIX = "pages-";
+
+  static String SEGMENT_SUFFIX = ".warc.gz";
+
+  static String INDEX_SUFFIX = ".idx";
+
+  static DateTimeFormatter SEGMENT_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+  Path dir;
+
+  long segmentSize;
+
+  @NonFinal
+  OutputStream segment;
+
+  @NonFinal
+  Writer index;
+
+  @NonFinal
+  long offset;
+
+  @NonFinal
+  int segmentCount;
+
+  public PageArchive(@Value("${page-archive.dir:}") String dir,
+                     @Value("${page-archive.segment-size:268435456}") long segmentSize) {
+    this.dir = dir.isEmpty() ? null : Paths.get(dir);
+    this.segmentSize = segmentSize;
+  }
+
+  public boolean isEnabled() {
+    return Objects.nonNull(dir);
+  }
+
+  /**
+   * Дописать страницу в архив. Ошибка записи в архив не должна прерывать сбор объявлений, поэтому только логируется
+   *
+   * @param record страница
+   */
+  public synchronized void append(PageRecord record) {
+    if (!isEnabled()) {
+      return;
+    }
+    try {
+      byte[] block = compress(record);
+      if (Objects.isNull(segment) || offset >= segmentSize) {
+        rotate();
+      }
+      segment.write(block);
+      segment.flush();
+      // строка индекса пишется после блока: индекс не ссылается на недописанные записи
+      index.write(offset + "\t" + block.length + "\t" + record.getFetchedAt() + "\t" + record.getUrl() + "\n");
+      index.flush();
+      offset += block.length;
+    } catch (IOException e) {
+      log.error("Не удалось записать страницу [{}] в архив. Ошибка: {}", record.getUrl(), e.getLocalizedMessage());
+    }
+  }
+
+  /**
+   * Прочитать индексы всех сегментов. Для каждой ссылки остаётся последняя загрузка
+   *
+   * @return положения последних записей в порядке сегментов и смещений
+   */
+  public List<Location> readIndex() {
+    Map<String, Location> locations = new HashMap<>();
+    for (Path segmentPath : getSegments()) {
+      Path indexPath = segmentPath.resolveSibling(segmentPath.getFileName().toString()
+          .replace(SEGMENT_SUFFIX, INDEX_SUFFIX));
+      if (!Files.exists(indexPath)) {
+        continue;
+      }
+      try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] parts = line.split("\t", 4);
+          if (parts.length == 4) {
+            locations.put(parts[3],
+                new Location(segmentPath, Long.parseLong(parts[0]), Integer.parseInt(parts[1]), parts[3]));
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    // чтение в порядке файлов: соседние записи читаются с диска подряд
+    return locations.values().stream()
+        .sorted(Comparator.comparing(Location::getSegment).thenComparingLong(Location::getOffset))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Прочитать запись архива. Чтение по смещению, из одного канала можно читать из нескольких потоков
+   *
+   * @param channel  канал сегмента
+   * @param location положение записи
+   * @return страница
+   */
+  public static PageRecord read(FileChannel channel, Location location) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(location.length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, location.offset + buffer.position()) < 0) {
+        throw new IOException("Запись архива обрывается на смещении " + location.offset);
+      }
+    }
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(buffer.array()))) {
+      Map<String, String> headers = new HashMap<>();
+      String line = readLine(in);
+      if (!VERSION.equals(line)) {
+        throw new IOException("Неизвестный формат записи архива: " + line);
+      }
+      while (!(line = readLine(in)).isEmpty()) {
+        int colon = line.indexOf(':');
+        headers.put(line.substring(0, colon), line.substring(colon + 1).trim());
+      }
+      byte[] content = new byte[Integer.parseInt(headers.get("Content-Length"))];
+      int read = 0;
+      while (read < content.length) {
+        int n = in.read(content, read, content.length - read);
+        if (n < 0) {
+          throw new IOException("Запись архива обрывается на смещении " + location.offset);
+        }
+        read += n;
+      }
+      return PageRecord.builder()
+          .url(headers.get("URL"))
+          .fetchedAt(LocalDateTime.parse(headers.get("Fetched-At")))
+          .advType(headers.containsKey("Adv-Type") ? AdvertisementType.valueOf(headers.get("Adv-Type")) : null)
+          .city(headers.containsKey("City") ? City.valueOf(headers.get("City")) : null)
+          .category(headers.containsKey("Category") ? AdvCategory.valueOf(headers.get("Category")) : null)
+          .publishDate(headers.containsKey("Publish-Date") ? LocalDate.parse(headers.get("Publish-Date")) : null)
+          .html(new String(content, StandardCharsets.UTF_8))
+          .build();
+    }
+  }
+
+  /**
+   * Открыть сегмент на чтение
+   *
+   * @param segmentPath путь к сегменту
+   * @return канал сегмента
+   */
+  public static FileChannel open(Path segmentPath) {
+    try {
+      return FileChannel.open(segmentPath, StandardOpenOption.READ);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @PreDestroy
+  public synchronized void close() {
+    try {
+      if (Objects.nonNull(segment)) {
+        segment.close();
+        index.close();
+      }
+    } catch (IOException e) {
+      log.error("Не удалось закрыть сегмент архива страниц. Ошибка: {}", e.getLocalizedMessage());
+    }
+    segment = null;
+    index = null;
+  }
+
+  private List<Path> getSegments() {
+    if (!isEnabled() || !Files.isDirectory(dir)) {
+      return new ArrayList<>();
+    }
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+              && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+          .sorted()
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /*
+  Новый сегмент начинается при каждом запуске: хвост прежнего сегмента мог остаться недописанным
+   */
+  private void rotate() throws IOException {
+    close();
+    Files.createDirectories(dir);
+    String name = SEGMENT_PREFIX + LocalDateTime.now().format(SEGMENT_TIME) + "-" +
+        String.format("%04d", ++segmentCount);
+    Path segmentPath = dir.resolve(name + SEGMENT_SUFFIX);
+    segment = Files.newOutputStream(segmentPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    index = new BufferedWriter(Files.newBufferedWriter(dir.resolve(name + INDEX_SUFFIX), StandardCharsets.UTF_8));
+    offset = 0;
+    log.info("Начали сегмент архива страниц {}", segmentPath);
+  }
+
+  private static byte[] compress(PageRecord record) throws IOException {
+    byte[] content = record.getHtml().getBytes(StandardCharsets.UTF_8);
+    StringBuilder header = new StringBuilder(VERSION).append("\r\n");
+    header.append("URL: ").append(record.getUrl()).append("\r\n");
+    header.append("Fetched-At: ").append(record.getFetchedAt()).append("\r\n");
+    if (Objects.nonNull(record.getAdvType())) {
+      header.append("Adv-Type: ").append(record.getAdvType().name()).append("\r\n");
+    }
+    if (Objects.nonNull(record.getCity())) {
+      header.append("City: ").append(record.getCity().name()).append("\r\n");
+    }
+    if (Objects.nonNull(record.getCategory())) {
+      header.append("Category: ").append(record.getCategory().name()).append("\r\n");
+    }
+    if (Objects.nonNull(record.getPublishDate())) {
+      header.append("Publish-Date: ").append(record.getPublishDate()).append("\r\n");
+    }
+    header.append("Content-Length: ").append(content.length).append("\r\n\r\n");
+    ByteArrayOutputStream block = new ByteArrayOutputStream(content.length / 4 + 256);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(block)) {
+      gzip.write(header.toString().getBytes(StandardCharsets.UTF_8));
+      gzip.write(content);
+    }
+    return block.toByteArray();
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    int b;
+    while ((b = in.read()) >= 0 && b != '\n') {
+      if (b != '\r') {
+        line.write(b);
+      }
+    }
+    if (b < 0 && line.size() == 0) {
+      throw new IOException("Неожиданный конец записи архива");
+    }
+    return new String(line.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Положение записи в архиве
+   */
+  @lombok.Value
+  public static class Location {
+
+    Path segment;
+
+    long offset;
+
+    int length;
+
+    String url;
+
+  }
+
+}
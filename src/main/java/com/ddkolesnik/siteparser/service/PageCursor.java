@@ -0,0 +1,20 @@
+package com.ddkolesnik.siteparser.service;
+
+import lombok.Value;
+
+/**
+ * Позиция сбора ссылок по страницам списка сочетания фильтров, сохранённая при остановке приложения
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Value
+public class PageCursor {
+
+  // первая не обработанная страница
+  int nextPage;
+
+  // последняя страница списка, null - кол-во страниц неизвестно, сбор с первой страницы ещё не начинался
+  Integer lastPage;
+
+}
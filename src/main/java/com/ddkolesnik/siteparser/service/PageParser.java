@@ -0,0 +1,106 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.jfr.ParseEvent;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+/**
+ * Разбор тела ответа в страницу HTML потоком, без промежуточной строки. Общий для всех способов загрузки
+ *
+ * @author Alexandr Stegnin
+ */
+
+final class PageParser {
+
+  static ThreadLocal<Long> BODY_SIZE = ThreadLocal.withInitial(() -> 0L);
+
+  private PageParser() {
+  }
+
+  /**
+   * Разобрать тело ответа, распаковка gzip/deflate выполняется HTTP клиентом по мере чтения
+   *
+   * @param body     поток тела ответа
+   * @param encoding кодировка из заголовков ответа, если не задана - определяется по странице
+   * @param url      адрес страницы
+   * @param digest   хэш тела ответа, считается при чтении, если задан
+   * @return объект страницы HTML
+   */
+  static Document parse(InputStream body, String encoding, String url, MessageDigest digest) {
+    ParseEvent event = new ParseEvent();
+    event.begin();
+    InputStream source = Objects.isNull(digest) ? body : new DigestInputStream(body, digest);
+    try (CountingInputStream in = new CountingInputStream(source)) {
+      Document document = Jsoup.parse(in, Objects.isNull(encoding) || encoding.isEmpty() ? null : encoding, url);
+      BODY_SIZE.set(in.count);
+      event.url = url;
+      event.bytes = in.count;
+      event.commit();
+      return document;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Получить размер распакованного тела последнего ответа, полученного текущим потоком
+   *
+   * @return размер в байтах
+   */
+  static long getLastBodySize() {
+    return BODY_SIZE.get();
+  }
+
+  static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static String toHex(MessageDigest digest) {
+    return String.format("%032x", new BigInteger(1, digest.digest()));
+  }
+
+  /*
+  Считает прочитанные из тела ответа байты, для событий JFR
+   */
+  private static class CountingInputStream extends FilterInputStream {
+
+    long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+  }
+
+}
@@ -0,0 +1,150 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.repository.PartitionRepository;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Обслуживание помесячных секций таблицы объявлений: секции создаются заранее на несколько месяцев вперёд,
+ * секции старше срока хранения отсоединяются целиком вместо построчного удаления.
+ * Если таблица не секционирована (не PostgreSQL), ничего не делает
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class PartitionService {
+
+  PartitionRepository partitionRepository;
+
+  AdvertisementStatsService advertisementStatsService;
+
+  SellerService sellerService;
+
+  DuplicateDetectionService duplicateDetectionService;
+
+  TransactionTemplate transactionTemplate;
+
+  int monthsAhead;
+
+  int retentionMonths;
+
+  boolean dropDetached;
+
+  @NonFinal
+  volatile boolean partitioned;
+
+  public PartitionService(PartitionRepository partitionRepository,
+                          AdvertisementStatsService advertisementStatsService,
+                          SellerService sellerService,
+                          DuplicateDetectionService duplicateDetectionService,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${partition.months-ahead:2}") int monthsAhead,
+                          @Value("${partition.retention-months:0}") int retentionMonths,
+                          @Value("${partition.drop-detached:false}") boolean dropDetached) {
+    this.partitionRepository = partitionRepository;
+    this.advertisementStatsService = advertisementStatsService;
+    this.sellerService = sellerService;
+    this.duplicateDetectionService = duplicateDetectionService;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.monthsAhead = monthsAhead;
+    this.retentionMonths = retentionMonths;
+    this.dropDetached = dropDetached;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void init() {
+    partitioned = partitionRepository.isPartitioned();
+    if (partitioned) {
+      createPartitions();
+    }
+  }
+
+  /*
+  Ежедневно: создать недостающие секции и, если задан срок хранения, отсоединить старые
+   */
+  @Scheduled(cron = "${partition.cron:0 0 3 * * *}")
+  public void maintain() {
+    if (!partitioned) {
+      return;
+    }
+    createPartitions();
+    if (retentionMonths > 0) {
+      detachBefore(LocalDate.now().withDayOfMonth(1).minusMonths(retentionMonths));
+    }
+  }
+
+  /**
+   * Создать секции с текущего месяца на заданное кол-во месяцев вперёд
+   */
+  public void createPartitions() {
+    LocalDate month = LocalDate.now().withDayOfMonth(1);
+    for (int i = 0; i <= monthsAhead; i++) {
+      LocalDate current = month.plusMonths(i);
+      if (Boolean.TRUE.equals(transactionTemplate.execute(status -> partitionRepository.createPartition(current)))) {
+        log.info("Создали секцию объявлений за {}", current);
+      }
+    }
+  }
+
+  /**
+   * Отсоединить секции месяцев, целиком предшествующих дате.
+   * Объявления секции перестают быть видны сразу, без построчного удаления
+   *
+   * @param before дата, секции месяцев до которой отсоединяются
+   * @return первые дни месяцев отсоединённых секций
+   */
+  public List<LocalDate> detachBefore(LocalDate before) {
+    List<LocalDate> detached = new ArrayList<>();
+    if (!partitioned) {
+      return detached;
+    }
+    for (LocalDate month : partitionRepository.findPartitions()) {
+      if (month.plusMonths(1).isAfter(before)) {
+        break;
+      }
+      Integer count = transactionTemplate.execute(status -> {
+        int rows = partitionRepository.deleteDependents(month);
+        partitionRepository.detachPartition(month, dropDetached);
+        return rows;
+      });
+      detached.add(month);
+      log.info("Отсоединили секцию объявлений за {}, объявлений [{} шт]", month, count);
+    }
+    if (!detached.isEmpty()) {
+      transactionTemplate.execute(status -> {
+        sellerService.recountAdvCounts();
+        return null;
+      });
+      advertisementStatsService.onBulkChange();
+      duplicateDetectionService.reload();
+    }
+    return detached;
+  }
+
+  /**
+   * Заблокировать запись объявлений до конца текущей транзакции, если таблица секционирована
+   */
+  public void lockWrites() {
+    if (partitioned) {
+      partitionRepository.lockWrites();
+    }
+  }
+
+}
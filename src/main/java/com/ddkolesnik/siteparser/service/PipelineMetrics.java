@@ -0,0 +1,161 @@
+package com.ddkolesnik.siteparser.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Показатели одного сочетания фильтров в запуске сбора: запросы к сайту, повторы, результат записи
+ * и затраченное время. Сохраняются в историю запусков по окончании запуска
+ *
+ * @author Alexandr Stegnin
+ */
+
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class PipelineMetrics {
+
+  AtomicInteger pages = new AtomicInteger();
+
+  AtomicInteger detailFetches = new AtomicInteger();
+
+  AtomicInteger cacheHits = new AtomicInteger();
+
+  AtomicInteger retries = new AtomicInteger();
+
+  AtomicInteger blockPages = new AtomicInteger();
+
+  AtomicInteger inserted = new AtomicInteger();
+
+  AtomicInteger updated = new AtomicInteger();
+
+  AtomicInteger skipped = new AtomicInteger();
+
+  AtomicInteger errors = new AtomicInteger();
+
+  AtomicInteger sharedHits = new AtomicInteger();
+
+  AtomicInteger crossPipelineHits = new AtomicInteger();
+
+  AtomicInteger cards = new AtomicInteger();
+
+  AtomicInteger enriched = new AtomicInteger();
+
+  AtomicLong fetchNanos = new AtomicLong();
+
+  AtomicLong dbNanos = new AtomicLong();
+
+  public void onPage() {
+    pages.incrementAndGet();
+  }
+
+  public void onDetailFetch(boolean notModified) {
+    detailFetches.incrementAndGet();
+    if (notModified) {
+      cacheHits.incrementAndGet();
+    }
+  }
+
+  public void onRetry() {
+    retries.incrementAndGet();
+  }
+
+  public void onBlockPage() {
+    blockPages.incrementAndGet();
+  }
+
+  public void onWritten(boolean update) {
+    if (update) {
+      updated.incrementAndGet();
+    } else {
+      inserted.incrementAndGet();
+    }
+  }
+
+  public void onSkipped() {
+    skipped.incrementAndGet();
+  }
+
+  public void onError() {
+    errors.incrementAndGet();
+  }
+
+  /**
+   * Учесть задачу, получившую результат загрузки той же страницы другой задачей запуска
+   *
+   * @param crossPipeline результат получен от задачи другого сочетания фильтров
+   */
+  public void onSharedHit(boolean crossPipeline) {
+    sharedHits.incrementAndGet();
+    if (crossPipeline) {
+      crossPipelineHits.incrementAndGet();
+    }
+  }
+
+  /**
+   * Учесть объявление, записанное по карточке из выдачи без загрузки страницы объявления
+   */
+  public void onCard() {
+    cards.incrementAndGet();
+  }
+
+  /**
+   * Учесть объявление, дозагруженное со страницы объявления после записи по карточке
+   */
+  public void onEnriched() {
+    enriched.incrementAndGet();
+  }
+
+  public int getSharedHits() {
+    return sharedHits.get();
+  }
+
+  public int getCrossPipelineHits() {
+    return crossPipelineHits.get();
+  }
+
+  public int getCards() {
+    return cards.get();
+  }
+
+  public int getEnriched() {
+    return enriched.get();
+  }
+
+  public void addFetchTime(long nanos) {
+    fetchNanos.addAndGet(nanos);
+  }
+
+  public void addDbTime(long nanos) {
+    dbNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Получить показатели. Ключи совпадают с названиями колонок истории запусков в camelCase
+   *
+   * @return показатели по названию
+   */
+  public Map<String, Object> getSnapshot() {
+    Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("pages", pages.get());
+    snapshot.put("detailFetches", detailFetches.get());
+    snapshot.put("cacheHits", cacheHits.get());
+    snapshot.put("retries", retries.get());
+    snapshot.put("blockPages", blockPages.get());
+    snapshot.put("inserted", inserted.get());
+    snapshot.put("updated", updated.get());
+    snapshot.put("skipped", skipped.get());
+    snapshot.put("errors", errors.get());
+    snapshot.put("sharedHits", sharedHits.get());
+    snapshot.put("crossPipelineHits", crossPipelineHits.get());
+    snapshot.put("cards", cards.get());
+    snapshot.put("enriched", enriched.get());
+    snapshot.put("fetchMillis", TimeUnit.NANOSECONDS.toMillis(fetchNanos.get()));
+    snapshot.put("dbMillis", TimeUnit.NANOSECONDS.toMillis(dbNanos.get()));
+    return snapshot;
+  }
+
+}
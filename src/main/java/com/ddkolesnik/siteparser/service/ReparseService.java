@@ -0,0 +1,156 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.dto.PageRecord;
+import com.ddkolesnik.siteparser.jfr.ParseEvent;
+import com.ddkolesnik.siteparser.model.Advertisement;
+import com.ddkolesnik.siteparser.repository.ReparseRepository;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Повторный разбор архива страниц без запросов к сайту, например после исправления правил разбора.
+ * Для каждой ссылки разбирается последняя загруженная страница, разбор идёт параллельно пачками,
+ * изменившиеся объявления обновляются пакетным запросом, изменившаяся цена попадает в историю цен.
+ * Продавец и кластер дублей не меняются
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class ReparseService {
+
+  PageArchive pageArchive;
+
+  AdvertisementExtractor advertisementExtractor;
+
+  ReparseRepository reparseRepository;
+
+  AdvertisementStatsService advertisementStatsService;
+
+  TransactionTemplate transactionTemplate;
+
+  int parallelism;
+
+  int batchSize;
+
+  AtomicBoolean running = new AtomicBoolean();
+
+  public ReparseService(PageArchive pageArchive,
+                        AdvertisementExtractor advertisementExtractor,
+                        ReparseRepository reparseRepository,
+                        AdvertisementStatsService advertisementStatsService,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${reparse.parallelism:0}") int parallelism,
+                        @Value("${reparse.batch-size:1000}") int batchSize) {
+    this.pageArchive = pageArchive;
+    this.advertisementExtractor = advertisementExtractor;
+    this.reparseRepository = reparseRepository;
+    this.advertisementStatsService = advertisementStatsService;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Заново разобрать все страницы архива и обновить изменившиеся объявления.
+   * Если разбор уже идёт, ничего не делает
+   *
+   * @return кол-во обновлённых объявлений
+   */
+  public int reparse() {
+    if (!running.compareAndSet(false, true)) {
+      log.warn("Повторный разбор архива страниц уже выполняется");
+      return 0;
+    }
+    List<PageArchive.Location> locations = pageArchive.readIndex();
+    log.info("Повторно разбираем архив страниц, страниц [{} шт], потоков [{} шт]", locations.size(), parallelism);
+    long start = System.currentTimeMillis();
+    Map<Path, FileChannel> channels = new ConcurrentHashMap<>();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    AtomicLong failed = new AtomicLong();
+    int extracted = 0;
+    int updated = 0;
+    try {
+      for (int from = 0; from < locations.size(); from += batchSize) {
+        List<PageArchive.Location> batch = locations.subList(from, Math.min(from + batchSize, locations.size()));
+        List<Advertisement> advertisements = pool.submit(() -> batch.parallelStream()
+            .map(location -> extract(location, channels, failed))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList()))
+            .get();
+        extracted += advertisements.size();
+        Integer count = transactionTemplate.execute(status -> reparseRepository.updateExtracted(advertisements));
+        updated += Objects.isNull(count) ? 0 : count;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Повторный разбор архива страниц прерван");
+    } catch (ExecutionException e) {
+      log.error("Не удалось повторно разобрать архив страниц. Ошибка: {}", e.getCause().getLocalizedMessage());
+    } finally {
+      pool.shutdown();
+      channels.values().forEach(ReparseService::close);
+      running.set(false);
+    }
+    if (updated > 0) {
+      advertisementStatsService.onBulkChange();
+    }
+    log.info("Повторный разбор завершён за {} мс: разобрано [{} шт], ошибок [{} шт], обновлено объявлений [{} шт]",
+        System.currentTimeMillis() - start, extracted, failed.get(), updated);
+    return updated;
+  }
+
+  public boolean isRunning() {
+    return running.get();
+  }
+
+  private Advertisement extract(PageArchive.Location location, Map<Path, FileChannel> channels, AtomicLong failed) {
+    try {
+      PageRecord record = PageArchive.read(channels.computeIfAbsent(location.getSegment(), PageArchive::open),
+          location);
+      ParseEvent event = new ParseEvent();
+      event.begin();
+      Document document = Jsoup.parse(record.getHtml(), record.getUrl());
+      event.url = record.getUrl();
+      event.bytes = record.getHtml().length();
+      event.commit();
+      return advertisementExtractor.extract(document, record.getUrl(), record.getAdvType(), record.getPublishDate(),
+          record.getCity(), record.getCategory());
+    } catch (IOException | RuntimeException e) {
+      failed.incrementAndGet();
+      log.warn("Не удалось разобрать страницу [{}] из архива. Ошибка: {}", location.getUrl(),
+          e.getLocalizedMessage());
+      return null;
+    }
+  }
+
+  private static void close(FileChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.warn("Не удалось закрыть сегмент архива страниц. Ошибка: {}", e.getLocalizedMessage());
+    }
+  }
+
+}
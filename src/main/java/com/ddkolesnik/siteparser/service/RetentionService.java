@@ -0,0 +1,251 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.repository.AdvertisementQueryRepository;
+import com.ddkolesnik.siteparser.utils.ExportFormat;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Удаление неактуальных объявлений старше срока хранения.
+ * Объявления удаляются пачками по id, каждая пачка - в отдельной короткой транзакции с паузой между пачками,
+ * перед удалением пачка может дописываться в сжатый архив NDJSON
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class RetentionService {
+
+  static DateTimeFormatter ARCHIVE_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+  AdvertisementService advertisementService;
+
+  AdvertisementQueryRepository advertisementQueryRepository;
+
+  AdvertisementExportService advertisementExportService;
+
+  TransactionTemplate transactionTemplate;
+
+  int notActualDays;
+
+  int chunkSize;
+
+  long pause;
+
+  String archiveDir;
+
+  AtomicBoolean running = new AtomicBoolean();
+
+  @NonFinal
+  volatile LocalDateTime startedAt;
+
+  @NonFinal
+  volatile LocalDateTime finishedAt;
+
+  @NonFinal
+  volatile LocalDateTime before;
+
+  @NonFinal
+  volatile long candidates;
+
+  @NonFinal
+  volatile long chunks;
+
+  @NonFinal
+  volatile long deleted;
+
+  @NonFinal
+  volatile long archived;
+
+  @NonFinal
+  volatile long lastId;
+
+  @NonFinal
+  volatile String archiveFile;
+
+  @NonFinal
+  volatile String error;
+
+  public RetentionService(AdvertisementService advertisementService,
+                          AdvertisementQueryRepository advertisementQueryRepository,
+                          AdvertisementExportService advertisementExportService,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${retention.not-actual-days:0}") int notActualDays,
+                          @Value("${retention.chunk-size:1000}") int chunkSize,
+                          @Value("${retention.pause:200}") long pause,
+                          @Value("${retention.archive-dir:}") String archiveDir) {
+    this.advertisementService = advertisementService;
+    this.advertisementQueryRepository = advertisementQueryRepository;
+    this.advertisementExportService = advertisementExportService;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.notActualDays = notActualDays;
+    this.chunkSize = chunkSize;
+    this.pause = pause;
+    this.archiveDir = archiveDir;
+  }
+
+  /*
+  Ежедневное удаление, если задан срок хранения неактуальных объявлений
+   */
+  @Scheduled(cron = "${retention.cron:0 30 3 * * *}")
+  public void runScheduled() {
+    if (notActualDays > 0) {
+      run(LocalDateTime.now().minusDays(notActualDays));
+    }
+  }
+
+  /**
+   * Удалить неактуальные объявления, последний раз изменённые раньше заданного момента.
+   * Если удаление уже идёт, ничего не делает
+   *
+   * @param before момент
+   * @return кол-во удалённых объявлений
+   */
+  public long run(LocalDateTime before) {
+    if (!running.compareAndSet(false, true)) {
+      log.warn("Удаление неактуальных объявлений уже выполняется");
+      return 0;
+    }
+    try {
+      reset(before);
+      log.info("Удаляем неактуальные объявления, изменённые до {}, всего [{} шт]", before, candidates);
+      if (archiveDir.isEmpty()) {
+        deleteChunks(null, null);
+      } else {
+        archiveAndDelete();
+      }
+      log.info("Удалено неактуальных объявлений [{} шт], пачек [{} шт]", deleted, chunks);
+    } catch (RuntimeException e) {
+      error = e.getLocalizedMessage();
+      log.error("Не удалось удалить неактуальные объявления. Ошибка: {}", error);
+    } finally {
+      finishedAt = LocalDateTime.now();
+      running.set(false);
+    }
+    return deleted;
+  }
+
+  /**
+   * Получить ход последнего удаления
+   *
+   * @return показатели удаления
+   */
+  public Map<String, Object> getStatus() {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("running", running.get());
+    status.put("notActualDays", notActualDays);
+    status.put("startedAt", startedAt);
+    status.put("finishedAt", finishedAt);
+    status.put("before", before);
+    status.put("candidates", candidates);
+    status.put("chunks", chunks);
+    status.put("deleted", deleted);
+    status.put("archived", archived);
+    status.put("lastId", lastId);
+    status.put("archiveFile", archiveFile);
+    status.put("error", error);
+    return status;
+  }
+
+  private void archiveAndDelete() {
+    Path file = Paths.get(archiveDir, "advertisement-" + LocalDateTime.now().format(ARCHIVE_SUFFIX) + ".ndjson.gz");
+    try {
+      Files.createDirectories(file.getParent());
+      // без syncFlush: сброс после пачки передаёт её в сжатие, не обрывая блок deflate, иначе страдает степень сжатия
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+          new GZIPOutputStream(Files.newOutputStream(file), 8192), StandardCharsets.UTF_8))) {
+        archiveFile = file.toString();
+        deleteChunks(advertisementExportService.newRowWriter(ExportFormat.NDJSON, writer), writer);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void deleteChunks(AdvertisementExportService.RowWriter archive, Writer archiveWriter) {
+    long afterId = 0;
+    while (true) {
+      long from = afterId;
+      List<Long> ids = transactionTemplate.execute(status -> {
+        List<Long> chunk = advertisementService.findNotActualIds(from, before, chunkSize);
+        if (!chunk.isEmpty()) {
+          if (Objects.nonNull(archive)) {
+            advertisementQueryRepository.export(chunk, archive::write);
+            flush(archiveWriter);
+            archived = archive.getCount();
+          }
+          deleted += advertisementService.delete(chunk);
+        }
+        return chunk;
+      });
+      if (Objects.isNull(ids) || ids.isEmpty()) {
+        return;
+      }
+      afterId = ids.get(ids.size() - 1);
+      lastId = afterId;
+      chunks++;
+      if (!sleep()) {
+        log.warn("Удаление неактуальных объявлений прервано");
+        return;
+      }
+    }
+  }
+
+  private void reset(LocalDateTime before) {
+    this.before = before;
+    startedAt = LocalDateTime.now();
+    finishedAt = null;
+    candidates = advertisementService.countNotActual(before);
+    chunks = 0;
+    deleted = 0;
+    archived = 0;
+    lastId = 0;
+    archiveFile = null;
+    error = null;
+  }
+
+  private boolean sleep() {
+    try {
+      Thread.sleep(pause);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static void flush(Writer writer) {
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
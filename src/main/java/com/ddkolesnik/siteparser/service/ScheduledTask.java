@@ -1,15 +1,11 @@
 package com.ddkolesnik.siteparser.service;
 
-import com.ddkolesnik.siteparser.utils.AdvCategory;
-import com.ddkolesnik.siteparser.utils.AdvertisementType;
 import com.ddkolesnik.siteparser.utils.City;
-import com.ddkolesnik.siteparser.utils.SubCategory;
+import com.ddkolesnik.siteparser.utils.Pipeline;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-
-import java.time.LocalDate;
-import java.time.LocalDateTime;
+import org.springframework.web.server.ResponseStatusException;
 
 /**
  * @author Alexandr Stegnin
@@ -19,13 +15,10 @@ import java.time.LocalDateTime;
 @Component
 public class ScheduledTask {
 
-    private final AdvertisementService advertisementService;
-
-    private final AvitoParseService avitoParseService;
+    private final CrawlJobService crawlJobService;
 
-    public ScheduledTask(AdvertisementService advertisementService, AvitoParseService avitoParseService) {
-        this.advertisementService = advertisementService;
-        this.avitoParseService = avitoParseService;
+    public ScheduledTask(CrawlJobService crawlJobService) {
+        this.crawlJobService = crawlJobService;
     }
 
     /*
@@ -36,33 +29,35 @@ public class ScheduledTask {
      */
     @Scheduled(cron = "${cron.expression.daily}")
     public void runDaily() {
-        LocalDate maxPublishDate = advertisementService.getMaxPublishDate();
-        log.info("Начинаем ЕЖЕДНЕВНЫЙ сбор объявлений старше {}", maxPublishDate);
-        int count = parse(maxPublishDate);
-        log.info("Завершено, собрано объявлений [{} шт]", count);
+        log.info("Начинаем ЕЖЕДНЕВНЫЙ сбор объявлений");
+        run(false);
     }
 
+    /*
+    Еженедельный полный обход всех страниц. Уже собранные объявления перепроверяются не больше
+    parser.fetch.reverify-per-run за запуск, актуальность объявлений отслеживает LivenessCheckService
+     */
     @Scheduled(cron = "${cron.expression.weekly}")
     public void runWeekly() {
-        LocalDateTime now = LocalDateTime.now();
         log.info("Начинаем ЕЖЕНЕДЕЛЬНЫЙ сбор объявлений");
-        int count = parse(null);
-        log.info("Завершено, собрано объявлений [{} шт]", count);
-        log.info("Делаем неактивными данные старше {}", now);
-        advertisementService.setNotActual(now);
-        log.info("Завершено");
+        run(true);
     }
 
-    private int parse(LocalDate maxPublishDate) {
-        int count = avitoParseService.parse(AdvCategory.COMMERCIAL_PROPERTY, SubCategory.TRADING_AREA, AdvertisementType.SALE, City.TYUMEN, maxPublishDate);
-        count += avitoParseService.parse(AdvCategory.COMMERCIAL_PROPERTY, SubCategory.TRADING_AREA, AdvertisementType.RENT, City.TYUMEN, maxPublishDate);
-        count += avitoParseService.parse(AdvCategory.COMMERCIAL_PROPERTY, SubCategory.OTHER, AdvertisementType.SALE, City.TYUMEN, maxPublishDate);
-        count += avitoParseService.parse(AdvCategory.COMMERCIAL_PROPERTY, SubCategory.OTHER, AdvertisementType.RENT, City.TYUMEN, maxPublishDate);
-        count += avitoParseService.parse(AdvCategory.HOUSE_COUNTRY_HOUSE_COTTAGE, SubCategory.OTHER, AdvertisementType.SALE, City.TYUMEN, maxPublishDate);
-        count += avitoParseService.parse(AdvCategory.HOUSE_COUNTRY_HOUSE_COTTAGE, SubCategory.OTHER, AdvertisementType.RENT, City.TYUMEN, maxPublishDate);
-        count += avitoParseService.parse(AdvCategory.STEAD, SubCategory.OTHER, AdvertisementType.SALE, City.TYUMEN, maxPublishDate);
-        count += avitoParseService.parse(AdvCategory.STEAD, SubCategory.OTHER, AdvertisementType.RENT, City.TYUMEN, maxPublishDate);
-        return count;
+    /*
+    Плановый запуск идёт через задания, как и ручной: пересекающиеся запуски не собирают одно и то же дважды.
+    Поток планировщика ждёт завершения задания, как раньше ждал сбора
+     */
+    private void run(boolean full) {
+        try {
+            CrawlJob job = crawlJobService.start(Pipeline.all(City.TYUMEN), full, CrawlJob.Trigger.SCHEDULED);
+            job.await();
+            log.info("Завершено, задание [{}] {}, собрано объявлений [{} шт]", job.getId(), job.getState(),
+                    job.getProgress().getSnapshot().get("ads"));
+        } catch (ResponseStatusException e) {
+            log.warn("Плановый сбор пропущен: {}", e.getReason());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
 }
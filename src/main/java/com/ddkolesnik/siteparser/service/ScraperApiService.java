@@ -1,38 +1,110 @@
 package com.ddkolesnik.siteparser.service;
 
-import com.scraperapi.ScraperApiClient;
-import kong.unirest.Unirest;
+import com.ddkolesnik.siteparser.model.PageValidator;
+import java.security.MessageDigest;
+import java.util.Objects;
+import kong.unirest.GetRequest;
+import kong.unirest.HttpResponse;
+import kong.unirest.UnirestInstance;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
 /**
+ * Загрузка страниц через платный ScraperAPI. Самый надёжный и самый дорогой способ,
+ * используется, когда прямая загрузка недоступна или вернула страницу блокировки
+ *
  * @author Aleksandr Stegnin on 22.07.2021
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
-public class ScraperApiService {
+public class ScraperApiService implements FetchBackend {
 
-  ScraperApiClient client;
+  UnirestInstance scraperApiUnirest;
 
-  public Document getDocument(String url) {
-    reset();
-    return Jsoup.parseBodyFragment(getResponse(url));
+  @NonFinal
+  @Value("${scraper.api.key}")
+  String apiKey;
+
+  @NonFinal
+  @Value("${scraper.api.url:http://api.scraperapi.com}")
+  String apiUrl;
+
+  @NonFinal
+  @Value("${scraper.api.cost:1}")
+  double cost;
+
+  @Override
+  public String getName() {
+    return "scraperapi";
   }
 
-  public String getResponse(String url) {
-    return client.get(url).timeout(0).result();
+  @Override
+  public double getCost() {
+    return cost;
   }
 
-  public void reset() {
-    Unirest.config().reset();
+  @Override
+  public boolean isEnabled() {
+    return true;
   }
 
-}
+  /**
+   * Загрузить страницу. Ответ запрашивается сжатым и разбирается потоком, без промежуточной строки.
+   * Условный запрос отправляется с сохранёнными ETag/Last-Modified, заголовки передаются сайту через keep_headers
+   *
+   * @param url       адрес страницы
+   * @param validator сохранённые признаки прошлой загрузки, null - обычный запрос
+   * @return ответ
+   */
+  @Override
+  public FetchResponse fetch(String url, PageValidator validator) {
+    GetRequest request = scraperApiUnirest.get(apiUrl)
+        .queryString("api_key", apiKey)
+        .queryString("url", url);
+    MessageDigest digest = null;
+    if (Objects.nonNull(validator)) {
+      request.queryString("keep_headers", "true");
+      if (Objects.nonNull(validator.getEtag())) {
+        request.header(HttpHeaders.IF_NONE_MATCH, validator.getEtag());
+      }
+      if (Objects.nonNull(validator.getLastModified())) {
+        request.header(HttpHeaders.IF_MODIFIED_SINCE, validator.getLastModified());
+      }
+      digest = PageParser.md5();
+    }
+    MessageDigest bodyDigest = digest;
+    // тело ответа с ошибкой разбирается только для проверки на блокировку, хэш считается по страницам 2xx
+    HttpResponse<Document> response = request.asObject(raw -> raw.getStatus() == HttpStatus.NOT_MODIFIED.value()
+        ? null : PageParser.parse(raw.getContent(), raw.getEncoding(), url,
+        FetchResponse.isSuccessful(raw.getStatus()) ? bodyDigest : null));
+    response.getParsingError().ifPresent(e -> {
+      throw e;
+    });
+    boolean hashed = Objects.nonNull(digest) && Objects.nonNull(response.getBody())
+        && FetchResponse.isSuccessful(response.getStatus());
+    return FetchResponse.builder()
+        .backend(getName())
+        .status(response.getStatus())
+        .document(response.getBody())
+        .etag(getHeader(response, HttpHeaders.ETAG))
+        .lastModified(getHeader(response, HttpHeaders.LAST_MODIFIED))
+        .bodyHash(hashed ? PageParser.toHex(digest) : null)
+        .build();
+  }
+
+  private String getHeader(HttpResponse<?> response, String name) {
+    String value = response.getHeaders().getFirst(name);
+    return Objects.isNull(value) || value.isEmpty() ? null : value;
+  }
 
+}
@@ -0,0 +1,206 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.model.Advertisement;
+import com.ddkolesnik.siteparser.model.Seller;
+import com.ddkolesnik.siteparser.repository.SellerRepository;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Продавцы объявлений.
+ * При записи объявлений id продавца берётся из LRU кэша по ключу продавца, в базу данных обращаемся
+ * только за отсутствующими в кэше продавцами и при изменении сведений профиля
+ *
+ * @author Alexandr Stegnin
+ */
+
+@Slf4j
+@Service
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class SellerService {
+
+  SellerRepository sellerRepository;
+
+  Map<String, CachedSeller> cache;
+
+  public SellerService(SellerRepository sellerRepository,
+                       @Value("${seller.cache-size:10000}") int cacheSize) {
+    this.sellerRepository = sellerRepository;
+    this.cache = new LinkedHashMap<String, CachedSeller>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedSeller> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  /**
+   * Ключ продавца: вид и имя. Должен совпадать с ключом, по которому миграция заполнила таблицу seller
+   *
+   * @param advertisement объявление
+   * @return ключ или null, если продавец не указан
+   */
+  static String getKey(Advertisement advertisement) {
+    String name = advertisement.getSellerName();
+    if (Objects.isNull(name) || name.trim().isEmpty()) {
+      return null;
+    }
+    String type = advertisement.getSellerType();
+    return (Objects.isNull(type) ? "" : type) + "|" + name.trim();
+  }
+
+  /**
+   * Проставить объявлениям id продавцов, новых продавцов создать, изменившиеся сведения профиля обновить.
+   * Вызывается в транзакции записи, кэш обновляется только после её фиксации
+   *
+   * @param advertisements объявления
+   */
+  public synchronized void resolve(List<Advertisement> advertisements) {
+    Map<String, Advertisement> latest = new LinkedHashMap<>();
+    for (Advertisement advertisement : advertisements) {
+      String key = getKey(advertisement);
+      if (Objects.nonNull(key)) {
+        latest.put(key, advertisement);
+      }
+    }
+    if (latest.isEmpty()) {
+      return;
+    }
+    Map<String, CachedSeller> found = new HashMap<>();
+    Set<String> missing = new HashSet<>();
+    latest.keySet().forEach(key -> {
+      CachedSeller cached = cache.get(key);
+      if (Objects.isNull(cached)) {
+        missing.add(key);
+      } else {
+        found.put(key, cached);
+      }
+    });
+    if (!missing.isEmpty()) {
+      sellerRepository.findBySellerKeyIn(missing).forEach(seller -> {
+        found.put(seller.getSellerKey(), CachedSeller.of(seller));
+        missing.remove(seller.getSellerKey());
+      });
+    }
+    if (!missing.isEmpty()) {
+      int created = 0;
+      for (String key : missing) {
+        Advertisement advertisement = latest.get(key);
+        created += sellerRepository.insertIfAbsent(key, advertisement.getSellerName().trim(),
+            advertisement.getSellerType(), advertisement.getSellerOnAvito(), advertisement.getSellerAdvComplete(),
+            advertisement.getSellerAdvActual());
+      }
+      sellerRepository.findBySellerKeyIn(missing).forEach(seller ->
+          found.put(seller.getSellerKey(), CachedSeller.of(seller)));
+      log.info("Добавили продавцов [{} шт]", created);
+    }
+    Map<String, CachedSeller> resolved = new HashMap<>();
+    latest.forEach((key, advertisement) -> {
+      CachedSeller cached = found.get(key);
+      CachedSeller actual = new CachedSeller(cached.getId(), advertisement.getSellerOnAvito(),
+          advertisement.getSellerAdvComplete(), advertisement.getSellerAdvActual());
+      if (!actual.equals(cached)) {
+        sellerRepository.updateProfile(actual.getId(), actual.getOnAvito(), actual.getAdvComplete(),
+            actual.getAdvActual());
+      }
+      resolved.put(key, actual);
+    });
+    advertisements.forEach(advertisement -> {
+      String key = getKey(advertisement);
+      advertisement.setSellerId(Objects.isNull(key) ? null : resolved.get(key).getId());
+    });
+    afterCommit(() -> {
+      synchronized (this) {
+        cache.putAll(resolved);
+      }
+    });
+  }
+
+  /**
+   * Учесть смену продавцов у объявлений в кол-ве объявлений продавцов
+   *
+   * @param deltas приращение кол-ва объявлений по id продавца
+   */
+  public void addAdvCounts(Map<Long, Long> deltas) {
+    deltas.forEach((id, delta) -> {
+      if (delta != 0) {
+        sellerRepository.addAdvCount(id, delta);
+      }
+    });
+  }
+
+  /**
+   * Пересчитать кол-во объявлений всех продавцов после массового удаления объявлений
+   */
+  public void recountAdvCounts() {
+    sellerRepository.recountAdvCount();
+  }
+
+  @Transactional(readOnly = true)
+  public Seller get(long id) {
+    return sellerRepository.findById(id).orElseThrow(() ->
+        new ResponseStatusException(HttpStatus.NOT_FOUND, String.format("Продавец [%d] не найден", id)));
+  }
+
+  /**
+   * Получить продавцов по убыванию кол-ва объявлений
+   *
+   * @param name  часть имени, необязательно
+   * @param limit кол-во продавцов
+   * @return продавцы
+   */
+  @Transactional(readOnly = true)
+  public List<Seller> find(String name, int limit) {
+    if (Objects.isNull(name) || name.trim().isEmpty()) {
+      return sellerRepository.findAllByOrderByAdvCountDesc(PageRequest.of(0, limit));
+    }
+    return sellerRepository.findByNameContainingIgnoreCaseOrderByAdvCountDesc(name.trim(), PageRequest.of(0, limit));
+  }
+
+  private void afterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        action.run();
+      }
+    });
+  }
+
+  @lombok.Value
+  private static class CachedSeller {
+
+    Long id;
+
+    String onAvito;
+
+    String advComplete;
+
+    String advActual;
+
+    static CachedSeller of(Seller seller) {
+      return new CachedSeller(seller.getId(), seller.getOnAvito(), seller.getAdvComplete(), seller.getAdvActual());
+    }
+
+  }
+
+}
@@ -0,0 +1,105 @@
+package com.ddkolesnik.siteparser.service;
+
+import com.ddkolesnik.siteparser.utils.Pipeline;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Совмещение одинаковых загрузок в пределах одного запуска сбора. Первая задача по ключу загружает и разбирает
+ * страницу, задачи с тем же ключом - одновременные или более поздние - получают её результат без повторного
+ * запроса. Результат хранится до конца запуска, неудачная загрузка забывается, чтобы следующая задача повторила её
+ *
+ * @param <V> результат загрузки
+ * @author Alexandr Stegnin
+ */
+
+@FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+public class SingleFlight<V> {
+
+  Map<String, Flight<V>> flights = new ConcurrentHashMap<>();
+
+  AtomicInteger shared = new AtomicInteger();
+
+  AtomicInteger crossPipeline = new AtomicInteger();
+
+  /**
+   * Выполнить загрузку или дождаться результата уже начатой загрузки с тем же ключом
+   *
+   * @param key      ключ загрузки
+   * @param pipeline сочетание фильтров задачи
+   * @param loader   загрузка
+   * @param onShared вызывается с сочетанием фильтров первой задачи, если результат получен от неё
+   * @return результат загрузки
+   */
+  public V execute(String key, Pipeline pipeline, Supplier<V> loader, Consumer<Pipeline> onShared) {
+    Flight<V> own = new Flight<>(pipeline);
+    Flight<V> flight = flights.putIfAbsent(key, own);
+    if (Objects.isNull(flight)) {
+      try {
+        V value = loader.get();
+        own.result.complete(value);
+        return value;
+      } catch (RuntimeException e) {
+        flights.remove(key, own);
+        own.result.completeExceptionally(e);
+        throw e;
+      }
+    }
+    V value = await(flight);
+    shared.incrementAndGet();
+    if (!flight.pipeline.equals(pipeline)) {
+      crossPipeline.incrementAndGet();
+    }
+    onShared.accept(flight.pipeline);
+    return value;
+  }
+
+  /**
+   * @return кол-во задач, получивших результат другой задачи
+   */
+  public int getShared() {
+    return shared.get();
+  }
+
+  /**
+   * @return кол-во задач, получивших результат задачи другого сочетания фильтров
+   */
+  public int getCrossPipeline() {
+    return crossPipeline.get();
+  }
+
+  private static <V> V await(Flight<V> flight) {
+    try {
+      return flight.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Ожидание совмещённой загрузки прервано", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+    }
+  }
+
+  @FieldDefaults(makeFinal = true, level = AccessLevel.PRIVATE)
+  private static class Flight<V> {
+
+    Pipeline pipeline;
+
+    CompletableFuture<V> result = new CompletableFuture<>();
+
+    Flight(Pipeline pipeline) {
+      this.pipeline = pipeline;
+    }
+
+  }
+
+}
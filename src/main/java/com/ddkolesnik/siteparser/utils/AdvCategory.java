@@ -6,19 +6,26 @@ package com.ddkolesnik.siteparser.utils;
 
 public enum  AdvCategory {
 
-    COMMERCIAL_PROPERTY("Коммерческая недвижимость", "kommercheskaya_nedvizhimost"),
-    HOUSE_COUNTRY_HOUSE_COTTAGE("Дома, дачи, коттеджи", "doma_dachi_kottedzhi"),
-    STEAD("Земельные участки", "zemelnye_uchastki");
+    COMMERCIAL_PROPERTY(1, "Коммерческая недвижимость", "kommercheskaya_nedvizhimost"),
+    HOUSE_COUNTRY_HOUSE_COTTAGE(2, "Дома, дачи, коттеджи", "doma_dachi_kottedzhi"),
+    STEAD(3, "Земельные участки", "zemelnye_uchastki");
+
+    private final int id;
 
     private final String title;
 
     private final String category;
 
-    AdvCategory(String title, String category) {
+    AdvCategory(int id, String title, String category) {
+        this.id = id;
         this.title = title;
         this.category = category;
     }
 
+    public int getId() {
+        return id;
+    }
+
     public String getTitle() {
         return title;
     }
@@ -26,4 +33,23 @@ public enum  AdvCategory {
     public String getCategory() {
         return category;
     }
+
+    /**
+     * Получить значение по коду, под которым оно хранится в базе данных
+     *
+     * @param id код
+     * @return значение или null, если код не задан
+     */
+    public static AdvCategory fromId(Integer id) {
+        if (id == null) {
+            return null;
+        }
+        for (AdvCategory value : values()) {
+            if (value.id == id) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Неизвестный код [" + id + "]");
+    }
+
 }
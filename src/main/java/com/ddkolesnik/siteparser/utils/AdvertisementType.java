@@ -26,4 +26,22 @@ public enum AdvertisementType {
         return title;
     }
 
+    /**
+     * Получить значение по коду, под которым оно хранится в базе данных
+     *
+     * @param id код
+     * @return значение или null, если код не задан
+     */
+    public static AdvertisementType fromId(Integer id) {
+        if (id == null) {
+            return null;
+        }
+        for (AdvertisementType value : values()) {
+            if (value.id == id) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Неизвестный код [" + id + "]");
+    }
+
 }
@@ -54,4 +54,23 @@ public enum City {
     public String getRentPrice() {
         return rentPrice;
     }
+
+    /**
+     * Получить значение по коду, под которым оно хранится в базе данных
+     *
+     * @param id код
+     * @return значение или null, если код не задан
+     */
+    public static City fromId(Integer id) {
+        if (id == null) {
+            return null;
+        }
+        for (City value : values()) {
+            if (value.id == id) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Неизвестный код [" + id + "]");
+    }
+
 }
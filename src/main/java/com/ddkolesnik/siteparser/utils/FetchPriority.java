@@ -0,0 +1,33 @@
+package com.ddkolesnik.siteparser.utils;
+
+/**
+ * Класс приоритета загрузки страницы объявления
+ *
+ * @author Alexandr Stegnin
+ */
+
+public enum FetchPriority {
+
+    NEW(1, "Новые"),
+    CHANGED(2, "Изменённые"),
+    REVERIFY(3, "Перепроверка"),
+    ENRICH(4, "Дозагрузка");
+
+    private final int id;
+
+    private final String title;
+
+    FetchPriority(int id, String title) {
+        this.id = id;
+        this.title = title;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.ddkolesnik.siteparser.utils;
+
+/**
+ * Этап обработки, для которого ограничивается объём удерживаемых в памяти данных
+ *
+ * @author Alexandr Stegnin
+ */
+
+public enum MemoryStage {
+
+    DOCUMENTS(1, "Загруженные страницы"),
+    LINKS(2, "Ссылки в очереди"),
+    ENTITIES(3, "Объявления к записи");
+
+    private final int id;
+
+    private final String title;
+
+    MemoryStage(int id, String title) {
+        this.id = id;
+        this.title = title;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+}
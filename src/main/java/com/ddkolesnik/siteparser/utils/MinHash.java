@@ -0,0 +1,85 @@
+package com.ddkolesnik.siteparser.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Сигнатуры MinHash и ключи корзин LSH.
+ * Сигнатура из {@link #BANDS} полос по {@link #ROWS} значений: два множества признаков попадают хотя бы
+ * в одну общую корзину с вероятностью 1 - (1 - s^ROWS)^BANDS, где s - коэффициент Жаккара,
+ * порог срабатывания около 0.7
+ *
+ * @author Alexandr Stegnin
+ */
+
+public final class MinHash {
+
+    public static final int BANDS = 16;
+
+    public static final int ROWS = 8;
+
+    private static final int SIZE = BANDS * ROWS;
+
+    private static final long[] SEEDS = new long[SIZE];
+
+    static {
+        // сид фиксирован: сохранённые в базе данных корзины должны совпадать между запусками
+        Random random = new Random(20210826L);
+        for (int i = 0; i < SIZE; i++) {
+            SEEDS[i] = random.nextLong();
+        }
+    }
+
+    private MinHash() {
+    }
+
+    /**
+     * Получить ключи корзин по множеству признаков, по одному на полосу
+     *
+     * @param features признаки
+     * @return ключи корзин, никогда не равны 0
+     */
+    public static long[] bucketKeys(Collection<String> features) {
+        long[] signature = new long[SIZE];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (String feature : features) {
+            long hash = hash(feature);
+            for (int i = 0; i < SIZE; i++) {
+                long value = mix(hash ^ SEEDS[i]);
+                if (value < signature[i]) {
+                    signature[i] = value;
+                }
+            }
+        }
+        long[] keys = new long[BANDS];
+        for (int band = 0; band < BANDS; band++) {
+            long key = band;
+            for (int row = 0; row < ROWS; row++) {
+                key = key * 31 + signature[band * ROWS + row];
+            }
+            key = mix(key);
+            keys[band] = key == 0 ? 1 : key;
+        }
+        return keys;
+    }
+
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+}
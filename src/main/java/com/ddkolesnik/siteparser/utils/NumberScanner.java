@@ -0,0 +1,109 @@
+package com.ddkolesnik.siteparser.utils;
+
+import java.math.BigDecimal;
+
+/**
+ * Разбор чисел из текста объявлений без промежуточных строк и регулярных выражений.
+ * Понимает разделители разрядов (пробел, неразрывный и узкий пробелы), десятичную точку или запятую
+ * и останавливается на первом символе, не относящемся к числу ("м²", "₽" и т.п.)
+ *
+ * @author Alexandr Stegnin
+ */
+
+public final class NumberScanner {
+
+    private static final int MAX_DIGITS = 18;
+
+    private NumberScanner() {
+    }
+
+    /**
+     * Разобрать первое число в тексте
+     *
+     * @param text текст
+     * @return число или null, если в тексте нет цифр или число не помещается в 18 цифр
+     */
+    public static BigDecimal scan(CharSequence text) {
+        return text == null ? null : scan(text, 0);
+    }
+
+    /**
+     * Разобрать первое число после разделителя, например после ":" в "Общая площадь: 120 м²"
+     *
+     * @param text      текст
+     * @param delimiter разделитель
+     * @return число или null, если разделителя или цифр после него нет
+     */
+    public static BigDecimal scanAfter(CharSequence text, char delimiter) {
+        if (text == null) {
+            return null;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == delimiter) {
+                return scan(text, i + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Разобрать первое число в тексте, начиная с позиции
+     *
+     * @param text текст
+     * @param from позиция начала поиска
+     * @return число или null, если цифр нет или в целой части больше 18 цифр
+     */
+    public static BigDecimal scan(CharSequence text, int from) {
+        int length = text.length();
+        int i = from;
+        while (i < length && !isDigit(text.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return null;
+        }
+        long unscaled = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean fraction = false;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (isDigit(c)) {
+                if (digits == MAX_DIGITS) {
+                    // лишние знаки дробной части отбрасываются, слишком длинная целая часть - не число
+                    if (fraction) {
+                        continue;
+                    }
+                    return null;
+                }
+                unscaled = unscaled * 10 + (c - '0');
+                digits++;
+                if (fraction) {
+                    scale++;
+                }
+            } else if (isGroupSeparator(c)) {
+                if (fraction || !isDigitAt(text, i + 1)) {
+                    break;
+                }
+            } else if ((c == '.' || c == ',') && !fraction && isDigitAt(text, i + 1)) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    private static boolean isDigitAt(CharSequence text, int index) {
+        return index < text.length() && isDigit(text.charAt(index));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isGroupSeparator(char c) {
+        return c == ' ' || c == '\u00A0' || c == '\u2009' || c == '\u202F';
+    }
+
+}
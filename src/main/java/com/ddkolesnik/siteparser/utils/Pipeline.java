@@ -0,0 +1,109 @@
+package com.ddkolesnik.siteparser.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Сочетание фильтров, по которому собираются объявления
+ *
+ * @author Alexandr Stegnin
+ */
+
+public class Pipeline {
+
+    private final AdvCategory category;
+
+    private final SubCategory subCategory;
+
+    private final AdvertisementType type;
+
+    private final City city;
+
+    public Pipeline(AdvCategory category, SubCategory subCategory, AdvertisementType type, City city) {
+        this.category = category;
+        this.subCategory = subCategory;
+        this.type = type;
+        this.city = city;
+    }
+
+    /**
+     * Получить список всех собираемых сочетаний фильтров по городу
+     *
+     * @param city город
+     * @return список сочетаний
+     */
+    public static List<Pipeline> all(City city) {
+        return Arrays.asList(
+                new Pipeline(AdvCategory.COMMERCIAL_PROPERTY, SubCategory.TRADING_AREA, AdvertisementType.SALE, city),
+                new Pipeline(AdvCategory.COMMERCIAL_PROPERTY, SubCategory.TRADING_AREA, AdvertisementType.RENT, city),
+                new Pipeline(AdvCategory.COMMERCIAL_PROPERTY, SubCategory.OTHER, AdvertisementType.SALE, city),
+                new Pipeline(AdvCategory.COMMERCIAL_PROPERTY, SubCategory.OTHER, AdvertisementType.RENT, city),
+                new Pipeline(AdvCategory.HOUSE_COUNTRY_HOUSE_COTTAGE, SubCategory.OTHER, AdvertisementType.SALE, city),
+                new Pipeline(AdvCategory.HOUSE_COUNTRY_HOUSE_COTTAGE, SubCategory.OTHER, AdvertisementType.RENT, city),
+                new Pipeline(AdvCategory.STEAD, SubCategory.OTHER, AdvertisementType.SALE, city),
+                new Pipeline(AdvCategory.STEAD, SubCategory.OTHER, AdvertisementType.RENT, city)
+        );
+    }
+
+    /**
+     * Выбрать сочетания фильтров города. Если заданы категория, подкатегория и вид, сочетание одно,
+     * иначе берутся все собираемые сочетания города, подходящие под заданные значения
+     *
+     * @param city        город
+     * @param category    категория объявления, null - любая
+     * @param subCategory подкатегория, null - любая
+     * @param type        вид объявления, null - любой
+     * @return список сочетаний, пустой, если подходящих нет
+     */
+    public static List<Pipeline> select(City city, AdvCategory category, SubCategory subCategory,
+                                        AdvertisementType type) {
+        if (Objects.nonNull(category) && Objects.nonNull(subCategory) && Objects.nonNull(type)) {
+            return Collections.singletonList(new Pipeline(category, subCategory, type, city));
+        }
+        return all(city).stream()
+                .filter(pipeline -> Objects.isNull(category) || pipeline.category == category)
+                .filter(pipeline -> Objects.isNull(subCategory) || pipeline.subCategory == subCategory)
+                .filter(pipeline -> Objects.isNull(type) || pipeline.type == type)
+                .collect(Collectors.toList());
+    }
+
+    public AdvCategory getCategory() {
+        return category;
+    }
+
+    public SubCategory getSubCategory() {
+        return subCategory;
+    }
+
+    public AdvertisementType getType() {
+        return type;
+    }
+
+    public City getCity() {
+        return city;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Pipeline pipeline = (Pipeline) o;
+        return category == pipeline.category && subCategory == pipeline.subCategory &&
+                type == pipeline.type && city == pipeline.city;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(category, subCategory, type, city);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%s] :: [%s] :: [%s] :: [%s]", category.getTitle(), subCategory.getTitle(),
+                type.getTitle(), city.getDescription());
+    }
+
+}
@@ -7,6 +7,7 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.util.Locale;
 
 /**
  * @author Alexandr Stegnin
@@ -14,6 +15,8 @@ import java.security.cert.X509Certificate;
 
 public class UrlUtils {
 
+    public static final String BASE_URL = "https://avito.ru";
+
     private final static String TEMPLATE = "https://avito.ru/%s/%s/%s&s=104";
 
     private static final String PRICE_PART = "&pmin=";
@@ -146,4 +149,34 @@ public class UrlUtils {
         HttpsURLConnection.setDefaultSSLSocketFactory(context.getSocketFactory());
     }
 
+    /**
+     * Привести ссылку на объявление к виду, по которому совпадающие ссылки из разных выдач считаются одной:
+     * без параметров запроса и якоря (выдача добавляет к ссылке свой контекст), без завершающей косой черты,
+     * схема и домен в нижнем регистре
+     *
+     * @param url ссылка
+     * @return приведённая ссылка
+     */
+    public static String normalize(String url) {
+        String result = url.trim();
+        int end = result.length();
+        int query = result.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = result.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        result = result.substring(0, end);
+        while (result.endsWith("/")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        int path = result.indexOf('/', result.indexOf("://") + 3);
+        if (result.contains("://") && path > 0) {
+            result = result.substring(0, path).toLowerCase(Locale.ROOT) + result.substring(path);
+        }
+        return result;
+    }
+
 }
@@ -0,0 +1,67 @@
+package db.migration;
+
+import com.ddkolesnik.siteparser.utils.NumberScanner;
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Заполнение числовой площади из строкового столбца area.
+ * Обход идёт диапазонами id, каждый диапазон фиксируется отдельно, чтобы не держать долгих блокировок
+ *
+ * @author Alexandr Stegnin
+ */
+
+public class V20210810100100__Backfill_advertisement_area_m2 extends BaseJavaMigration {
+
+    private static final long CHUNK_SIZE = 5000;
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        long minId;
+        long maxId;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MIN(id), MAX(id) FROM advertisement")) {
+            rs.next();
+            minId = rs.getLong(1);
+            maxId = rs.getLong(2);
+        }
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, area FROM advertisement WHERE id BETWEEN ? AND ? AND area IS NOT NULL AND area_m2 IS NULL");
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE advertisement SET area_m2 = ? WHERE id = ?")) {
+            for (long from = minId; from <= maxId; from += CHUNK_SIZE) {
+                select.setLong(1, from);
+                select.setLong(2, from + CHUNK_SIZE - 1);
+                int updates = 0;
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        BigDecimal area = NumberScanner.scan(rs.getString(2));
+                        if (area == null) {
+                            continue;
+                        }
+                        update.setBigDecimal(1, area);
+                        update.setLong(2, rs.getLong(1));
+                        update.addBatch();
+                        updates++;
+                    }
+                }
+                if (updates > 0) {
+                    update.executeBatch();
+                }
+            }
+        }
+    }
+
+}
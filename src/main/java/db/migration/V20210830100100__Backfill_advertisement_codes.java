@@ -0,0 +1,75 @@
+package db.migration;
+
+import com.ddkolesnik.siteparser.utils.AdvCategory;
+import com.ddkolesnik.siteparser.utils.AdvertisementType;
+import com.ddkolesnik.siteparser.utils.City;
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Заполнение кодов города, категории и вида объявления по строковым столбцам.
+ * Соответствие строк кодам берётся из перечислений, строки вне перечислений получают NULL.
+ * Обход идёт диапазонами id, каждый диапазон фиксируется отдельно, чтобы не держать долгих блокировок
+ *
+ * @author Alexandr Stegnin
+ */
+
+public class V20210830100100__Backfill_advertisement_codes extends BaseJavaMigration {
+
+    private static final long CHUNK_SIZE = 5000;
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        long minId;
+        long maxId;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MIN(id), MAX(id) FROM advertisement")) {
+            rs.next();
+            minId = rs.getLong(1);
+            maxId = rs.getLong(2);
+        }
+        Map<String, Integer> cities = new LinkedHashMap<>();
+        for (City city : City.values()) {
+            cities.put(city.getDescription(), city.getId());
+        }
+        Map<String, Integer> categories = new LinkedHashMap<>();
+        for (AdvCategory category : AdvCategory.values()) {
+            categories.put(category.getTitle(), category.getId());
+        }
+        Map<String, Integer> types = new LinkedHashMap<>();
+        for (AdvertisementType type : AdvertisementType.values()) {
+            types.put(type.getTitle(), type.getId());
+        }
+        String sql = "UPDATE advertisement SET city_code = " + decode("city", cities) +
+                ", category_code = " + decode("category", categories) +
+                ", adv_type_code = " + decode("adv_type", types) +
+                " WHERE id BETWEEN ? AND ?";
+        try (PreparedStatement update = connection.prepareStatement(sql)) {
+            for (long from = minId; from <= maxId; from += CHUNK_SIZE) {
+                update.setLong(1, from);
+                update.setLong(2, from + CHUNK_SIZE - 1);
+                update.executeUpdate();
+            }
+        }
+    }
+
+    private static String decode(String column, Map<String, Integer> codes) {
+        StringBuilder sql = new StringBuilder("CASE ").append(column);
+        codes.forEach((title, id) -> sql.append(" WHEN '").append(title).append("' THEN ").append(id));
+        return sql.append(" END").toString();
+    }
+
+}
@@ -0,0 +1 @@
+CREATE INDEX advertisement_link_idx ON advertisement (link);
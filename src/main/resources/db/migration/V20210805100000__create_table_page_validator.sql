@@ -0,0 +1,12 @@
+CREATE TABLE page_validator
+(
+    id            INT8 PRIMARY KEY,
+    url           VARCHAR(1000) NOT NULL,
+    etag          VARCHAR(255) DEFAULT NULL,
+    last_modified VARCHAR(64)  DEFAULT NULL,
+    body_hash     VARCHAR(32)  DEFAULT NULL,
+    creation_time TIMESTAMP    NOT NULL DEFAULT NOW(),
+    modified_time TIMESTAMP    DEFAULT NULL
+);
+
+CREATE UNIQUE INDEX page_validator_url_uindex ON page_validator (url);
@@ -0,0 +1 @@
+ALTER TABLE advertisement ADD area_m2 NUMERIC(12, 2) DEFAULT NULL;
@@ -0,0 +1,2 @@
+CREATE INDEX advertisement_city_category_adv_type_price_idx ON advertisement (city, category, adv_type, price);
+CREATE INDEX advertisement_city_category_adv_type_area_m2_idx ON advertisement (city, category, adv_type, area_m2);
@@ -0,0 +1,3 @@
+CREATE INDEX advertisement_publish_date_id_idx ON advertisement (publish_date DESC, id DESC);
+CREATE INDEX advertisement_city_category_adv_type_publish_date_id_idx
+    ON advertisement (city, category, adv_type, publish_date DESC, id DESC);
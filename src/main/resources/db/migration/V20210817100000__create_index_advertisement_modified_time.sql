@@ -0,0 +1,2 @@
+CREATE INDEX advertisement_modified_time_idx ON advertisement (modified_time);
+CREATE INDEX advertisement_creation_time_idx ON advertisement (creation_time);
@@ -0,0 +1,19 @@
+CREATE TABLE advertisement_stats
+(
+    city          VARCHAR(20)    DEFAULT NULL,
+    category      VARCHAR(100)   DEFAULT NULL,
+    adv_type      VARCHAR(10)    DEFAULT NULL,
+    actual        BOOL           NOT NULL,
+    adv_count     INT8           NOT NULL DEFAULT 0,
+    price_count   INT8           NOT NULL DEFAULT 0,
+    price_sum     DECIMAL(30, 2) NOT NULL DEFAULT 0,
+    area_count    INT8           NOT NULL DEFAULT 0,
+    area_sum      DECIMAL(30, 2) NOT NULL DEFAULT 0,
+    modified_time TIMESTAMP      NOT NULL DEFAULT NOW()
+);
+
+INSERT INTO advertisement_stats (city, category, adv_type, actual, adv_count, price_count, price_sum, area_count, area_sum)
+SELECT city, category, adv_type, actual, COUNT(*), COUNT(price), COALESCE(SUM(price), 0), COUNT(area_m2),
+       COALESCE(SUM(area_m2), 0)
+FROM advertisement
+GROUP BY city, category, adv_type, actual;
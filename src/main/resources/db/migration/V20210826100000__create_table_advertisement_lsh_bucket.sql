@@ -0,0 +1,11 @@
+ALTER TABLE advertisement ADD cluster_id INT8 DEFAULT NULL;
+
+CREATE INDEX advertisement_cluster_id_idx ON advertisement (cluster_id);
+
+CREATE TABLE advertisement_lsh_bucket
+(
+    bucket           INT8 NOT NULL,
+    advertisement_id INT8 NOT NULL
+);
+
+CREATE INDEX advertisement_lsh_bucket_advertisement_id_idx ON advertisement_lsh_bucket (advertisement_id);
@@ -0,0 +1,6 @@
+ALTER TABLE advertisement
+    ADD city_code SMALLINT DEFAULT NULL;
+ALTER TABLE advertisement
+    ADD category_code SMALLINT DEFAULT NULL;
+ALTER TABLE advertisement
+    ADD adv_type_code SMALLINT DEFAULT NULL;
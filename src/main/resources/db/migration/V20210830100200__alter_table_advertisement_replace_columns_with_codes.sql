@@ -0,0 +1,38 @@
+-- индексы по строковым столбцам удаляются вместе с ними
+ALTER TABLE advertisement
+    DROP COLUMN city;
+ALTER TABLE advertisement
+    DROP COLUMN category;
+ALTER TABLE advertisement
+    DROP COLUMN adv_type;
+
+ALTER TABLE advertisement
+    RENAME COLUMN city_code TO city;
+ALTER TABLE advertisement
+    RENAME COLUMN category_code TO category;
+ALTER TABLE advertisement
+    RENAME COLUMN adv_type_code TO adv_type;
+
+CREATE INDEX advertisement_city_category_adv_type_publish_date_id_idx
+    ON advertisement (city, category, adv_type, publish_date DESC, id DESC);
+CREATE INDEX advertisement_city_category_adv_type_price_idx ON advertisement (city, category, adv_type, price);
+CREATE INDEX advertisement_city_category_adv_type_area_m2_idx ON advertisement (city, category, adv_type, area_m2);
+
+DELETE FROM advertisement_stats;
+ALTER TABLE advertisement_stats
+    DROP COLUMN city;
+ALTER TABLE advertisement_stats
+    DROP COLUMN category;
+ALTER TABLE advertisement_stats
+    DROP COLUMN adv_type;
+ALTER TABLE advertisement_stats
+    ADD city SMALLINT DEFAULT NULL;
+ALTER TABLE advertisement_stats
+    ADD category SMALLINT DEFAULT NULL;
+ALTER TABLE advertisement_stats
+    ADD adv_type SMALLINT DEFAULT NULL;
+INSERT INTO advertisement_stats (city, category, adv_type, actual, adv_count, price_count, price_sum, area_count, area_sum)
+SELECT city, category, adv_type, actual, COUNT(*), COUNT(price), COALESCE(SUM(price), 0), COUNT(area_m2),
+       COALESCE(SUM(area_m2), 0)
+FROM advertisement
+GROUP BY city, category, adv_type, actual;
@@ -0,0 +1,14 @@
+-- задачи на загрузку, не выполненные к остановке приложения; забираются следующим запуском тех же фильтров
+CREATE TABLE crawl_checkpoint
+(
+    link          VARCHAR(1000) NOT NULL,
+    publish_date  DATE        DEFAULT NULL,
+    category      VARCHAR(40) NOT NULL,
+    sub_category  VARCHAR(40) NOT NULL,
+    adv_type      VARCHAR(40) NOT NULL,
+    city          VARCHAR(40) NOT NULL,
+    priority      VARCHAR(40) NOT NULL,
+    creation_time TIMESTAMP   NOT NULL DEFAULT NOW()
+);
+
+CREATE INDEX crawl_checkpoint_city_category_idx ON crawl_checkpoint (city, category, sub_category, adv_type);
@@ -0,0 +1,38 @@
+-- история запусков сбора объявлений и показатели каждого сочетания фильтров в запуске
+CREATE TABLE crawl_run
+(
+    id              INT8 PRIMARY KEY,
+    job_id          INT8        NOT NULL,
+    trigger_type    VARCHAR(20) NOT NULL,
+    mode            VARCHAR(20) NOT NULL,
+    state           VARCHAR(20) NOT NULL,
+    started_at      TIMESTAMP   NOT NULL,
+    finished_at     TIMESTAMP DEFAULT NULL,
+    duration_millis INT8      DEFAULT NULL,
+    error           TEXT      DEFAULT NULL
+);
+
+CREATE INDEX crawl_run_mode_idx ON crawl_run (mode, state, id);
+
+CREATE TABLE crawl_run_pipeline
+(
+    run_id         INT8        NOT NULL REFERENCES crawl_run (id) ON DELETE CASCADE,
+    category       VARCHAR(40) NOT NULL,
+    sub_category   VARCHAR(40) NOT NULL,
+    adv_type       VARCHAR(40) NOT NULL,
+    city           VARCHAR(40) NOT NULL,
+    pages          INT4        NOT NULL DEFAULT 0,
+    detail_fetches INT4        NOT NULL DEFAULT 0,
+    cache_hits     INT4        NOT NULL DEFAULT 0,
+    retries        INT4        NOT NULL DEFAULT 0,
+    block_pages    INT4        NOT NULL DEFAULT 0,
+    inserted       INT4        NOT NULL DEFAULT 0,
+    updated        INT4        NOT NULL DEFAULT 0,
+    skipped        INT4        NOT NULL DEFAULT 0,
+    errors         INT4        NOT NULL DEFAULT 0,
+    fetch_millis   INT8        NOT NULL DEFAULT 0,
+    db_millis      INT8        NOT NULL DEFAULT 0,
+    PRIMARY KEY (run_id, city, category, sub_category, adv_type)
+);
+
+CREATE INDEX crawl_run_pipeline_city_category_idx ON crawl_run_pipeline (city, category, sub_category, adv_type);
@@ -0,0 +1,6 @@
+-- задачи, получившие результат загрузки той же страницы другой задачей запуска, в т.ч. другого сочетания фильтров
+ALTER TABLE crawl_run_pipeline
+    ADD COLUMN shared_hits INT4 NOT NULL DEFAULT 0;
+
+ALTER TABLE crawl_run_pipeline
+    ADD COLUMN cross_pipeline_hits INT4 NOT NULL DEFAULT 0;
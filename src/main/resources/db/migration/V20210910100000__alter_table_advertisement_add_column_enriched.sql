@@ -0,0 +1,9 @@
+-- false - объявление записано по карточке из выдачи и ждёт загрузки страницы объявления
+ALTER TABLE advertisement
+    ADD COLUMN enriched BOOLEAN NOT NULL DEFAULT TRUE;
+
+ALTER TABLE crawl_run_pipeline
+    ADD COLUMN cards INT4 NOT NULL DEFAULT 0;
+
+ALTER TABLE crawl_run_pipeline
+    ADD COLUMN enriched INT4 NOT NULL DEFAULT 0;
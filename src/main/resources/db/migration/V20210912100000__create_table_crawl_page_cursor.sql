@@ -0,0 +1,14 @@
+-- страница списка, на которой остановка приложения прервала сбор ссылок; следующий запуск тех же фильтров
+-- продолжает с неё без отсечения по дате последней публикации. last_page не задана - кол-во страниц неизвестно
+CREATE TABLE crawl_page_cursor
+(
+    category      VARCHAR(40) NOT NULL,
+    sub_category  VARCHAR(40) NOT NULL,
+    adv_type      VARCHAR(40) NOT NULL,
+    city          VARCHAR(40) NOT NULL,
+    next_page     INT         NOT NULL,
+    last_page     INT                  DEFAULT NULL,
+    creation_time TIMESTAMP   NOT NULL DEFAULT NOW()
+);
+
+CREATE UNIQUE INDEX crawl_page_cursor_city_category_uindex ON crawl_page_cursor (city, category, sub_category, adv_type);
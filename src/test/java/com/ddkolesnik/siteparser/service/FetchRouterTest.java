@@ -0,0 +1,204 @@
+package com.ddkolesnik.siteparser.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.ddkolesnik.siteparser.config.AppConfig;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import kong.unirest.UnirestInstance;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Выбор способа загрузки страниц: сайт и ScraperAPI подменены локальными HTTP серверами,
+ * прямая загрузка и ScraperAPI - настоящие клиенты приложения
+ *
+ * @author Alexandr Stegnin
+ */
+
+class FetchRouterTest {
+
+  private static final String PAGE_URL = "https://avito.ru/tyumen/zemelnye_uchastki/test_1";
+
+  private HttpServer site;
+
+  private HttpServer scraperApi;
+
+  // ответ сайта: 200 - страница объявления, 403 - страница блокировки, иначе - ошибка с пустым телом
+  private volatile int siteStatus = 200;
+
+  private final AtomicInteger siteRequests = new AtomicInteger();
+
+  private final AtomicInteger scraperApiRequests = new AtomicInteger();
+
+  private DirectFetchService direct;
+
+  private ScraperApiService scraperApiService;
+
+  private UnirestInstance unirest;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    site = start(exchange -> {
+      siteRequests.incrementAndGet();
+      if (siteStatus == 200) {
+        respond(exchange, 200, "<html><body><h1>Прямая загрузка</h1></body></html>");
+      } else if (siteStatus == 403) {
+        respond(exchange, 403, "<html><body>Доступ ограничен: подозрительная активность</body></html>");
+      } else {
+        respond(exchange, siteStatus, "");
+      }
+    });
+    scraperApi = start(exchange -> {
+      scraperApiRequests.incrementAndGet();
+      String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), StandardCharsets.UTF_8.name());
+      respond(exchange, 200, "<html><body><h1>ScraperAPI</h1><p>" + query + "</p></body></html>");
+    });
+    AppConfig config = new AppConfig();
+    StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+    beanFactory.addBean("webClient", config.webClient());
+    direct = new DirectFetchService(beanFactory.getBeanProvider(WebClient.class), true, 0.1, 1, 5000,
+        "http://127.0.0.1:" + site.getAddress().getPort());
+    unirest = config.scraperApiUnirest();
+    scraperApiService = new ScraperApiService(unirest);
+    ReflectionTestUtils.setField(scraperApiService, "apiKey", "test");
+    ReflectionTestUtils.setField(scraperApiService, "apiUrl", "http://127.0.0.1:" + scraperApi.getAddress().getPort());
+    ReflectionTestUtils.setField(scraperApiService, "cost", 1d);
+  }
+
+  @AfterEach
+  void tearDown() {
+    direct.close();
+    unirest.shutDown();
+    site.stop(0);
+    scraperApi.stop(0);
+  }
+
+  @Test
+  void directPageIsUsedWhenSiteAnswers() {
+    Document document = router(0.5, 0).getDocument(PAGE_URL);
+
+    assertEquals("Прямая загрузка", document.select("h1").text());
+    assertEquals(1, siteRequests.get());
+    assertEquals(0, scraperApiRequests.get());
+  }
+
+  @Test
+  void blockPageFallsBackToScraperApi() {
+    siteStatus = 403;
+
+    Document document = router(0.5, 0).getDocument(PAGE_URL);
+
+    assertEquals("ScraperAPI", document.select("h1").text());
+    assertTrue(document.text().contains(PAGE_URL));
+    assertEquals(1, siteRequests.get());
+    assertEquals(1, scraperApiRequests.get());
+  }
+
+  @Test
+  void errorStatusFallsBackToScraperApi() {
+    siteStatus = 503;
+
+    Document document = router(0.5, 0).getDocument(PAGE_URL);
+
+    assertEquals("ScraperAPI", document.select("h1").text());
+    assertEquals(1, siteRequests.get());
+    assertEquals(1, scraperApiRequests.get());
+  }
+
+  @Test
+  void directIsSkippedWhileSuccessRateDoesNotPayOff() {
+    siteStatus = 403;
+    FetchRouter router = router(0.5, 0);
+
+    // доля успеха 1 -> 0.5 -> 0.25 -> 0.125 -> 0.0625: после четвёртой неудачи 0.1 < 0.0625 * 1 неверно
+    for (int i = 0; i < 10; i++) {
+      router.getDocument(PAGE_URL);
+    }
+
+    assertEquals(4, siteRequests.get());
+    assertEquals(10, scraperApiRequests.get());
+    Map<String, Object> status = router.getStatus().get(0);
+    assertEquals("direct", status.get("backend"));
+    assertFalse((Boolean) status.get("active"));
+    assertEquals(6L, status.get("skipped"));
+  }
+
+  @Test
+  void skippedDirectIsProbedAndResumesAfterRecovery() {
+    siteStatus = 403;
+    FetchRouter router = router(0.5, 3);
+    for (int i = 0; i < 4; i++) {
+      router.getDocument(PAGE_URL);
+    }
+    assertEquals(4, siteRequests.get());
+    siteStatus = 200;
+
+    // пропуски 1 и 2 идут сразу в ScraperAPI, третий пропуск - пробный запрос к сайту
+    assertEquals("ScraperAPI", router.getDocument(PAGE_URL).select("h1").text());
+    assertEquals("ScraperAPI", router.getDocument(PAGE_URL).select("h1").text());
+    assertEquals("Прямая загрузка", router.getDocument(PAGE_URL).select("h1").text());
+    assertEquals(5, siteRequests.get());
+
+    // удачная проверка поднимает долю успеха до 0.53, способ снова используется без пропусков
+    for (int i = 0; i < 5; i++) {
+      assertEquals("Прямая загрузка", router.getDocument(PAGE_URL).select("h1").text());
+    }
+    assertEquals(10, siteRequests.get());
+    assertEquals(6, scraperApiRequests.get());
+    assertTrue((Boolean) router.getStatus().get(0).get("active"));
+  }
+
+  private FetchRouter router(double alpha, int probeEvery) {
+    List<FetchBackend> backends = Arrays.asList(scraperApiService, direct);
+    return new FetchRouter(backends, null, alpha, probeEvery);
+  }
+
+  private static HttpServer start(Handler handler) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", exchange -> {
+      try {
+        handler.handle(exchange);
+      } finally {
+        exchange.close();
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+    if (bytes.length > 0) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface Handler {
+
+    void handle(HttpExchange exchange) throws IOException;
+
+  }
+
+}